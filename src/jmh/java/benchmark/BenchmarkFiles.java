@@ -0,0 +1,84 @@
+package benchmark;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.Security;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Helper for the benchmarks: registers the Bouncy Castle provider and creates test files of a given size
+ * in a temporary directory that is deleted again after the trial.
+ */
+final class BenchmarkFiles {
+
+    // File sizes from 1 KB to 1 GB used by default, override with -p fileSize=...
+    static final String KB = "1024";
+    static final String MB = "1048576";
+    static final String MB_128 = "134217728";
+    static final String GB = "1073741824";
+
+    private BenchmarkFiles() {
+    }
+
+    /**
+     * Register the Bouncy Castle provider, all engines are requested from "BC"
+     */
+    static void registerProvider() {
+        if (Security.getProvider("BC") == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    /**
+     * Create a temporary directory for the files of one trial
+     *
+     * @return the new directory
+     * @throws IOException when the directory cannot be created
+     */
+    static Path createDirectory() throws IOException {
+        return Files.createTempDirectory("filecrypt-benchmark");
+    }
+
+    /**
+     * Write a file with pseudo random content, written in 1 MB blocks so 1 GB files do not need 1 GB of heap
+     *
+     * @param directory directory the file is created in
+     * @param size      size of the file in bytes
+     * @return the new file
+     * @throws IOException when the file cannot be written
+     */
+    static File createFile(Path directory, long size) throws IOException {
+        File file = directory.resolve("BenchmarkFile.bin").toFile();
+        byte[] block = new byte[1024 * 1024];
+        Random random = new Random(size);
+        try (OutputStream outputStream = new FileOutputStream(file)) {
+            for (long written = 0; written < size; written += block.length) {
+                random.nextBytes(block);
+                outputStream.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Delete a directory created by {@link #createDirectory()} with everything in it
+     *
+     * @param directory directory to be deleted
+     * @throws IOException when a file cannot be deleted
+     */
+    static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
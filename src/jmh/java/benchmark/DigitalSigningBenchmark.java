@@ -0,0 +1,70 @@
+package benchmark;
+
+import encryption.DigitalSigning;
+import encryption.SigningIdentity;
+import encryption.enums.SignatureAlgorithm;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link DigitalSigning} sign and verify for every signature algorithm.
+ * Uses a signing identity in the temporary directory, the identity in the home directory is not touched.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class DigitalSigningBenchmark {
+
+    @Param({"DSA", "ECDSAP256", "ED25519"})
+    public SignatureAlgorithm algorithm;
+
+    @Param({BenchmarkFiles.KB, BenchmarkFiles.MB, BenchmarkFiles.MB_128, BenchmarkFiles.GB})
+    public long fileSize;
+
+    private Path directory;
+    private File inputFile;
+    private File signatureFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkFiles.registerProvider();
+        directory = BenchmarkFiles.createDirectory();
+        inputFile = BenchmarkFiles.createFile(directory, fileSize);
+        signatureFile = new File(inputFile.getPath() + "_sig.json");
+        DigitalSigning.setIdentity(
+                SigningIdentity.loadOrCreate(directory.resolve("signing_identity.json").toFile(), algorithm));
+
+        // signature file for the verify benchmark
+        DigitalSigning.sign(inputFile, signatureFile, algorithm);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkFiles.delete(directory);
+    }
+
+    /**
+     * Sign the input file and write the signature file
+     */
+    @Benchmark
+    public void sign(ProcessedBytes processedBytes) throws Exception {
+        DigitalSigning.sign(inputFile, signatureFile, algorithm);
+        processedBytes.bytes += fileSize;
+    }
+
+    /**
+     * Verify the signature created in the setup
+     */
+    @Benchmark
+    public boolean verify(ProcessedBytes processedBytes) throws Exception {
+        boolean result = DigitalSigning.verify(inputFile, signatureFile);
+        processedBytes.bytes += fileSize;
+        return result;
+    }
+}
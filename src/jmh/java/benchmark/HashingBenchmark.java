@@ -0,0 +1,66 @@
+package benchmark;
+
+import encryption.Hashing;
+import encryption.enums.HashAlgorithm;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link Hashing} for every hash algorithm
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class HashingBenchmark {
+
+    @Param({"SHA256", "AESCMAC", "HMACSHA256", "SHA256TREE"})
+    public HashAlgorithm algorithm;
+
+    @Param({BenchmarkFiles.KB, BenchmarkFiles.MB, BenchmarkFiles.MB_128, BenchmarkFiles.GB})
+    public long fileSize;
+
+    private Path directory;
+    private File inputFile;
+    private File hashFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkFiles.registerProvider();
+        directory = BenchmarkFiles.createDirectory();
+        inputFile = BenchmarkFiles.createFile(directory, fileSize);
+        hashFile = new File(inputFile.getPath() + "_hash.json");
+
+        // hash file for the check benchmark
+        new Hashing().hash(inputFile, hashFile, algorithm);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkFiles.delete(directory);
+    }
+
+    /**
+     * Hash the input file and write the hash file
+     */
+    @Benchmark
+    public void hash(ProcessedBytes processedBytes) throws Exception {
+        new Hashing().hash(inputFile, hashFile, algorithm);
+        processedBytes.bytes += fileSize;
+    }
+
+    /**
+     * Hash the input file again and compare it to the hash file
+     */
+    @Benchmark
+    public boolean check(ProcessedBytes processedBytes) throws Exception {
+        boolean result = new Hashing().checkHash(inputFile, hashFile);
+        processedBytes.bytes += fileSize;
+        return result;
+    }
+}
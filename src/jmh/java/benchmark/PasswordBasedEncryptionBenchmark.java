@@ -0,0 +1,90 @@
+package benchmark;
+
+import encryption.PasswordBasedEncryption;
+import encryption.enums.BlockMode;
+import encryption.enums.KeyDerivationFunction;
+import encryption.enums.PaddingMode;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link PasswordBasedEncryption} per key derivation function.
+ * With the default 1 KB file the time is dominated by the key derivation, larger files add the cipher throughput.
+ * SHA256 is only supported with CBC, so SCRYPT and ARGON2ID are measured with GCM and SHA256 with CBC.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class PasswordBasedEncryptionBenchmark {
+
+    private static final String PASSWORD = "benchmark password";
+
+    @Param({"SCRYPT", "ARGON2ID", "SHA256"})
+    public KeyDerivationFunction kdf;
+
+    @Param({BenchmarkFiles.KB})
+    public long fileSize;
+
+    private Path directory;
+    private File inputFile;
+    private File encryptedFile;
+    private File configurationFile;
+    private BlockMode blockMode;
+    private PaddingMode paddingMode;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkFiles.registerProvider();
+        directory = BenchmarkFiles.createDirectory();
+        inputFile = BenchmarkFiles.createFile(directory, fileSize);
+        encryptedFile = new File(inputFile.getPath() + ".encrypted");
+        configurationFile = new File(inputFile.getPath() + ".json");
+        blockMode = kdf == KeyDerivationFunction.SHA256 ? BlockMode.CBC : BlockMode.GCM;
+        paddingMode = kdf == KeyDerivationFunction.SHA256 ? PaddingMode.PKCS7Padding : PaddingMode.NoPadding;
+
+        // encrypted file for the decrypt benchmark
+        encrypt();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkFiles.delete(directory);
+    }
+
+    /**
+     * Derive a key with a new salt and encrypt the input file
+     */
+    @Benchmark
+    public void encrypt() throws Exception {
+        PasswordBasedEncryption encryption = new PasswordBasedEncryption();
+        encryption.init(paddingMode, blockMode, kdf, 256, inputFile, null, PASSWORD);
+        encryption.encrypt();
+    }
+
+    /**
+     * Derive the key from the stored salt and decrypt the file encrypted in the setup
+     */
+    @Benchmark
+    public void decrypt() throws Exception {
+        PasswordBasedEncryption.clearKeyCache();
+        PasswordBasedEncryption encryption = new PasswordBasedEncryption();
+        encryption.init(paddingMode, blockMode, kdf, 256, encryptedFile, configurationFile, PASSWORD);
+        encryption.decrypt();
+    }
+
+    /**
+     * Decrypt the file encrypted in the setup with the key cached by an earlier decryption
+     */
+    @Benchmark
+    public void decryptCached() throws Exception {
+        PasswordBasedEncryption encryption = new PasswordBasedEncryption();
+        encryption.init(paddingMode, blockMode, kdf, 256, encryptedFile, configurationFile, PASSWORD);
+        encryption.decrypt();
+    }
+}
@@ -0,0 +1,79 @@
+package benchmark;
+
+import encryption.SymmetricEncryption;
+import encryption.enums.BlockMode;
+import encryption.enums.PaddingMode;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link SymmetricEncryption} for every block mode, padding mode and key length.
+ * Combinations the library does not support (e.g. GCM with padding) fail in the setup and are reported as errors by JMH.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class SymmetricEncryptionBenchmark {
+
+    @Param({"ECB", "CBC", "OFB", "CTS", "GCM", "CCM"})
+    public BlockMode blockMode;
+
+    @Param({"NoPadding", "PKCS7Padding", "ZeroBytePadding"})
+    public PaddingMode paddingMode;
+
+    @Param({"128", "192", "256"})
+    public int keyLength;
+
+    @Param({BenchmarkFiles.KB, BenchmarkFiles.MB, BenchmarkFiles.MB_128, BenchmarkFiles.GB})
+    public long fileSize;
+
+    private Path directory;
+    private File inputFile;
+    private File encryptedFile;
+    private File configurationFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkFiles.registerProvider();
+        directory = BenchmarkFiles.createDirectory();
+        inputFile = BenchmarkFiles.createFile(directory, fileSize);
+        encryptedFile = new File(inputFile.getPath() + ".encrypted");
+        configurationFile = new File(inputFile.getPath() + ".json");
+
+        // encrypted file for the decrypt benchmark, fails for unsupported combinations
+        encrypt(new ProcessedBytes());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkFiles.delete(directory);
+    }
+
+    /**
+     * Encrypt the input file including key generation and writing the configuration file
+     */
+    @Benchmark
+    public void encrypt(ProcessedBytes processedBytes) throws Exception {
+        SymmetricEncryption encryption = new SymmetricEncryption();
+        encryption.init(paddingMode, blockMode, keyLength, inputFile, null);
+        encryption.encrypt();
+        processedBytes.bytes += fileSize;
+    }
+
+    /**
+     * Decrypt the file encrypted in the setup including reading the configuration file
+     */
+    @Benchmark
+    public void decrypt(ProcessedBytes processedBytes) throws Exception {
+        SymmetricEncryption encryption = new SymmetricEncryption();
+        encryption.init(paddingMode, blockMode, keyLength, encryptedFile, configurationFile);
+        encryption.decrypt();
+        processedBytes.bytes += fileSize;
+    }
+}
@@ -0,0 +1,565 @@
+package cli;
+
+import cli.enums.ExitCode;
+import encryption.BatchEncryption;
+import encryption.BatchReport;
+import encryption.DigitalSigning;
+import encryption.DirectoryManifest;
+import encryption.FileHeader;
+import encryption.Hashing;
+import encryption.PasswordBasedEncryption;
+import encryption.PbeSession;
+import encryption.ScryptParameters;
+import encryption.SegmentedEncryption;
+import encryption.SymmetricEncryption;
+import encryption.enums.BlockMode;
+import encryption.enums.HashAlgorithm;
+import encryption.enums.KeyDerivationFunction;
+import encryption.enums.PaddingMode;
+import encryption.enums.SignatureAlgorithm;
+import encryption.interfaces.SymmetricalEncryptor;
+import org.apache.commons.io.FilenameUtils;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import javax.crypto.BadPaddingException;
+import java.io.Console;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Headless command line entry point. Calls the encryption package directly without starting JavaFX.
+ * Prints one result line per command and returns an {@link ExitCode} to the caller.
+ *
+ * @author Leo Nobis
+ */
+public class FileCryptCli {
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: FileCryptCli <command> [options] <files>",
+            "",
+            "Commands:",
+            "  encrypt-aes <file> [--mode GCM] [--padding NoPadding] [--key-length 256] [--segmented]",
+            "  decrypt-aes <file.encrypted> <file.json> [--segmented]",
+            "  encrypt-pbe <file> [--kdf SCRYPT] [--mode GCM] [--padding NoPadding]",
+            "              [--scrypt-cost 65536] [--scrypt-block-size 128] [--scrypt-parallelization 1]",
+            "              [--argon2-memory 65536] [--argon2-iterations 3] [--argon2-lanes 4]",
+            "  decrypt-pbe <file.encrypted> [<file.json>] [--kdf SCRYPT]",
+            "  verify-aes <file.encrypted> <file.json> [--segmented]",
+            "  verify-pbe <file.encrypted> [<file.json>]",
+            "  inspect <file.encrypted>",
+            "  calibrate-scrypt [--target-millis 1000] [--max-memory-mb 256]",
+            "  sign <file> [--algorithm ED25519] [--out <file_sig.json>]",
+            "  verify <file> <file_sig.json>",
+            "  hash <file> [--algorithm SHA256] [--out <file_hash.json>]",
+            "  check <file> <file_hash.json>",
+            "  hash-dir <directory> [--algorithm SHA256] [--out <directory>_manifest.json] [--workers <cpus>]",
+            "  check-dir <directory> <directory_manifest.json> [--workers <cpus>] [--full]",
+            "  batch <encrypt-aes|decrypt-aes|verify-aes|encrypt-pbe|decrypt-pbe|verify-pbe> <directory>",
+            "        [--workers <cpus>] [options]",
+            "",
+            "Option values shown are the defaults. Decryption reads mode, padding, key length and KDF",
+            "from the header of the encrypted file, the configuration file holds the AES key.",
+            "PBE files only need a configuration file if they were written without header.",
+            "verify-aes and verify-pbe check the authentication tag of GCM, CCM and segmented files",
+            "without writing the plaintext.",
+            "KDFs: SCRYPT, ARGON2ID (memory in KiB), SHA256 (CBC only).",
+            "Signature algorithms: DSA, ECDSAP256, ED25519.",
+            "Hash algorithms: SHA256, AESCMAC, HMACSHA256, SHA256TREE (parallel, for large files).",
+            "A comma separated list, e.g. --algorithm SHA256,HMACSHA256, reads the file once and writes",
+            "all hashes to one manifest, check verifies all of them. hash-dir hashes every file of a",
+            "directory tree in parallel into one manifest, check-dir prints changed and missing files",
+            "as they are found. Files whose size, modification time and inode did not change since they",
+            "last matched are skipped (index <manifest>.index), --full hashes every file again.",
+            "",
+            "PBE commands read the password from the FILECRYPT_PASSWORD environment variable,",
+            "from --password-file <file> or from the console.",
+            "Batch commands process every file of a directory tree in parallel and take the options",
+            "of the single file command. SCRYPT needs 128 * cost * block size bytes of memory per worker,",
+            "about 1 GB with the defaults. calibrate-scrypt prints the strongest scrypt options",
+            "that fit a time and memory budget on this host. Workers wait for scrypt and Argon2id memory",
+            "within -Dfilecrypt.kdf.memory=<MB>, three quarters of the heap by default.",
+            "",
+            "Exit codes: 0 success, 1 verification failed, 2 usage error, 3 error");
+
+    // positional arguments after the command
+    private final List<String> arguments = new ArrayList<>();
+    // options given as --name value, flags have an empty value
+    private final Map<String, String> options = new HashMap<>();
+
+    public static void main(String[] args) {
+        System.exit(run(args).code);
+    }
+
+    /**
+     * Run a command and return its exit code without terminating the JVM
+     *
+     * @param args command followed by its arguments and options
+     * @return exit code of the command
+     */
+    public static ExitCode run(String[] args) {
+        if (args.length == 0) {
+            System.err.println(USAGE);
+            return ExitCode.USAGE;
+        }
+        if (Security.getProvider("BC") == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+
+        FileCryptCli cli = new FileCryptCli();
+        try {
+            cli.parse(args);
+            return cli.execute(args[0]);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return ExitCode.USAGE;
+        } catch (BadPaddingException e) {
+            // wrong key or password, or the file has been manipulated
+            System.out.println("FAILED");
+            System.err.println(e.getMessage());
+            return ExitCode.VERIFICATION_FAILED;
+        } catch (Exception e) {
+            System.out.println("ERROR");
+            System.err.println(e);
+            return ExitCode.ERROR;
+        }
+    }
+
+    /**
+     * Split the arguments after the command into positional arguments and options
+     *
+     * @param args command followed by its arguments and options
+     */
+    private void parse(String[] args) {
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--segmented") || args[i].equals("--full")) {
+                options.put(args[i].substring(2), "");
+            } else if (args[i].startsWith("--")) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + args[i]);
+                }
+                options.put(args[i].substring(2), args[++i]);
+            } else {
+                arguments.add(args[i]);
+            }
+        }
+    }
+
+    /**
+     * Execute a command with the parsed arguments
+     *
+     * @param command name of the command
+     * @return exit code of the command
+     * @throws Exception when the operation fails
+     */
+    private ExitCode execute(String command) throws Exception {
+        switch (command) {
+            case "encrypt-aes": {
+                File file = argument(0, 1);
+                aesEncryptor(file).encrypt();
+                return success(file.getPath() + ".encrypted");
+            }
+            case "decrypt-aes": {
+                File file = argument(0, 2);
+                aesDecryptor(file, argument(1, 2)).decrypt();
+                return success(decryptedFile(file).getPath());
+            }
+            case "encrypt-pbe": {
+                File file = argument(0, 1);
+                pbeEncryptor(file, readPassword()).encrypt();
+                return success(file.getPath() + ".encrypted");
+            }
+            case "decrypt-pbe": {
+                // the configuration file is only needed for legacy files without header
+                int expected = arguments.size() == 1 ? 1 : 2;
+                File file = argument(0, expected);
+                File configurationFile = expected == 2 ? argument(1, expected) : null;
+                pbeDecryptor(file, configurationFile, readPassword()).decrypt();
+                return success(decryptedFile(file).getPath());
+            }
+            case "verify-aes":
+                return result(aesDecryptor(argument(0, 2), argument(1, 2)).verify());
+            case "verify-pbe": {
+                int expected = arguments.size() == 1 ? 1 : 2;
+                File file = argument(0, expected);
+                File configurationFile = expected == 2 ? argument(1, expected) : null;
+                return result(pbeDecryptor(file, configurationFile, readPassword()).verify());
+            }
+            case "inspect": {
+                File file = argument(0, 1);
+                FileHeader header = FileHeader.read(file);
+                if (header == null) {
+                    throw new IllegalArgumentException("File has no header: " + file.getPath());
+                }
+                System.out.println(header);
+                return ExitCode.SUCCESS;
+            }
+            case "calibrate-scrypt": {
+                if (!arguments.isEmpty()) {
+                    throw new IllegalArgumentException("calibrate-scrypt takes no file arguments");
+                }
+                ScryptParameters parameters = ScryptParameters.calibrate(
+                        Long.parseLong(options.getOrDefault("target-millis", "1000")),
+                        Long.parseLong(options.getOrDefault("max-memory-mb", "256")) * 1024 * 1024);
+                System.out.println("--scrypt-cost " + parameters.getCost()
+                        + " --scrypt-block-size " + parameters.getBlockSize()
+                        + " --scrypt-parallelization " + parameters.getParallelization());
+                return ExitCode.SUCCESS;
+            }
+            case "batch":
+                return batch();
+            case "sign": {
+                File file = argument(0, 1);
+                File outputFile = new File(options.getOrDefault("out", file.getPath() + "_sig.json"));
+                DigitalSigning.sign(file, outputFile,
+                        SignatureAlgorithm.valueOf(options.getOrDefault("algorithm", "ED25519")));
+                return success(outputFile.getPath());
+            }
+            case "verify":
+                return result(DigitalSigning.verify(argument(0, 2), argument(1, 2)));
+            case "hash": {
+                File file = argument(0, 1);
+                File outputFile = new File(options.getOrDefault("out", file.getPath() + "_hash.json"));
+                String[] algorithms = options.getOrDefault("algorithm", "SHA256").split(",");
+                if (algorithms.length == 1) {
+                    new Hashing().hash(file, outputFile, HashAlgorithm.valueOf(algorithms[0]));
+                } else {
+                    HashAlgorithm[] selected = new HashAlgorithm[algorithms.length];
+                    for (int i = 0; i < algorithms.length; i++) {
+                        selected[i] = HashAlgorithm.valueOf(algorithms[i].trim());
+                    }
+                    new Hashing().hashAll(file, outputFile, selected);
+                }
+                return success(outputFile.getPath());
+            }
+            case "check":
+                return result(new Hashing().checkHash(argument(0, 2), argument(1, 2)));
+            case "hash-dir": {
+                File directory = directory(1);
+                File outputFile = new File(options.getOrDefault("out", directory.getPath() + "_manifest.json"));
+                BatchReport report = directoryManifest().create(directory, outputFile,
+                        HashAlgorithm.valueOf(options.getOrDefault("algorithm", "SHA256")));
+                report.getFailures().forEach((file, e) -> System.err.println(file.getPath() + ": " + e));
+                System.out.println((report.getFailed() == 0 ? "OK " : "FAILED ") + outputFile.getPath() + " " + report);
+                return report.getFailed() == 0 ? ExitCode.SUCCESS : ExitCode.ERROR;
+            }
+            case "check-dir": {
+                File directory = directory(2);
+                File manifestFile = new File(arguments.get(1));
+                if (!manifestFile.isFile()) {
+                    throw new IllegalArgumentException("File not found: " + manifestFile.getPath());
+                }
+                // mismatches are printed by the workers as soon as they are found
+                BatchReport report = directoryManifest().verify(directory, manifestFile,
+                        (file, reason) -> System.err.println(file.getPath() + ": " + reason.getMessage()),
+                        options.containsKey("full"));
+                System.out.println((report.getFailed() == 0 ? "OK " : "FAILED ") + report);
+                return report.getFailed() == 0 ? ExitCode.SUCCESS : ExitCode.VERIFICATION_FAILED;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown command: " + command);
+        }
+    }
+
+    /**
+     * En/decrypt all files in a directory tree concurrently and print a summary.
+     * Decryption takes every .encrypted file whose configuration file lies next to it.
+     *
+     * @return SUCCESS if all files were processed, ERROR otherwise
+     * @throws Exception when the directory cannot be read
+     */
+    private ExitCode batch() throws Exception {
+        if (arguments.size() != 2) {
+            throw new IllegalArgumentException("Expected an operation and a directory");
+        }
+        File directory = new File(arguments.get(1));
+        if (!directory.isDirectory()) {
+            throw new IllegalArgumentException("Directory not found: " + directory.getPath());
+        }
+        BatchEncryption batchEncryption = options.containsKey("workers")
+                ? new BatchEncryption(Integer.parseInt(options.get("workers")))
+                : new BatchEncryption();
+
+        BatchReport report;
+        switch (arguments.get(0)) {
+            case "encrypt-aes":
+                report = batchEncryption.encrypt(BatchEncryption.collectFiles(directory), this::aesEncryptor);
+                break;
+            case "decrypt-aes":
+                report = batchEncryption.decrypt(BatchEncryption.collectEncryptedFiles(directory),
+                        file -> aesDecryptor(file, BatchEncryption.getConfigurationFile(file)));
+                break;
+            case "encrypt-pbe": {
+                String password = readPassword();
+                // the password is stretched once per batch, every file gets its own key derived from it
+                try (PbeSession session = new PbeSession(password, kdfOption())) {
+                    report = batchEncryption.encrypt(BatchEncryption.collectFiles(directory),
+                            file -> pbeEncryptor(file, password, session));
+                }
+                break;
+            }
+            case "decrypt-pbe": {
+                String password = readPassword();
+                try (PbeSession session = new PbeSession(password, kdfOption())) {
+                    report = batchEncryption.decrypt(BatchEncryption.collectEncryptedFiles(directory),
+                            file -> pbeDecryptor(file, BatchEncryption.getConfigurationFile(file), password, session));
+                }
+                break;
+            }
+            case "verify-aes":
+                report = batchEncryption.verify(BatchEncryption.collectEncryptedFiles(directory),
+                        file -> aesDecryptor(file, BatchEncryption.getConfigurationFile(file)));
+                break;
+            case "verify-pbe": {
+                String password = readPassword();
+                try (PbeSession session = new PbeSession(password, kdfOption())) {
+                    report = batchEncryption.verify(BatchEncryption.collectEncryptedFiles(directory),
+                            file -> pbeDecryptor(file, BatchEncryption.getConfigurationFile(file), password, session));
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown batch operation: " + arguments.get(0));
+        }
+
+        report.getFailures().forEach((file, e) -> System.err.println(file.getPath() + ": " + e));
+        System.out.println((report.getFailed() == 0 ? "OK " : "FAILED ") + report);
+        if (report.getFailed() == 0) {
+            return ExitCode.SUCCESS;
+        }
+        return arguments.get(0).startsWith("verify") ? ExitCode.VERIFICATION_FAILED : ExitCode.ERROR;
+    }
+
+    /**
+     * Create a directory manifest engine with the number of workers from the command line options
+     *
+     * @return manifest engine
+     */
+    private DirectoryManifest directoryManifest() {
+        return options.containsKey("workers")
+                ? new DirectoryManifest(Integer.parseInt(options.get("workers")))
+                : new DirectoryManifest();
+    }
+
+    /**
+     * Return the first positional argument as directory and check the number of arguments
+     *
+     * @param expected number of positional arguments
+     * @return the directory
+     */
+    private File directory(int expected) {
+        if (arguments.size() != expected) {
+            throw new IllegalArgumentException("Expected " + expected + " argument(s)");
+        }
+        File directory = new File(arguments.get(0));
+        if (!directory.isDirectory()) {
+            throw new IllegalArgumentException("Directory not found: " + directory.getPath());
+        }
+        return directory;
+    }
+
+    /**
+     * Create an initialised AES encryptor from the command line options
+     *
+     * @param file file to be encrypted
+     * @return encryptor ready for encrypt()
+     */
+    private SymmetricalEncryptor aesEncryptor(File file) {
+        SymmetricalEncryptor encryptor = symmetricalEncryptor();
+        encryptor.init(
+                PaddingMode.valueOf(options.getOrDefault("padding", "NoPadding")),
+                BlockMode.valueOf(options.getOrDefault("mode", "GCM")),
+                Integer.valueOf(options.getOrDefault("key-length", "256")),
+                file,
+                null);
+        return encryptor;
+    }
+
+    /**
+     * Create an initialised AES encryptor for decryption
+     *
+     * @param file              encrypted file
+     * @param configurationFile configuration file of the encrypted file
+     * @return encryptor ready for decrypt()
+     */
+    private SymmetricalEncryptor aesDecryptor(File file, File configurationFile) {
+        SymmetricalEncryptor encryptor = symmetricalEncryptor();
+        // block mode, padding and key length are read from the configuration file
+        encryptor.init(PaddingMode.NoPadding, BlockMode.GCM, 256, file, configurationFile);
+        return encryptor;
+    }
+
+    /**
+     * Create an initialised password based encryptor from the command line options
+     *
+     * @param file     file to be encrypted
+     * @param password password the key is derived from
+     * @return encryptor ready for encrypt()
+     */
+    private PasswordBasedEncryption pbeEncryptor(File file, String password) {
+        return pbeEncryptor(file, password, null);
+    }
+
+    /**
+     * Create an initialised password based encryptor from the command line options
+     *
+     * @param file     file to be encrypted
+     * @param password password the key is derived from
+     * @param session  session the file key is derived from, null to derive it from the password
+     * @return encryptor ready for encrypt()
+     */
+    private PasswordBasedEncryption pbeEncryptor(File file, String password, PbeSession session) {
+        PasswordBasedEncryption encryption = new PasswordBasedEncryption();
+        encryption.init(
+                PaddingMode.valueOf(options.getOrDefault("padding", "NoPadding")),
+                BlockMode.valueOf(options.getOrDefault("mode", "GCM")),
+                kdfOption(),
+                256,
+                file,
+                null,
+                password);
+        if (kdfOption() == KeyDerivationFunction.SCRYPT) {
+            encryption.setScryptParameters(new ScryptParameters(
+                    Integer.parseInt(options.getOrDefault("scrypt-cost",
+                            String.valueOf(ScryptParameters.DEFAULT.getCost()))),
+                    Integer.parseInt(options.getOrDefault("scrypt-block-size",
+                            String.valueOf(ScryptParameters.DEFAULT.getBlockSize()))),
+                    Integer.parseInt(options.getOrDefault("scrypt-parallelization",
+                            String.valueOf(ScryptParameters.DEFAULT.getParallelization())))));
+        } else if (kdfOption() == KeyDerivationFunction.ARGON2ID) {
+            encryption.setArgon2Parameters(
+                    Integer.parseInt(options.getOrDefault("argon2-memory", "65536")),
+                    Integer.parseInt(options.getOrDefault("argon2-iterations", "3")),
+                    Integer.parseInt(options.getOrDefault("argon2-lanes", "4")));
+        }
+        encryption.setSession(session);
+        return encryption;
+    }
+
+    /**
+     * Create an initialised password based encryptor for decryption
+     *
+     * @param file              encrypted file
+     * @param configurationFile configuration file of the encrypted file
+     * @param password          password the key is derived from
+     * @return encryptor ready for decrypt()
+     */
+    private PasswordBasedEncryption pbeDecryptor(File file, File configurationFile, String password) {
+        return pbeDecryptor(file, configurationFile, password, null);
+    }
+
+    /**
+     * Create an initialised password based encryptor for decryption
+     *
+     * @param file              encrypted file
+     * @param configurationFile configuration file of the encrypted file
+     * @param password          password the key is derived from
+     * @param session           session caching the master keys of a batch, null to derive every key from the password
+     * @return encryptor ready for decrypt()
+     */
+    private PasswordBasedEncryption pbeDecryptor(File file, File configurationFile, String password,
+                                                 PbeSession session) {
+        PasswordBasedEncryption encryption = new PasswordBasedEncryption();
+        encryption.init(
+                PaddingMode.NoPadding,
+                BlockMode.GCM,
+                kdfOption(),
+                256,
+                file,
+                configurationFile,
+                password);
+        encryption.setSession(session);
+        return encryption;
+    }
+
+    /**
+     * Return the KDF selected by the --kdf option
+     *
+     * @return SCRYPT if the option is not set
+     */
+    private KeyDerivationFunction kdfOption() {
+        return KeyDerivationFunction.valueOf(options.getOrDefault("kdf", "SCRYPT"));
+    }
+
+    /**
+     * Return the encryptor selected by the --segmented flag
+     *
+     * @return AES-GCM-STREAM if --segmented is set, AES otherwise
+     */
+    private SymmetricalEncryptor symmetricalEncryptor() {
+        return options.containsKey("segmented") ? new SegmentedEncryption() : new SymmetricEncryption();
+    }
+
+    /**
+     * Return a positional argument as file and check the number of arguments
+     *
+     * @param index    index of the argument
+     * @param expected number of positional arguments the command takes
+     * @return the argument as file
+     */
+    private File argument(int index, int expected) {
+        if (arguments.size() != expected) {
+            throw new IllegalArgumentException("Expected " + expected + " file argument(s)");
+        }
+        File file = new File(arguments.get(index));
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("File not found: " + file.getPath());
+        }
+        return file;
+    }
+
+    /**
+     * Read the password for PBE commands from the environment, a password file or the console
+     *
+     * @return the password
+     * @throws Exception when the password file cannot be read
+     */
+    private String readPassword() throws Exception {
+        String password = System.getenv("FILECRYPT_PASSWORD");
+        if (options.containsKey("password-file")) {
+            password = Files.readString(new File(options.get("password-file")).toPath(), StandardCharsets.UTF_8).strip();
+        } else if (password == null) {
+            Console console = System.console();
+            if (console == null) {
+                throw new IllegalArgumentException("No password given and no console available");
+            }
+            password = new String(console.readPassword("Password: "));
+        }
+        if (password.isEmpty()) {
+            throw new IllegalArgumentException("Password must not be empty");
+        }
+        return password;
+    }
+
+    /**
+     * Return the file decrypt() writes the plaintext of an encrypted file to
+     *
+     * @param encryptedFile encrypted file
+     * @return e.g. /path/file_decrypted.txt for /path/file.txt.encrypted
+     */
+    private static File decryptedFile(File encryptedFile) {
+        String fileString = encryptedFile.getAbsolutePath().replace(".encrypted", "");
+
+        String filePath = FilenameUtils.getFullPath(fileString);
+        String fileBase = FilenameUtils.getBaseName(fileString);
+        String fileExtension = FilenameUtils.getExtension(fileString);
+
+        return new File(filePath + fileBase + "_decrypted." + fileExtension);
+    }
+
+    private static ExitCode success(String path) {
+        System.out.println("OK " + path);
+        return ExitCode.SUCCESS;
+    }
+
+    private static ExitCode result(boolean verified) {
+        System.out.println(verified ? "OK" : "FAILED");
+        return verified ? ExitCode.SUCCESS : ExitCode.VERIFICATION_FAILED;
+    }
+}
@@ -0,0 +1,14 @@
+package cli.enums;
+
+public enum ExitCode {
+    SUCCESS(0),
+    VERIFICATION_FAILED(1),
+    USAGE(2),
+    ERROR(3);
+
+    public final int code;
+
+    ExitCode(int code) {
+        this.code = code;
+    }
+}
@@ -0,0 +1,145 @@
+package controller;
+
+import controller.enums.Status;
+import encryption.util.MappedFileIO;
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
+import javafx.event.EventHandler;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Background task for a crypto operation started by a controller.
+ * Runs on its own daemon thread so the JavaFX application thread is not blocked, shows the throughput and the
+ * remaining time of the file operation in the status label and aborts the operation when it is cancelled.
+ * Every controller runs its own tasks, so operations in different tabs run at the same time.
+ *
+ * @author Leo Nobis
+ */
+public abstract class CryptoTask extends Task<Status> {
+
+    private static final String[] UNITS = {"B", "KB", "MB", "GB", "TB"};
+
+    // time and bytes of the first progress update, the key derivation before it does not count for the throughput
+    private long startTime;
+    private long startBytes = -1;
+
+    /**
+     * Run the operation on the background thread
+     *
+     * @return status shown when the operation succeeded
+     * @throws Exception when the operation fails, mapped by {@link #getFailureStatus(Throwable)}
+     */
+    protected abstract Status execute() throws Exception;
+
+    /**
+     * Map an exception of {@link #execute()} to the status shown to the user
+     *
+     * @param exception exception thrown by the operation
+     * @return status shown when the operation failed
+     */
+    protected abstract Status getFailureStatus(Throwable exception);
+
+    @Override
+    protected Status call() throws Exception {
+        updateMessage(Status.RUNNING.label);
+        MappedFileIO.setProgressListener(this::onProgress);
+        try {
+            return execute();
+        } finally {
+            MappedFileIO.setProgressListener(null);
+        }
+    }
+
+    /**
+     * Start the task on a new daemon thread. While it runs the status label and progress bar follow the task,
+     * the start button is disabled and the cancel button cancels the task.
+     * Must be called on the JavaFX application thread
+     *
+     * @param statusLabel  label showing progress messages and the final status
+     * @param progressBar  bar showing the progress of the file operation
+     * @param startButton  button that started the task
+     * @param cancelButton button that cancels the task
+     */
+    public void start(Label statusLabel, ProgressBar progressBar, Button startButton, Button cancelButton) {
+        statusLabel.textProperty().bind(messageProperty());
+        progressBar.progressProperty().bind(progressProperty());
+        progressBar.setVisible(true);
+        startButton.setDisable(true);
+        cancelButton.setDisable(false);
+        cancelButton.setOnAction(actionEvent -> cancel());
+
+        EventHandler<WorkerStateEvent> onDone = event -> {
+            statusLabel.textProperty().unbind();
+            progressBar.progressProperty().unbind();
+            progressBar.setVisible(false);
+            startButton.setDisable(false);
+            cancelButton.setDisable(true);
+
+            switch (getState()) {
+                case SUCCEEDED:
+                    statusLabel.setText(getValue().label);
+                    break;
+                case FAILED:
+                    statusLabel.setText(getFailureStatus(getException()).label);
+                    break;
+                default:
+                    statusLabel.setText(Status.CANCELLED.label);
+                    break;
+            }
+        };
+        setOnSucceeded(onDone);
+        setOnFailed(onDone);
+        setOnCancelled(onDone);
+
+        Thread thread = new Thread(this, "FileCrypt " + getClass().getSimpleName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Called by the file operations after every chunk, possibly from several threads
+     *
+     * @param processedBytes bytes of the file processed so far
+     * @param totalBytes     size of the file
+     */
+    private synchronized void onProgress(long processedBytes, long totalBytes) {
+        if (isCancelled()) {
+            throw new CancellationException();
+        }
+        updateProgress(processedBytes, totalBytes);
+
+        long now = System.nanoTime();
+        if (startBytes < 0) {
+            startTime = now;
+            startBytes = processedBytes;
+            return;
+        }
+        double seconds = (now - startTime) / 1e9;
+        if (seconds <= 0) {
+            return;
+        }
+        double bytesPerSecond = (processedBytes - startBytes) / seconds;
+        long remainingSeconds = bytesPerSecond > 0 ? (long) ((totalBytes - processedBytes) / bytesPerSecond) : 0;
+        updateMessage(String.format("%s/s, %d:%02d remaining",
+                formatBytes(bytesPerSecond), remainingSeconds / 60, remainingSeconds % 60));
+    }
+
+    /**
+     * Format a number of bytes with a binary unit, e.g. 12.3 MB
+     *
+     * @param bytes number of bytes
+     * @return formatted number
+     */
+    static String formatBytes(double bytes) {
+        int unit = 0;
+        while (bytes >= 1024 && unit < UNITS.length - 1) {
+            bytes /= 1024;
+            unit++;
+        }
+        return String.format("%.1f %s", bytes, UNITS[unit]);
+    }
+}
@@ -2,10 +2,13 @@ package controller;
 
 import controller.enums.Status;
 import encryption.DigitalSigning;
+import encryption.enums.SignatureAlgorithm;
 import javafx.event.ActionEvent;
 import javafx.fxml.Initializable;
 import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.ToggleGroup;
 import javafx.scene.layout.HBox;
 import javafx.stage.FileChooser;
@@ -38,41 +41,44 @@ public class DigitalSigningController implements Initializable {
     public ToggleGroup modeSelectionToggleGroup;
     public HBox decryptConfigurationHbox;
     public Button encryptButton;
+    public Button cancelButton;
+    public ProgressBar progressBar;
+    public ChoiceBox<SignatureAlgorithm> algorithmChoiceBox;
 
     private Mode mode = Mode.SIGN;
 
     private boolean isFileSelected = false;
     private boolean isConfigSelected = false;
 
-    public void encryptClicked(ActionEvent actionEvent) throws Exception {
+    private SignatureAlgorithm selectedAlgorithm;
+
+    public void encryptClicked(ActionEvent actionEvent) {
         if (updateStatus()) {
-            switch (mode) {
-                case VERIFY:
-                    try {
-                        if(DigitalSigning.verify(selectedFile, configurationFile)) {
-                            statusLabel.setText(Status.VERIFY_SUCCESSFUL.label);
-                        } else {
-                            statusLabel.setText(Status.VERIFY_FAILED.label);
+            File file = selectedFile;
+            File signatureFile = configurationFile;
+            SignatureAlgorithm algorithm = selectedAlgorithm;
+            Mode taskMode = mode;
+
+            new CryptoTask() {
+                @Override
+                protected Status execute() throws Exception {
+                    if (taskMode == Mode.VERIFY) {
+                        if (DigitalSigning.verify(file, signatureFile)) {
+                            return Status.VERIFY_SUCCESSFUL;
                         }
-                    } catch
-                    (Exception e) {
-                        statusLabel.setText(Status.VERIFY_FAILED.label);
-                        throw e;
-                    }
-                    break;
-                case SIGN:
-                    try {
-                        File outputFile = new File(selectedFile.getAbsolutePath() + "_sig.json");
-                        DigitalSigning.sign(selectedFile, outputFile);
-                        statusLabel.setText(Status.SIGNING_SUCCESSFUL.label);
-                    } catch (Exception e) {
-                        statusLabel.setText(Status.SIGNING_FAILED.label);
-                        throw e;
+                        return Status.VERIFY_FAILED;
                     }
-                    break;
-                default:
-                    break;
-            }
+                    File outputFile = new File(file.getAbsolutePath() + "_sig.json");
+                    DigitalSigning.sign(file, outputFile, algorithm);
+                    return Status.SIGNING_SUCCESSFUL;
+                }
+
+                @Override
+                protected Status getFailureStatus(Throwable exception) {
+                    exception.printStackTrace();
+                    return taskMode == Mode.VERIFY ? Status.VERIFY_FAILED : Status.SIGNING_FAILED;
+                }
+            }.start(statusLabel, progressBar, encryptButton, cancelButton);
         }
     }
 
@@ -108,7 +114,7 @@ public class DigitalSigningController implements Initializable {
         updateStatus();
         decryptConfigurationHbox.setVisible(false);
         encryptButton.setText("Sign");
-        encryptLabel.setText("3. Start signing");
+        encryptLabel.setText("4. Start signing");
     }
 
     public void onVerifySelected() {
@@ -116,7 +122,7 @@ public class DigitalSigningController implements Initializable {
         updateStatus();
         decryptConfigurationHbox.setVisible(true);
         encryptButton.setText("Verify");
-        encryptLabel.setText("3. Start signature verification");
+        encryptLabel.setText("4. Start signature verification");
     }
 
     private boolean updateStatus() {
@@ -142,5 +148,13 @@ public class DigitalSigningController implements Initializable {
     public void initialize(URL url, ResourceBundle resourceBundle) {
         updateStatus();
         decryptConfigurationHbox.setVisible(false);
+
+        selectedAlgorithm = SignatureAlgorithm.values()[0];
+        algorithmChoiceBox.getItems().addAll(SignatureAlgorithm.values());
+        algorithmChoiceBox.setValue(SignatureAlgorithm.values()[0]);
+        algorithmChoiceBox.setOnAction(actionEvent -> {
+            selectedAlgorithm = algorithmChoiceBox.getValue();
+            updateStatus();
+        });
     }
 }
@@ -8,6 +8,7 @@ import javafx.fxml.Initializable;
 import javafx.scene.control.Button;
 import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.ToggleGroup;
 import javafx.scene.layout.HBox;
 import javafx.stage.FileChooser;
@@ -40,6 +41,8 @@ public class HashingController implements Initializable {
     public ToggleGroup modeSelectionToggleGroup;
     public HBox decryptConfigurationHbox;
     public Button encryptButton;
+    public Button cancelButton;
+    public ProgressBar progressBar;
     public ChoiceBox<HashAlgorithm> cipherChoiceBox;
 
     private Mode mode = Mode.HASH;
@@ -48,37 +51,36 @@ public class HashingController implements Initializable {
     private boolean isConfigSelected = false;
 
     private HashAlgorithm selectedAlgorithm;
-    private final Hashing hashing = new Hashing();
 
-    public void encryptClicked(ActionEvent actionEvent) throws Exception {
+    public void encryptClicked(ActionEvent actionEvent) {
         if (updateStatus()) {
-            switch (mode) {
-                case CHECK_HASH:
-                    try {
-                        if (hashing.checkHash(selectedFile, configurationFile)) {
-                            statusLabel.setText(Status.HASH_CHECK_SUCCESS.label);
-                        } else {
-                            statusLabel.setText(Status.HASH_CHECK_FAILED.label);
+            File file = selectedFile;
+            File hashFile = configurationFile;
+            HashAlgorithm algorithm = selectedAlgorithm;
+            Mode taskMode = mode;
+
+            new CryptoTask() {
+                @Override
+                protected Status execute() throws Exception {
+                    // Hashing keeps the loaded hash, every task gets its own instance
+                    Hashing hashing = new Hashing();
+                    if (taskMode == Mode.CHECK_HASH) {
+                        if (hashing.checkHash(file, hashFile)) {
+                            return Status.HASH_CHECK_SUCCESS;
                         }
-                    } catch
-                    (Exception e) {
-                        statusLabel.setText(Status.HASH_CHECK_FAILED.label);
-                        throw e;
+                        return Status.HASH_CHECK_FAILED;
                     }
-                    break;
-                case HASH:
-                    try {
-                        File outputFile = new File(selectedFile.getAbsolutePath() + "_hash.json");
-                        hashing.hash(selectedFile, outputFile, selectedAlgorithm);
-                        statusLabel.setText(Status.HASH_SUCCESSFUL.label);
-                    } catch (Exception e) {
-                        statusLabel.setText(Status.HASH_FAILED.label);
-                        throw e;
-                    }
-                    break;
-                default:
-                    break;
-            }
+                    File outputFile = new File(file.getAbsolutePath() + "_hash.json");
+                    hashing.hash(file, outputFile, algorithm);
+                    return Status.HASH_SUCCESSFUL;
+                }
+
+                @Override
+                protected Status getFailureStatus(Throwable exception) {
+                    exception.printStackTrace();
+                    return taskMode == Mode.CHECK_HASH ? Status.HASH_CHECK_FAILED : Status.HASH_FAILED;
+                }
+            }.start(statusLabel, progressBar, encryptButton, cancelButton);
         }
     }
 
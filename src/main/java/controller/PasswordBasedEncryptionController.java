@@ -37,7 +37,6 @@ public class PasswordBasedEncryptionController implements Initializable {
     }
 
     private boolean isFileSelected = false;
-    private boolean isConfigSelected = false;
     private boolean isAlgorithmSelected = false;
 
     private File selectedFile;
@@ -59,6 +58,8 @@ public class PasswordBasedEncryptionController implements Initializable {
     public HBox decryptConfigurationHbox;
     public PasswordField passwordField;
     public Button encryptButton;
+    public Button cancelButton;
+    public ProgressBar progressBar;
 
     private final PasswordBasedEncryptor[] algorithms = {new PasswordBasedEncryption()};
     private PasswordBasedEncryptor selectedAlgorithm;
@@ -80,10 +81,12 @@ public class PasswordBasedEncryptionController implements Initializable {
         encryptLabel.setText("5. Start decryption");
     }
 
-    public void encryptClicked(ActionEvent actionEvent) throws Exception {
+    public void encryptClicked(ActionEvent actionEvent) {
         if (updateStatus()) {
             if (selectedFile.exists() && !(selectedAlgorithm == null)) {
-                selectedAlgorithm.init(
+                PasswordBasedEncryptor encryptor = selectedAlgorithm;
+                Mode taskMode = mode;
+                encryptor.init(
                         paddingModeChoiceBox.getValue(),
                         blockModeChoiceBox.getValue(),
                         kdfChoiceBox.getValue(),
@@ -93,36 +96,37 @@ public class PasswordBasedEncryptionController implements Initializable {
                         passwordField.getText()
                 );
 
-                switch (mode) {
-                    case DECRYPT:
-                        try {
-                            selectedAlgorithm.decrypt();
-                            statusLabel.setText(Status.DECRYPTION_SUCCESSFUL.label);
-                        } catch (AEADBadTagException e) {
-                            statusLabel.setText(Status.WRONG_PASSWORD.label);
-                        } catch (Exception e) {
-                            statusLabel.setText(Status.DECRYPTION_FAILED.label);
-                            throw e;
+                new CryptoTask() {
+                    @Override
+                    protected Status execute() throws Exception {
+                        if (taskMode == Mode.DECRYPT) {
+                            encryptor.decrypt();
+                            return Status.DECRYPTION_SUCCESSFUL;
                         }
-                        break;
-                    case ENCRYPT:
-                        try {
-                            selectedAlgorithm.encrypt();
-                            statusLabel.setText(Status.ENCRYPTION_SUCCESSFUL.label);
-                        } catch (InvalidAlgorithmParameterException e) {
-                            statusLabel.setText(Status.INVALID_PARAMETER_GCM.label);
-                        } catch (IllegalBlockSizeException e) {
-                            statusLabel.setText(Status.ILLEGAL_BLOCKSIZE.label);
-                        } catch (NoSuchPaddingException e) {
-                            statusLabel.setText(Status.NO_SUCH_PADDING.label);
-                        } catch (Exception e) {
-                            statusLabel.setText(Status.ENCRYPTION_FAILED.label);
-                            throw e;
+                        encryptor.encrypt();
+                        return Status.ENCRYPTION_SUCCESSFUL;
+                    }
+
+                    @Override
+                    protected Status getFailureStatus(Throwable exception) {
+                        if (taskMode == Mode.DECRYPT) {
+                            if (exception instanceof AEADBadTagException) {
+                                return Status.WRONG_PASSWORD;
+                            }
+                            exception.printStackTrace();
+                            return Status.DECRYPTION_FAILED;
                         }
-                        break;
-                    default:
-                        break;
-                }
+                        if (exception instanceof InvalidAlgorithmParameterException) {
+                            return Status.INVALID_PARAMETER_GCM;
+                        } else if (exception instanceof IllegalBlockSizeException) {
+                            return Status.ILLEGAL_BLOCKSIZE;
+                        } else if (exception instanceof NoSuchPaddingException) {
+                            return Status.NO_SUCH_PADDING;
+                        }
+                        exception.printStackTrace();
+                        return Status.ENCRYPTION_FAILED;
+                    }
+                }.start(statusLabel, progressBar, encryptButton, cancelButton);
             }
         }
     }
@@ -144,12 +148,10 @@ public class PasswordBasedEncryptionController implements Initializable {
         FileChooser fileChooser = new FileChooser();
         configurationFile = fileChooser.showOpenDialog(null);
         if (configurationFile != null) {
-            isConfigSelected = true;
             updateStatus();
             configurationFileLabel.setText(configurationFile.getAbsolutePath());
         } else {
             configurationFileLabel.setText("No configuration file selected");
-            isConfigSelected = false;
             updateStatus();
         }
     }
@@ -159,19 +161,16 @@ public class PasswordBasedEncryptionController implements Initializable {
 
         if (isFileSelected) {
             if (mode == Mode.DECRYPT) {
-                if (isConfigSelected) {
-                    if (isAlgorithmSelected) {
-                        if (isPasswordSelected) {
-                            statusLabel.setText(Status.READY.label);
-                            return true;
-                        } else {
-                            statusLabel.setText(Status.ENTER_PASSWORD.label);
-                        }
+                // the configuration file is only needed for files without header
+                if (isAlgorithmSelected) {
+                    if (isPasswordSelected) {
+                        statusLabel.setText(Status.READY.label);
+                        return true;
                     } else {
-                        statusLabel.setText(Status.SELECT_ALGORITHM.label);
+                        statusLabel.setText(Status.ENTER_PASSWORD.label);
                     }
                 } else {
-                    statusLabel.setText(Status.SELECT_CONFIG.label);
+                    statusLabel.setText(Status.SELECT_ALGORITHM.label);
                 }
             } else if (mode == Mode.ENCRYPT) {
                 if (isAlgorithmSelected) {
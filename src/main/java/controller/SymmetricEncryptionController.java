@@ -12,6 +12,7 @@ import javafx.fxml.Initializable;
 import javafx.scene.control.Button;
 import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.ToggleGroup;
 import javafx.scene.layout.HBox;
 import javafx.stage.FileChooser;
@@ -60,8 +61,10 @@ public class SymmetricEncryptionController implements Initializable {
     public ToggleGroup modeSelectionToggleGroup;
     public HBox decryptConfigurationHbox;
     public Button encryptButton;
+    public Button cancelButton;
+    public ProgressBar progressBar;
 
-    private final SymmetricalEncryptor[] algorithms = {new SymmetricEncryption()};
+    private final SymmetricalEncryptor[] algorithms = {new SymmetricEncryption(), new SegmentedEncryption()};
     private SymmetricalEncryptor selectedAlgorithm;
 
     public void onEncryptSelected() {
@@ -80,44 +83,46 @@ public class SymmetricEncryptionController implements Initializable {
         encryptLabel.setText("4. Start decryption");
     }
 
-    public void encryptClicked(ActionEvent actionEvent) throws Exception {
+    public void encryptClicked(ActionEvent actionEvent) {
         if (updateStatus()) {
-            selectedAlgorithm.init(
+            SymmetricalEncryptor encryptor = selectedAlgorithm;
+            Mode taskMode = mode;
+            encryptor.init(
                     paddingModeChoiceBox.getValue(),
                     blockModeChoiceBox.getValue(),
                     keyLengthChoiceBox.getValue(),
                     selectedFile,
                     configurationFile);
 
-            switch (mode) {
-                case DECRYPT:
-                    try {
-                        selectedAlgorithm.decrypt();
-                        statusLabel.setText(Status.DECRYPTION_SUCCESSFUL.label);
-                    } catch (AEADBadTagException e) {
-                        statusLabel.setText(Status.MAC_CHECK_FAILED.label);
-                    } catch
-                    (Exception e) {
-                        statusLabel.setText(Status.DECRYPTION_FAILED.label);
-                        throw e;
+            new CryptoTask() {
+                @Override
+                protected Status execute() throws Exception {
+                    if (taskMode == Mode.DECRYPT) {
+                        encryptor.decrypt();
+                        return Status.DECRYPTION_SUCCESSFUL;
                     }
-                    break;
-                case ENCRYPT:
-                    try {
-                        selectedAlgorithm.encrypt();
-                        statusLabel.setText(Status.ENCRYPTION_SUCCESSFUL.label);
-                    } catch (IllegalBlockSizeException e) {
-                        statusLabel.setText(Status.ILLEGAL_BLOCKSIZE.label);
-                    } catch (NoSuchPaddingException e) {
-                        statusLabel.setText(Status.NO_SUCH_PADDING.label);
-                    } catch (Exception e) {
-                        statusLabel.setText(Status.ENCRYPTION_FAILED.label);
-                        throw e;
+                    encryptor.encrypt();
+                    return Status.ENCRYPTION_SUCCESSFUL;
+                }
+
+                @Override
+                protected Status getFailureStatus(Throwable exception) {
+                    if (taskMode == Mode.DECRYPT) {
+                        if (exception instanceof AEADBadTagException) {
+                            return Status.MAC_CHECK_FAILED;
+                        }
+                        exception.printStackTrace();
+                        return Status.DECRYPTION_FAILED;
                     }
-                    break;
-                default:
-                    break;
-            }
+                    if (exception instanceof IllegalBlockSizeException) {
+                        return Status.ILLEGAL_BLOCKSIZE;
+                    } else if (exception instanceof NoSuchPaddingException) {
+                        return Status.NO_SUCH_PADDING;
+                    }
+                    exception.printStackTrace();
+                    return Status.ENCRYPTION_FAILED;
+                }
+            }.start(statusLabel, progressBar, encryptButton, cancelButton);
         }
     }
 
@@ -25,7 +25,9 @@ public enum Status {
     READY_HASH("Ready for hashing / hash check"),
     SELECT_HASH_FILE("Please select a hash file!"),
     ENTER_PASSWORD("Please enter a password!"),
-    INVALID_PARAMETER_GCM("GCM can only be used with AEAD modes.");
+    INVALID_PARAMETER_GCM("GCM can only be used with AEAD modes."),
+    RUNNING("Running..."),
+    CANCELLED("Operation cancelled!");
 
     public final String label;
 
@@ -0,0 +1,216 @@
+package encryption;
+
+import encryption.interfaces.Encryptor;
+
+import javax.crypto.AEADBadTagException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Engine to en/decrypt many files concurrently on a bounded pool of worker threads.
+ * Every file gets its own {@link Encryptor} from a factory, so no cipher state is shared between workers.
+ * Failures are collected per file in a {@link BatchReport} and do not stop the batch.
+ *
+ * @author Leo Nobis
+ */
+public class BatchEncryption {
+
+    /**
+     * Creates a new, initialised encryptor for a single file
+     */
+    public interface EncryptorFactory {
+        Encryptor create(File file) throws Exception;
+    }
+
+    /**
+     * Processes a single file of a batch, a file fails if an exception is thrown.
+     * Returns false if the file was skipped because it did not need to be processed
+     */
+    interface FileTask {
+        boolean process(File file) throws Exception;
+    }
+
+    // File extension of encrypted files
+    public static final String ENCRYPTED_EXTENSION = ".encrypted";
+
+    // number of worker threads
+    private final int workers;
+
+    /**
+     * Create an engine with one worker per available processor
+     */
+    public BatchEncryption() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create an engine with a fixed number of workers
+     *
+     * @param workers number of files processed at the same time
+     */
+    public BatchEncryption(int workers) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Number of workers must be positive");
+        }
+        this.workers = workers;
+    }
+
+    /**
+     * Collect all regular files in a directory tree
+     *
+     * @param directory root of the tree
+     * @return files in the tree, sorted by path
+     * @throws IOException when the tree cannot be read
+     */
+    public static List<File> collectFiles(File directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            return paths.filter(Files::isRegularFile)
+                    .sorted()
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Collect all encrypted files in a directory tree
+     *
+     * @param directory root of the tree
+     * @return files ending with .encrypted in the tree, sorted by path
+     * @throws IOException when the tree cannot be read
+     */
+    public static List<File> collectEncryptedFiles(File directory) throws IOException {
+        return collectFiles(directory).stream()
+                .filter(file -> file.getName().endsWith(ENCRYPTED_EXTENSION))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Return the configuration file written next to an encrypted file, e.g. file.txt.json for file.txt.encrypted
+     *
+     * @param encryptedFile encrypted file
+     * @return configuration file of the encrypted file
+     */
+    public static File getConfigurationFile(File encryptedFile) {
+        String path = encryptedFile.getPath();
+        if (path.endsWith(ENCRYPTED_EXTENSION)) {
+            path = path.substring(0, path.length() - ENCRYPTED_EXTENSION.length());
+        }
+        return new File(path + ".json");
+    }
+
+    /**
+     * Encrypt files concurrently
+     *
+     * @param files   files to be encrypted
+     * @param factory creates a new encryptor for a file, init() has to be called by the factory
+     * @return report of the run
+     * @throws InterruptedException when the calling thread is interrupted while waiting for the workers
+     */
+    public BatchReport encrypt(List<File> files, EncryptorFactory factory)
+            throws InterruptedException {
+        return run(files, file -> {
+            factory.create(file).encrypt();
+            return true;
+        });
+    }
+
+    /**
+     * Decrypt files concurrently
+     *
+     * @param files   encrypted files to be decrypted
+     * @param factory creates a new encryptor for a file, init() has to be called by the factory,
+     *                see {@link #getConfigurationFile(File)}
+     * @return report of the run
+     * @throws InterruptedException when the calling thread is interrupted while waiting for the workers
+     */
+    public BatchReport decrypt(List<File> files, EncryptorFactory factory)
+            throws InterruptedException {
+        return run(files, file -> {
+            factory.create(file).decrypt();
+            return true;
+        });
+    }
+
+    /**
+     * Check the authentication tags of encrypted files concurrently without writing the plaintext.
+     * Files that fail the authentication are reported with an AEADBadTagException
+     *
+     * @param files   encrypted files to be verified
+     * @param factory creates a new encryptor for a file, init() has to be called by the factory,
+     *                see {@link #getConfigurationFile(File)}
+     * @return report of the run
+     * @throws InterruptedException when the calling thread is interrupted while waiting for the workers
+     */
+    public BatchReport verify(List<File> files, EncryptorFactory factory)
+            throws InterruptedException {
+        return run(files, file -> {
+            if (!factory.create(file).verify()) {
+                throw new AEADBadTagException("Authentication failed");
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Let every worker take the next unprocessed file until all files are done
+     *
+     * @param files files to be processed
+     * @param task  processes a single file, called by several workers at once
+     * @return report of the run
+     * @throws InterruptedException when the calling thread is interrupted while waiting for the workers
+     */
+    BatchReport run(List<File> files, FileTask task) throws InterruptedException {
+        BatchReport report = new BatchReport();
+        AtomicInteger next = new AtomicInteger();
+        long start = System.nanoTime();
+
+        int threads = Math.min(workers, Math.max(1, files.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                executor.execute(() -> {
+                    int index;
+                    while ((index = next.getAndIncrement()) < files.size()
+                            && !Thread.currentThread().isInterrupted()) {
+                        process(files.get(index), task, report);
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        report.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return report;
+    }
+
+    /**
+     * Process a single file and record the result
+     *
+     * @param file   file to be processed
+     * @param task   processes the file
+     * @param report report the result is added to
+     */
+    private static void process(File file, FileTask task, BatchReport report) {
+        try {
+            if (task.process(file)) {
+                report.addSuccess(file);
+            } else {
+                report.addSkipped();
+            }
+        } catch (Exception e) {
+            report.addFailure(file, e);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package encryption;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregate result of a {@link BatchEncryption} or {@link DirectoryManifest} run.
+ * Only failed files are kept individually, so the report stays small for large batches.
+ * Safe to be updated by several workers at once.
+ *
+ * @author Leo Nobis
+ */
+public class BatchReport {
+
+    // number of files processed successfully
+    private final AtomicInteger succeeded = new AtomicInteger();
+    // number of files skipped as unchanged, included in succeeded
+    private final AtomicInteger skipped = new AtomicInteger();
+    // input bytes of the files processed successfully
+    private final AtomicLong bytes = new AtomicLong();
+    // failed files and the exception they failed with
+    private final Map<File, Exception> failures = new ConcurrentHashMap<>();
+    // wall clock time of the run
+    private long elapsedMillis;
+
+    void addSuccess(File file) {
+        succeeded.incrementAndGet();
+        bytes.addAndGet(file.length());
+    }
+
+    void addSkipped() {
+        succeeded.incrementAndGet();
+        skipped.incrementAndGet();
+    }
+
+    void addFailure(File file, Exception exception) {
+        failures.put(file, exception);
+    }
+
+    void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * Getter method for the number of files processed successfully
+     *
+     * @return number of succeeded files
+     */
+    public int getSucceeded() {
+        return succeeded.get();
+    }
+
+    /**
+     * Getter method for the number of files that were skipped because they did not change,
+     * they are counted as succeeded but not in the processed bytes
+     *
+     * @return number of skipped files
+     */
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * Getter method for the number of failed files
+     *
+     * @return number of failed files
+     */
+    public int getFailed() {
+        return failures.size();
+    }
+
+    /**
+     * Getter method for the failed files
+     *
+     * @return failed files and the exception they failed with
+     */
+    public Map<File, Exception> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * Getter method for the input bytes of all files processed successfully
+     *
+     * @return processed bytes
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Getter method for the wall clock time of the run
+     *
+     * @return elapsed time in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * Return a one line summary of the run
+     *
+     * @return summary
+     */
+    @Override
+    public String toString() {
+        return "succeeded=" + getSucceeded() +
+                " failed=" + getFailed() +
+                " skipped=" + getSkipped() +
+                " bytes=" + getBytes() +
+                " elapsedMillis=" + elapsedMillis;
+    }
+}
@@ -1,5 +1,8 @@
 package encryption;
 
+import encryption.enums.SignatureAlgorithm;
+import encryption.util.EnginePool;
+import encryption.util.MappedFileIO;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 
@@ -7,116 +10,164 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.security.*;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Base64;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Base class for signing files and verifying signed files.
+ * Signatures are created with a persistent {@link SigningIdentity} that is loaded once and reused for every file.
+ * The {@link SignatureAlgorithm} is recorded in the signature file, files without it were signed with DSA.
  * Used by {@link controller.DigitalSigningController}
  *
  * @author Leo Nobis
  */
 public class DigitalSigning {
 
-    // generated file signature
-    private static byte[] encSignature;
-    // public key for hash checking on recipient side
-    private static PublicKey publicKey;
+    // Maximum number of parsed public keys kept for verification
+    private static final int PUBLIC_KEY_CACHE_SIZE = 64;
+
+    // identities used for signing, loaded from the default keystore files on first use
+    private static final Map<SignatureAlgorithm, SigningIdentity> identities = new EnumMap<>(SignatureAlgorithm.class);
+    // public keys parsed from signature files, keyed by algorithm and Base64 encoding
+    private static final Map<String, PublicKey> publicKeyCache = new ConcurrentHashMap<>();
 
     /**
-     * Create a signature for an input file and store it in the output file in JSON format
+     * Create a DSA signature for an input file and store it in the output file in JSON format
      *
      * @param inputFile  file to be signed
      * @param outputFile file where to signature will be written to
      * @throws Exception when file operations go wrong, exceptions are handled in the controller class
      */
     public static void sign(File inputFile, File outputFile) throws Exception {
-        byte[] file = Files.readAllBytes(inputFile.toPath());
+        sign(inputFile, outputFile, SignatureAlgorithm.DSA);
+    }
+
+    /**
+     * Create a signature for an input file and store it in the output file in JSON format
+     *
+     * @param inputFile  file to be signed
+     * @param outputFile file where to signature will be written to
+     * @param algorithm  {@link SignatureAlgorithm} that is used for signing
+     * @throws Exception when file operations go wrong, exceptions are handled in the controller class
+     */
+    public static void sign(File inputFile, File outputFile, SignatureAlgorithm algorithm) throws Exception {
+        SigningIdentity signingIdentity = getIdentity(algorithm);
+        Signature signature = EnginePool.getSignature(algorithm.label);
 
-        KeyPair keyPair = generateDSAKeyPair();
-        publicKey = keyPair.getPublic();
+        byte[] encSignature = generateSignature(signature, signingIdentity.getPrivateKey(), inputFile);
+        createSignatureFile(encSignature, algorithm, signature.getProvider(), signingIdentity.getPublicKey(), outputFile);
+    }
 
-        byte[] dsaSignature = generateDSASignature(keyPair.getPrivate(), file);
-        createSignatureFile(dsaSignature, outputFile);
+    /**
+     * Getter method for the DSA signing identity
+     *
+     * @return identity used for DSA signatures
+     * @throws Exception when file operations go wrong, exceptions are handled in the controller class
+     */
+    public static SigningIdentity getIdentity() throws Exception {
+        return getIdentity(SignatureAlgorithm.DSA);
     }
 
     /**
-     * Create a signature file in JSON format from a provided DSA Signature. The file contains the signature and a public key to check it
+     * Getter method for the signing identity of an algorithm.
+     * Loads the identity from {@link SigningIdentity#getDefaultKeystoreFile(SignatureAlgorithm)} or creates it there on first use
      *
-     * @param dsaSignature dsa private key encrypted signature
+     * @param algorithm signature algorithm of the identity
+     * @return identity used for signing
+     * @throws Exception when file operations go wrong, exceptions are handled in the controller class
+     */
+    public static synchronized SigningIdentity getIdentity(SignatureAlgorithm algorithm) throws Exception {
+        SigningIdentity identity = identities.get(algorithm);
+        if (identity == null) {
+            identity = SigningIdentity.loadOrCreate(SigningIdentity.getDefaultKeystoreFile(algorithm), algorithm);
+            identities.put(algorithm, identity);
+        }
+        return identity;
+    }
+
+    /**
+     * Setter method for a signing identity, replaces the default identity of its algorithm
+     *
+     * @param signingIdentity identity used for all following signatures with its algorithm
+     */
+    public static synchronized void setIdentity(SigningIdentity signingIdentity) {
+        identities.put(signingIdentity.getAlgorithm(), signingIdentity);
+    }
+
+    /**
+     * Create a signature file in JSON format from a provided Signature. The file contains the signature,
+     * the signature algorithm, the provider that created it and a public key to check it
+     *
+     * @param encSignature encoded signature
+     * @param algorithm    signature algorithm used for signing
+     * @param provider     provider that created the signature
+     * @param publicKey    public key that verifies the signature
      * @param outputFile   file where to signature and public key will be written to
      * @throws IOException when file operations go wrong, exceptions are handled in the controller class
      */
     @SuppressWarnings("unchecked") //The json-simple library is compiled with an old bytecode version: 46.0
-    private static void createSignatureFile(byte[] dsaSignature, File outputFile) throws IOException {
+    private static void createSignatureFile(byte[] encSignature, SignatureAlgorithm algorithm, Provider provider,
+                                            PublicKey publicKey, File outputFile) throws IOException {
         JSONObject config = new JSONObject();
-        FileWriter fileWriter = new FileWriter(outputFile);
 
-        String signature = Base64.getEncoder().encodeToString(dsaSignature);
+        String signature = Base64.getEncoder().encodeToString(encSignature);
         String publicKeyString = Base64.getEncoder().encodeToString(publicKey.getEncoded());
 
+        config.put("signatureAlgorithm", algorithm.label);
         config.put("signature", signature);
         config.put("publicKey", publicKeyString);
+        config.put("provider", provider.getName());
 
-        fileWriter.write(config.toJSONString());
-
-        fileWriter.flush();
-        fileWriter.close();
-    }
-
-
-    /**
-     * Generate a 2048 bit DSA key pair using provider based parameters.
-     *
-     * @return a DSA KeyPair
-     */
-    private static KeyPair generateDSAKeyPair()
-            throws GeneralSecurityException {
-        KeyPairGenerator keyPair = KeyPairGenerator.getInstance("DSA", "BC");
-
-        keyPair.initialize(2048);
-
-        return keyPair.generateKeyPair();
+        try (FileWriter fileWriter = new FileWriter(outputFile)) {
+            fileWriter.write(config.toJSONString());
+        }
     }
 
     /**
-     * Generate an encoded DSA signature using the passed in private key and
-     * input data.
+     * Generate an encoded signature using the passed in private key and
+     * input file.
      *
-     * @param dsaPrivate the private key for generating the signature with.
-     * @param input      the input to be signed.
+     * @param signature  the signature engine.
+     * @param privateKey the private key for generating the signature with.
+     * @param input      the file to be signed.
      * @return the encoded signature.
      */
-    private static byte[] generateDSASignature(PrivateKey dsaPrivate, byte[] input)
-            throws GeneralSecurityException {
-        Signature signature = Signature.getInstance("SHA256withDSA", "BC");
+    private static byte[] generateSignature(Signature signature, PrivateKey privateKey, File input)
+            throws Exception {
+        signature.initSign(privateKey);
 
-        signature.initSign(dsaPrivate);
-
-        signature.update(input);
+        MappedFileIO.update(signature, input);
 
         return signature.sign();
     }
 
     /**
      * Return true if the passed in signature verifies against
-     * the passed in DSA public key and input.
+     * the passed in public key and input.
      *
-     * @param dsaPublic    the public key of the signature creator.
-     * @param input        the input that was supposed to have been signed.
+     * @param algorithm    the signature algorithm.
+     * @param publicKey    the public key of the signature creator.
+     * @param input        the file that was supposed to have been signed.
      * @param encSignature the encoded signature.
      * @return true if the signature verifies, false otherwise.
      */
-    private static boolean verifyDSASignature(
-            PublicKey dsaPublic, byte[] input, byte[] encSignature)
-            throws GeneralSecurityException {
-        Signature signature = Signature.getInstance("SHA256withDSA", "BC");
+    private static boolean verifySignature(
+            SignatureAlgorithm algorithm, PublicKey publicKey, File input, byte[] encSignature)
+            throws Exception {
+        Signature signature = EnginePool.getSignature(algorithm.label);
 
-        signature.initVerify(dsaPublic);
+        try {
+            signature.initVerify(publicKey);
+        } catch (InvalidKeyException e) {
+            // the key does not belong to the recorded algorithm
+            return false;
+        }
 
-        signature.update(input);
+        MappedFileIO.update(signature, input);
 
         return signature.verify(encSignature);
     }
@@ -130,31 +181,83 @@ public class DigitalSigning {
      * @throws Exception when file operations go wrong, exceptions are handled in the controller class
      */
     public static boolean verify(File inputFile, File signature) throws Exception {
-        readConfigFile(signature);
-        byte[] inputFileBytes = Files.readAllBytes(inputFile.toPath());
-        return verifyDSASignature(publicKey, inputFileBytes, encSignature);
+        JSONObject config = readConfigFile(signature);
+        SignatureAlgorithm algorithm = getAlgorithm(config);
+        PublicKey publicKey = getPublicKey(algorithm, config.get("publicKey").toString());
+        return verifySignature(algorithm, publicKey, inputFile, getSignature(config));
     }
 
     /**
-     * Read the public key and the signature from the configuration file and store them in the instance variables
+     * Verify if a file was signed by the owner of a trusted public key.
+     * The public key stored in the signature file is ignored
      *
-     * @param configurationFile json file containing signature and public key
+     * @param inputFile  file to be verified
+     * @param signature  file containing the signature
+     * @param trustedKey public key of the expected signer, e.g. {@link SigningIdentity#getPublicKey()}
+     * @return true if the signature verifies against the input file and the trusted key, false otherwise
+     * @throws Exception when file operations go wrong, exceptions are handled in the controller class
      */
-    private static void readConfigFile(File configurationFile) {
-        try {
-            FileReader fileReader = new FileReader(configurationFile.getAbsolutePath());
-            JSONParser jsonParser = new JSONParser();
-            JSONObject jsonObject = (JSONObject) jsonParser.parse(fileReader);
+    public static boolean verify(File inputFile, File signature, PublicKey trustedKey) throws Exception {
+        JSONObject config = readConfigFile(signature);
+        return verifySignature(getAlgorithm(config), trustedKey, inputFile, getSignature(config));
+    }
 
-            String publicKeyString = jsonObject.get("publicKey").toString();
+    /**
+     * Return the public key for its Base64 encoding, parsing it only the first time it is seen
+     *
+     * @param algorithm       signature algorithm the key is used with
+     * @param publicKeyString Base64 encoded X.509 public key
+     * @return the public key
+     * @throws GeneralSecurityException when the key cannot be parsed
+     */
+    private static PublicKey getPublicKey(SignatureAlgorithm algorithm, String publicKeyString)
+            throws GeneralSecurityException {
+        String cacheKey = algorithm.keyAlgorithm + ":" + publicKeyString;
+        PublicKey publicKey = publicKeyCache.get(cacheKey);
+        if (publicKey == null) {
             byte[] publicKeyBytes = Base64.getDecoder().decode(publicKeyString);
-            publicKey = KeyFactory.getInstance("DSA").generatePublic(new X509EncodedKeySpec(publicKeyBytes));
+            publicKey = KeyFactory.getInstance(algorithm.keyAlgorithm, "BC")
+                    .generatePublic(new X509EncodedKeySpec(publicKeyBytes));
+            if (publicKeyCache.size() >= PUBLIC_KEY_CACHE_SIZE) {
+                publicKeyCache.clear();
+            }
+            publicKeyCache.put(cacheKey, publicKey);
+        }
+        return publicKey;
+    }
 
-            String signature = jsonObject.get("signature").toString();
-            encSignature = Base64.getDecoder().decode(signature);
+    /**
+     * Read the signature algorithm stored in a signature file, files without it were signed with DSA
+     *
+     * @param config content of the signature file
+     * @return the signature algorithm
+     */
+    private static SignatureAlgorithm getAlgorithm(JSONObject config) {
+        Object label = config.get("signatureAlgorithm");
+        return label == null ? SignatureAlgorithm.DSA : SignatureAlgorithm.fromLabel(label.toString());
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Decode the signature stored in a signature file
+     *
+     * @param config content of the signature file
+     * @return the encoded signature
+     */
+    private static byte[] getSignature(JSONObject config) {
+        return Base64.getDecoder().decode(config.get("signature").toString());
+    }
+
+    /**
+     * Read the configuration file containing the signature and the public key
+     *
+     * @param configurationFile json file containing signature and public key
+     * @return content of the configuration file
+     * @throws Exception when the file cannot be read or parsed
+     */
+    private static JSONObject readConfigFile(File configurationFile) throws Exception {
+        try (FileReader fileReader = new FileReader(configurationFile.getAbsolutePath())) {
+            JSONParser jsonParser = new JSONParser();
+            return (JSONObject) jsonParser.parse(fileReader);
         }
     }
 }
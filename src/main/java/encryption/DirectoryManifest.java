@@ -0,0 +1,393 @@
+package encryption;
+
+import encryption.enums.HashAlgorithm;
+import encryption.util.EnginePool;
+import encryption.util.TreeHash;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Hash manifest of a whole directory tree, similar to a sha256sum file.
+ * The files are hashed in parallel on the workers of a {@link BatchEncryption}, the manifest holds path, size,
+ * hash algorithm and hash of every file. Verification hashes the files in parallel as well and reports
+ * every mismatch to a listener as soon as it is found.
+ * Files added to the tree after the manifest was created are not checked.
+ * <p>
+ * A stat index is kept next to the manifest, see {@link #getIndexFile(File)}. It maps path, size, modification time
+ * and file key (device and inode on Unix) of every file that matched the manifest to its hash. Files whose stat and
+ * hash still match the index are skipped by the next verification, only new or modified files are hashed again.
+ * The index only detects changes that show up in the stat, a full verification ignores it.
+ *
+ * @author Leo Nobis
+ */
+public class DirectoryManifest {
+
+    /**
+     * Receives the files that failed the verification, called by several workers at once
+     */
+    public interface MismatchListener {
+        void mismatch(File file, Exception reason);
+    }
+
+    /**
+     * Thrown for a file whose size or hash differs from the manifest
+     */
+    public static class MismatchException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public MismatchException(String message) {
+            super(message);
+        }
+    }
+
+    // Appended to the manifest file name for the stat index
+    public static final String INDEX_EXTENSION = ".index";
+    // Files modified this shortly before a run are not indexed, covers file systems with coarse timestamps
+    private static final long TIMESTAMP_GRANULARITY_MILLIS = 2000;
+
+    // engine running the workers
+    private final BatchEncryption batch;
+
+    /**
+     * Create a manifest engine with one worker per available processor
+     */
+    public DirectoryManifest() {
+        this.batch = new BatchEncryption();
+    }
+
+    /**
+     * Create a manifest engine with a fixed number of workers
+     *
+     * @param workers number of files hashed at the same time
+     */
+    public DirectoryManifest(int workers) {
+        this.batch = new BatchEncryption(workers);
+    }
+
+    /**
+     * Hash every file of a directory tree and write the manifest. Files that cannot be read are reported
+     * and left out of the manifest
+     *
+     * @param directory    root of the tree
+     * @param manifestFile file the manifest is written to, skipped if it lies inside the tree
+     * @param algorithm    {@link HashAlgorithm} used for all files
+     * @return report of the run
+     * @throws Exception when file operations go wrong, exceptions are handled in the controller class
+     */
+    @SuppressWarnings("unchecked") //The json-simple library is compiled with an old bytecode version: 46.0
+    public BatchReport create(File directory, File manifestFile, HashAlgorithm algorithm) throws Exception {
+        Path root = directory.toPath().toAbsolutePath().normalize();
+        Path manifestPath = manifestFile.toPath().toAbsolutePath().normalize();
+        Path indexPath = getIndexFile(manifestFile).toPath().toAbsolutePath().normalize();
+        List<File> files = BatchEncryption.collectFiles(directory).stream()
+                .filter(file -> !file.toPath().toAbsolutePath().normalize().equals(manifestPath)
+                        && !file.toPath().toAbsolutePath().normalize().equals(indexPath))
+                .collect(Collectors.toList());
+
+        SecretKey key = null;
+        if (algorithm == HashAlgorithm.AESCMAC || algorithm == HashAlgorithm.HMACSHA256) {
+            // one key for all files, stored in the manifest
+            key = EnginePool.getKeyGenerator("AES", 192).generateKey();
+        }
+        SecretKey secretKey = key;
+        long start = System.currentTimeMillis();
+        Map<File, JSONObject> entries = new ConcurrentHashMap<>();
+        Map<File, JSONObject> index = new ConcurrentHashMap<>();
+        BatchReport report = batch.run(files, file -> {
+            // stat before hashing, so a change during hashing shows up in the next verification
+            JSONObject stat = stat(root, file);
+            byte[] hash = new Hashing().hash(file, algorithm, secretKey, TreeHash.DEFAULT_CHUNK_SIZE);
+            JSONObject entry = new JSONObject();
+            entry.put("path", stat.get("path"));
+            entry.put("size", stat.get("size"));
+            entry.put("hashAlgorithm", algorithm.label);
+            entry.put("hash", Base64.getEncoder().encodeToString(hash));
+            entries.put(file, entry);
+            addToIndex(index, file, stat, entry, start);
+            return true;
+        });
+
+        JSONArray manifestEntries = new JSONArray();
+        for (File file : files) {
+            if (entries.containsKey(file)) {
+                manifestEntries.add(entries.get(file));
+            }
+        }
+        JSONObject manifest = new JSONObject();
+        manifest.put("provider", Hashing.getProvider(algorithm).getName());
+        if (key != null) {
+            manifest.put("key", Base64.getEncoder().encodeToString(key.getEncoded()));
+        }
+        if (algorithm == HashAlgorithm.SHA256TREE) {
+            manifest.put("chunkSize", TreeHash.DEFAULT_CHUNK_SIZE);
+            manifest.put("treeLayout", TreeHash.LAYOUT);
+        }
+        manifest.put("entries", manifestEntries);
+        try (FileWriter fileWriter = new FileWriter(manifestFile.getAbsolutePath())) {
+            fileWriter.write(manifest.toJSONString());
+        }
+        writeIndex(getIndexFile(manifestFile), files, index);
+        return report;
+    }
+
+    /**
+     * Verify a tree against a manifest, files unchanged since the last verification are skipped
+     *
+     * @param directory    root of the tree
+     * @param manifestFile manifest created by {@link #create(File, File, HashAlgorithm)}
+     * @param listener     receives every failed file as soon as it is found, may be null
+     * @return report of the run, the tree matches the manifest if no file failed
+     * @throws Exception when the manifest cannot be read, exceptions are handled in the controller class
+     */
+    public BatchReport verify(File directory, File manifestFile, MismatchListener listener) throws Exception {
+        return verify(directory, manifestFile, listener, false);
+    }
+
+    /**
+     * Hash every file listed in a manifest and compare size and hash.
+     * Missing, changed and unreadable files are failures of the report.
+     * The stat index is updated with the files that matched
+     *
+     * @param directory    root of the tree
+     * @param manifestFile manifest created by {@link #create(File, File, HashAlgorithm)}
+     * @param listener     receives every failed file as soon as it is found, may be null
+     * @param full         true to hash every file, false to skip files whose stat matches the index
+     * @return report of the run, the tree matches the manifest if no file failed
+     * @throws Exception when the manifest cannot be read, exceptions are handled in the controller class
+     */
+    public BatchReport verify(File directory, File manifestFile, MismatchListener listener, boolean full)
+            throws Exception {
+        JSONObject manifest;
+        try (FileReader fileReader = new FileReader(manifestFile.getAbsolutePath())) {
+            manifest = (JSONObject) new JSONParser().parse(fileReader);
+        }
+        SecretKey key = null;
+        if (manifest.get("key") != null) {
+            key = new SecretKeySpec(Base64.getDecoder().decode(manifest.get("key").toString()), "AES");
+        }
+        int chunkSize = TreeHash.DEFAULT_CHUNK_SIZE;
+        if (manifest.get("chunkSize") != null) {
+            if (!TreeHash.LAYOUT.equals(String.valueOf(manifest.get("treeLayout")))) {
+                throw new IllegalArgumentException("Unsupported tree layout: " + manifest.get("treeLayout"));
+            }
+            chunkSize = Integer.parseInt(manifest.get("chunkSize").toString());
+        }
+
+        Path root = directory.toPath().toAbsolutePath().normalize();
+        List<File> files = new ArrayList<>();
+        Map<File, JSONObject> entries = new HashMap<>();
+        for (Object object : (JSONArray) manifest.get("entries")) {
+            JSONObject entry = (JSONObject) object;
+            Path path = root.resolve(entry.get("path").toString()).normalize();
+            if (!path.startsWith(root)) {
+                throw new IllegalArgumentException("Path outside of the directory: " + entry.get("path"));
+            }
+            files.add(path.toFile());
+            entries.put(path.toFile(), entry);
+        }
+
+        File indexFile = getIndexFile(manifestFile);
+        Map<String, JSONObject> previousIndex = full ? new HashMap<>() : readIndex(indexFile);
+        SecretKey secretKey = key;
+        int treeChunkSize = chunkSize;
+        long start = System.currentTimeMillis();
+        Map<File, JSONObject> index = new ConcurrentHashMap<>();
+        BatchReport report = batch.run(files, file -> {
+            try {
+                JSONObject entry = entries.get(file);
+                if (!file.isFile()) {
+                    throw new FileNotFoundException("Missing file");
+                }
+                JSONObject stat = stat(root, file);
+                JSONObject indexed = previousIndex.get(entry.get("path").toString());
+                if (indexed != null && isUnchanged(indexed, stat, entry)) {
+                    index.put(file, indexed);
+                    return false;
+                }
+                verify(file, entry, stat, secretKey, treeChunkSize);
+                addToIndex(index, file, stat, entry, start);
+                return true;
+            } catch (Exception e) {
+                if (listener != null) {
+                    listener.mismatch(file, e);
+                }
+                throw e;
+            }
+        });
+        writeIndex(indexFile, files, index);
+        return report;
+    }
+
+    /**
+     * Return the stat index kept next to a manifest
+     *
+     * @param manifestFile manifest file
+     * @return manifest file name with .index appended
+     */
+    public static File getIndexFile(File manifestFile) {
+        return new File(manifestFile.getPath() + INDEX_EXTENSION);
+    }
+
+    /**
+     * Compare size and hash of a single file to its entry
+     *
+     * @param file      file to be checked
+     * @param entry     manifest entry of the file
+     * @param stat      stat of the file taken before hashing
+     * @param key       key of a MAC, null for digests
+     * @param chunkSize chunk size of SHA256TREE
+     * @throws Exception when the file is unreadable or differs from the entry
+     */
+    private static void verify(File file, JSONObject entry, JSONObject stat, SecretKey key, int chunkSize)
+            throws Exception {
+        if (!entry.get("size").toString().equals(stat.get("size").toString())) {
+            throw new MismatchException("Size differs: " + stat.get("size") + " instead of " + entry.get("size"));
+        }
+        HashAlgorithm algorithm = HashAlgorithm.valueOf(entry.get("hashAlgorithm").toString().replace("-", ""));
+        byte[] hash = new Hashing().hash(file, algorithm, key, chunkSize);
+        if (!Arrays.equals(hash, Base64.getDecoder().decode(entry.get("hash").toString()))) {
+            throw new MismatchException("Hash differs");
+        }
+    }
+
+    /**
+     * Read path, size, modification time and file key of a file
+     *
+     * @param root root of the tree
+     * @param file file in the tree
+     * @return stat of the file as index entry without hash
+     * @throws IOException when the attributes cannot be read
+     */
+    @SuppressWarnings("unchecked") //The json-simple library is compiled with an old bytecode version: 46.0
+    private static JSONObject stat(Path root, File file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        JSONObject stat = new JSONObject();
+        stat.put("path", toManifestPath(root, file));
+        stat.put("size", attributes.size());
+        stat.put("lastModified", attributes.lastModifiedTime().toMillis());
+        // null on file systems without file keys, then only size and modification time are compared
+        stat.put("fileKey", String.valueOf(attributes.fileKey()));
+        return stat;
+    }
+
+    /**
+     * Check whether a file can be skipped
+     *
+     * @param indexed index entry of the file
+     * @param stat    current stat of the file
+     * @param entry   manifest entry of the file
+     * @return true if stat and hash of the index entry match the file and the manifest
+     */
+    private static boolean isUnchanged(JSONObject indexed, JSONObject stat, JSONObject entry) {
+        for (String field : new String[]{"size", "lastModified", "fileKey"}) {
+            if (!String.valueOf(indexed.get(field)).equals(String.valueOf(stat.get(field)))) {
+                return false;
+            }
+        }
+        // a new manifest or MAC key changes the hash and invalidates the entry
+        return String.valueOf(indexed.get("hash")).equals(String.valueOf(entry.get("hash")))
+                && String.valueOf(indexed.get("hashAlgorithm")).equals(String.valueOf(entry.get("hashAlgorithm")));
+    }
+
+    /**
+     * Add a file that matched the manifest to the index, unless it was modified so shortly before the run
+     * that a later change could keep the same modification time
+     *
+     * @param index index of the run
+     * @param file  file that matched
+     * @param stat  stat of the file taken before hashing
+     * @param entry manifest entry of the file
+     * @param start start of the run in milliseconds
+     */
+    @SuppressWarnings("unchecked") //The json-simple library is compiled with an old bytecode version: 46.0
+    private static void addToIndex(Map<File, JSONObject> index, File file, JSONObject stat, JSONObject entry,
+                                   long start) {
+        if (Long.parseLong(stat.get("lastModified").toString()) + TIMESTAMP_GRANULARITY_MILLIS < start) {
+            stat.put("hashAlgorithm", entry.get("hashAlgorithm"));
+            stat.put("hash", entry.get("hash"));
+            index.put(file, stat);
+        }
+    }
+
+    /**
+     * Read a stat index, a missing or damaged index is treated as empty
+     *
+     * @param indexFile index file
+     * @return index entries by path
+     * @throws IOException when the index cannot be read
+     */
+    private static Map<String, JSONObject> readIndex(File indexFile) throws IOException {
+        Map<String, JSONObject> index = new HashMap<>();
+        if (!indexFile.isFile()) {
+            return index;
+        }
+        try (FileReader fileReader = new FileReader(indexFile.getAbsolutePath())) {
+            Object entries = ((JSONObject) new JSONParser().parse(fileReader)).get("entries");
+            for (Object object : entries instanceof JSONArray ? (JSONArray) entries : new JSONArray()) {
+                JSONObject entry = (JSONObject) object;
+                if (entry.get("path") != null) {
+                    index.put(entry.get("path").toString(), entry);
+                }
+            }
+        } catch (ParseException | ClassCastException e) {
+            index.clear();
+        }
+        return index;
+    }
+
+    /**
+     * Write the index entries in the order of the files
+     *
+     * @param indexFile index file
+     * @param files     files of the run
+     * @param index     index entries of the run
+     * @throws IOException when the index cannot be written
+     */
+    @SuppressWarnings("unchecked") //The json-simple library is compiled with an old bytecode version: 46.0
+    private static void writeIndex(File indexFile, List<File> files, Map<File, JSONObject> index)
+            throws IOException {
+        JSONArray entries = new JSONArray();
+        for (File file : files) {
+            if (index.containsKey(file)) {
+                entries.add(index.get(file));
+            }
+        }
+        JSONObject content = new JSONObject();
+        content.put("entries", entries);
+        try (FileWriter fileWriter = new FileWriter(indexFile.getAbsolutePath())) {
+            fileWriter.write(content.toJSONString());
+        }
+    }
+
+    /**
+     * Return the path of a file relative to the root of the tree, with / as separator on every platform
+     *
+     * @param root root of the tree
+     * @param file file in the tree
+     * @return relative path
+     */
+    private static String toManifestPath(Path root, File file) {
+        return root.relativize(file.toPath().toAbsolutePath().normalize()).toString().replace(File.separatorChar, '/');
+    }
+}
@@ -0,0 +1,305 @@
+package encryption;
+
+import encryption.enums.HeaderField;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Versioned binary header at the start of an encrypted file. It holds the public parameters needed for decryption
+ * (algorithm, modes, IV, salt and KDF parameters), so a file is self-describing and decryption needs neither a second
+ * file nor a JSON parser. Keys are never stored in the header.
+ * <p>
+ * Layout: magic "FCRY", version byte, 2 byte big endian length of the fields, followed by the fields as
+ * 1 byte tag, 2 byte length and value. Unknown tags are kept and skipped, so fields can be added within a version.
+ * AEAD modes authenticate the header as additional data. Files without the magic are legacy files
+ * described by a JSON configuration file.
+ *
+ * @author Leo Nobis
+ */
+public class FileHeader {
+
+    // First bytes of every file with a header
+    static final byte[] MAGIC = "FCRY".getBytes(StandardCharsets.US_ASCII);
+    // Current format version
+    static final int VERSION = 1;
+    // Length of magic, version and fields length
+    private static final int PREFIX_LENGTH = MAGIC.length + 3;
+    // Upper limit of the fields length, encoded with 2 bytes
+    private static final int MAX_FIELDS_LENGTH = 0xFFFF;
+
+    // field values in the order they are written, keyed by tag
+    private final Map<Integer, byte[]> fields = new LinkedHashMap<>();
+
+    /**
+     * Read the header of a file without reading the encrypted content
+     *
+     * @param file encrypted file
+     * @return the header, null if the file has no header
+     * @throws IOException when the file cannot be read or the header is invalid
+     */
+    public static FileHeader read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return read(channel);
+        }
+    }
+
+    /**
+     * Read the header at the start of a channel
+     *
+     * @param channel channel of the encrypted file
+     * @return the header, null if the file has no header
+     * @throws IOException when the channel cannot be read or the header is invalid
+     */
+    public static FileHeader read(FileChannel channel) throws IOException {
+        if (channel.size() < PREFIX_LENGTH) {
+            return null;
+        }
+        ByteBuffer prefix = readFully(channel, 0, PREFIX_LENGTH);
+        byte[] magic = new byte[MAGIC.length];
+        prefix.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            return null;
+        }
+        int version = prefix.get() & 0xFF;
+        if (version != VERSION) {
+            throw new IOException("Unsupported header version " + version);
+        }
+        int fieldsLength = prefix.getShort() & 0xFFFF;
+        if (channel.size() < PREFIX_LENGTH + fieldsLength) {
+            throw new IOException("Header is truncated");
+        }
+
+        FileHeader header = new FileHeader();
+        ByteBuffer buffer = readFully(channel, PREFIX_LENGTH, fieldsLength);
+        while (buffer.hasRemaining()) {
+            if (buffer.remaining() < 3) {
+                throw new IOException("Header field is truncated");
+            }
+            int tag = buffer.get() & 0xFF;
+            int length = buffer.getShort() & 0xFFFF;
+            if (buffer.remaining() < length) {
+                throw new IOException("Header field " + tag + " is truncated");
+            }
+            byte[] value = new byte[length];
+            buffer.get(value);
+            if (header.fields.put(tag, value) != null) {
+                throw new IOException("Duplicate header field " + tag);
+            }
+        }
+        return header;
+    }
+
+    /**
+     * Read a number of bytes from a position of a channel
+     *
+     * @param channel  channel to read from
+     * @param position position of the first byte
+     * @param length   number of bytes
+     * @return buffer holding the bytes, ready to be read
+     * @throws IOException when the channel ends before
+     */
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Header is truncated");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Set a field to a byte value
+     *
+     * @param field field to be set
+     * @param value value of the field
+     * @return this header
+     */
+    public FileHeader put(HeaderField field, byte[] value) {
+        if (value.length > MAX_FIELDS_LENGTH) {
+            throw new IllegalArgumentException("Header field " + field + " is too long");
+        }
+        fields.put(field.tag, value.clone());
+        return this;
+    }
+
+    /**
+     * Set a field to a text value
+     *
+     * @param field field to be set
+     * @param value value of the field, stored UTF-8 encoded
+     * @return this header
+     */
+    public FileHeader put(HeaderField field, String value) {
+        return put(field, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Set a field to a number
+     *
+     * @param field field to be set
+     * @param value value of the field, stored as 4 byte big endian
+     * @return this header
+     */
+    public FileHeader put(HeaderField field, int value) {
+        return put(field, ByteBuffer.allocate(Integer.BYTES).putInt(value).array());
+    }
+
+    /**
+     * Check if a field is set
+     *
+     * @param field field to be checked
+     * @return true if the header contains the field
+     */
+    public boolean contains(HeaderField field) {
+        return fields.containsKey(field.tag);
+    }
+
+    /**
+     * Getter method for a byte value
+     *
+     * @param field field to be read
+     * @return value of the field
+     * @throws IOException when the field is missing
+     */
+    public byte[] getBytes(HeaderField field) throws IOException {
+        byte[] value = fields.get(field.tag);
+        if (value == null) {
+            throw new IOException("Header field " + field + " is missing");
+        }
+        return value.clone();
+    }
+
+    /**
+     * Getter method for a text value
+     *
+     * @param field field to be read
+     * @return value of the field
+     * @throws IOException when the field is missing
+     */
+    public String getString(HeaderField field) throws IOException {
+        return new String(getBytes(field), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Getter method for a number
+     *
+     * @param field field to be read
+     * @return value of the field
+     * @throws IOException when the field is missing or is not a number
+     */
+    public int getInt(HeaderField field) throws IOException {
+        byte[] value = getBytes(field);
+        if (value.length != Integer.BYTES) {
+            throw new IOException("Header field " + field + " is not a number");
+        }
+        return ByteBuffer.wrap(value).getInt();
+    }
+
+    /**
+     * Check that the file was written by the expected encryptor
+     *
+     * @param algorithm name of the encryptor, e.g. AESPBE
+     * @throws IOException when the file was written by another encryptor
+     */
+    public void checkAlgorithm(String algorithm) throws IOException {
+        String fileAlgorithm = getString(HeaderField.ALGORITHM);
+        if (!fileAlgorithm.equals(algorithm)) {
+            throw new IOException("File was encrypted with " + fileAlgorithm + ", not " + algorithm);
+        }
+    }
+
+    /**
+     * Encode the header as written to the start of the file. The encoding is also the additional data of AEAD modes
+     *
+     * @return encoded header
+     */
+    public byte[] toByteArray() {
+        int fieldsLength = 0;
+        for (byte[] value : fields.values()) {
+            fieldsLength += 3 + value.length;
+        }
+        if (fieldsLength > MAX_FIELDS_LENGTH) {
+            throw new IllegalStateException("Header is too long");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(PREFIX_LENGTH + fieldsLength)
+                .put(MAGIC)
+                .put((byte) VERSION)
+                .putShort((short) fieldsLength);
+        for (Map.Entry<Integer, byte[]> field : fields.entrySet()) {
+            buffer.put(field.getKey().byteValue())
+                    .putShort((short) field.getValue().length)
+                    .put(field.getValue());
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Length of the encoded header, the encrypted content starts at this position
+     *
+     * @return number of header bytes
+     */
+    public int getLength() {
+        return toByteArray().length;
+    }
+
+    /**
+     * Return the fields in readable form, numbers as decimal, text as is and binary values Base64 encoded
+     *
+     * @return e.g. algorithm=AESPBE blockMode=GCM ...
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("version=").append(VERSION);
+        for (Map.Entry<Integer, byte[]> entry : fields.entrySet()) {
+            HeaderField field = HeaderField.fromTag(entry.getKey());
+            byte[] value = entry.getValue();
+            builder.append(' ');
+            if (field == null) {
+                builder.append(entry.getKey()).append('=').append(Base64.getEncoder().encodeToString(value));
+                continue;
+            }
+            builder.append(field.label).append('=');
+            switch (field) {
+                case KEY_LENGTH:
+                case ITERATIONS:
+                case SCRYPT_COST:
+                case SCRYPT_BLOCK_SIZE:
+                case SCRYPT_PARALLELIZATION:
+                case SEGMENT_SIZE:
+                case ARGON2_MEMORY:
+                case ARGON2_ITERATIONS:
+                case ARGON2_LANES:
+                    if (value.length == Integer.BYTES) {
+                        builder.append(ByteBuffer.wrap(value).getInt());
+                        break;
+                    }
+                    builder.append(Base64.getEncoder().encodeToString(value));
+                    break;
+                case ALGORITHM:
+                case BLOCK_MODE:
+                case PADDING_MODE:
+                case KDF:
+                case PROVIDER:
+                case HKDF_INFO:
+                    builder.append(new String(value, StandardCharsets.UTF_8));
+                    break;
+                default:
+                    builder.append(Base64.getEncoder().encodeToString(value));
+                    break;
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -1,11 +1,14 @@
 package encryption;
 
 import encryption.enums.HashAlgorithm;
+import encryption.util.CryptoProviders;
+import encryption.util.EnginePool;
+import encryption.util.MappedFileIO;
+import encryption.util.TreeHash;
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
 
-import javax.crypto.KeyGenerator;
 import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
@@ -13,16 +16,22 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.security.InvalidKeyException;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
+import java.security.Provider;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Base class for creating and checking hashes.
+ * SHA256TREE hashes large files with all cores using a {@link TreeHash}, its chunk size and tree layout
+ * are stored in the hash file and used again for the check.
+ * {@link #hashAll(File, File, HashAlgorithm...)} computes several hashes while reading the file only once and stores
+ * them in one manifest, which {@link #checkHash(File, File)} verifies in one pass as well.
  * Used by {@link controller.HashingController}
  *
  * @author Leo Nobis
@@ -35,6 +44,10 @@ public class Hashing {
     private byte[] loadedHash;
     // key generated for hashing
     private SecretKey secretKey;
+    // provider of the last computed hash
+    private Provider provider;
+    // chunk size of SHA256TREE
+    private int chunkSize = TreeHash.DEFAULT_CHUNK_SIZE;
 
     /**
      * Compute the hash of a file and compare it to a stored hash in another file
@@ -45,30 +58,38 @@ public class Hashing {
      * @throws Exception when file operations go wrong, exceptions are handled in the controller class
      */
     public boolean checkHash(File selectedFile, File hashFile) throws Exception {
-        readHashFile(hashFile);
+        JSONObject config = parseHashFile(hashFile);
+        if (config.get("hashes") != null) {
+            return checkManifest(selectedFile, (JSONArray) config.get("hashes"));
+        }
+        readHashFile(config);
 
         byte[] hash = hashFile(selectedFile, selectedAlgorithm);
         return Arrays.equals(hash, loadedHash);
     }
 
     /**
-     * Hash a file with a hash algorithm
+     * Hash a file with a hash algorithm.
+     * The file is fed to the digest or MAC chunk by chunk, so memory use does not depend on the file size
      * @param selectedFile to be hashed
      * @param selectedAlgorithm to be used for hashing
      * @return hash for selectedFile
      * @throws Exception when file operations go wrong, exceptions are handled in the controller class
      */
     private byte[] hashFile(File selectedFile, HashAlgorithm selectedAlgorithm) throws Exception {
-        byte[] data = Files.readAllBytes(selectedFile.toPath());
         byte[] hash;
 
         switch (selectedAlgorithm) {
             case AESCMAC:
             case HMACSHA256:
-                hash = computeMac(selectedAlgorithm.label, secretKey, data);
+                hash = computeMac(selectedAlgorithm.label, secretKey, selectedFile);
                 break;
             case SHA256:
-                hash = computeDigest(selectedAlgorithm.label, data);
+                hash = computeDigest(selectedAlgorithm.label, selectedFile);
+                break;
+            case SHA256TREE:
+                provider = EnginePool.getMessageDigest("SHA-256").getProvider();
+                hash = TreeHash.hash(selectedFile, chunkSize);
                 break;
             default:
                 hash = new byte[]{};
@@ -78,39 +99,75 @@ public class Hashing {
     }
 
     /**
-     * Return a digest computed over data using the passed in algorithm
+     * Hash a file with a given key and chunk size, used for the entries of a {@link DirectoryManifest}
+     *
+     * @param file      file to be hashed
+     * @param algorithm algorithm to be used for hashing
+     * @param key       key of a MAC, null for digests
+     * @param chunkSize chunk size of SHA256TREE
+     * @return hash for file
+     * @throws Exception when file operations go wrong
+     */
+    byte[] hash(File file, HashAlgorithm algorithm, SecretKey key, int chunkSize) throws Exception {
+        this.secretKey = key;
+        this.chunkSize = chunkSize;
+        return hashFile(file, algorithm);
+    }
+
+    /**
+     * Return the provider that computes hashes of an algorithm on this thread
+     *
+     * @param algorithm hash algorithm
+     * @return provider of the digest or MAC
+     * @throws GeneralSecurityException when the algorithm is not available
+     */
+    static Provider getProvider(HashAlgorithm algorithm) throws GeneralSecurityException {
+        switch (algorithm) {
+            case AESCMAC:
+            case HMACSHA256:
+                return EnginePool.getMac(algorithm.label).getProvider();
+            case SHA256TREE:
+                return EnginePool.getMessageDigest("SHA-256").getProvider();
+            default:
+                return EnginePool.getMessageDigest(algorithm.label).getProvider();
+        }
+    }
+
+    /**
+     * Return a digest computed over the content of a file using the passed in algorithm
      * digestName.
      *
      * @param digestName the name of the digest algorithm.
-     * @param data       the input for the digest function.
+     * @param file       the input for the digest function.
      * @return the computed message digest.
      */
-    private byte[] computeDigest(String digestName, byte[] data)
-            throws NoSuchProviderException, NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance(digestName, "BC");
+    private byte[] computeDigest(String digestName, File file)
+            throws Exception {
+        MessageDigest digest = EnginePool.getMessageDigest(digestName);
+        provider = digest.getProvider();
 
-        digest.update(data);
+        MappedFileIO.update(digest, file);
 
         return digest.digest();
     }
 
     /**
-     * Return a MAC computed over data using the passed in MAC algorithm
+     * Return a MAC computed over the content of a file using the passed in MAC algorithm
      * type algorithm.
      *
      * @param algorithm the name of the MAC algorithm.
      * @param key       an appropriate secret key for the MAC algorithm.
-     * @param data      the input for the MAC function.
+     * @param file      the input for the MAC function.
      * @return the computed MAC.
      */
-    private byte[] computeMac(String algorithm, SecretKey key, byte[] data)
-            throws NoSuchProviderException, NoSuchAlgorithmException,
-            InvalidKeyException {
-        Mac mac = Mac.getInstance(algorithm, "BC");
+    private byte[] computeMac(String algorithm, SecretKey key, File file)
+            throws Exception {
+        Mac mac = EnginePool.getMac(algorithm);
+        provider = mac.getProvider();
 
         mac.init(key);
 
-        mac.update(data);
+        MappedFileIO.update(mac, file);
 
         return mac.doFinal();
     }
@@ -124,18 +181,49 @@ public class Hashing {
      * @param selectedAlgorithm algorithm used to calculate the hash
      * @throws Exception when file operations go wrong, exceptions are handled in the controller class
      */
-    @SuppressWarnings("unchecked") //The json-simple library is compiled with an old bytecode version: 46.0
     private void createConfigFile(File outputFile, byte[] hash, HashAlgorithm selectedAlgorithm) throws Exception {
+        writeConfigFile(outputFile, toJson(selectedAlgorithm, hash, provider, secretKey, chunkSize));
+    }
+
+    /**
+     * Create the json entry of a hash
+     *
+     * @param algorithm algorithm used to calculate the hash
+     * @param hash      hash to be stored
+     * @param provider  provider that calculated the hash
+     * @param key       key of a MAC, null for digests
+     * @param chunkSize chunk size of SHA256TREE
+     * @return entry with hash algorithm, hash, provider and the parameters needed for the check
+     */
+    @SuppressWarnings("unchecked") //The json-simple library is compiled with an old bytecode version: 46.0
+    private static JSONObject toJson(HashAlgorithm algorithm, byte[] hash, Provider provider, SecretKey key,
+                                     int chunkSize) {
         JSONObject config = new JSONObject();
-        FileWriter fileWriter = new FileWriter(outputFile.getAbsolutePath());
 
         String hashString = Base64.getEncoder().encodeToString(hash);
 
-        config.put("hashAlgorithm", selectedAlgorithm.label);
+        config.put("hashAlgorithm", algorithm.label);
         config.put("hash", hashString);
-        if (secretKey != null) {
-            config.put("key", Base64.getEncoder().encodeToString(secretKey.getEncoded()));
+        config.put("provider", provider.getName());
+        if (key != null) {
+            config.put("key", Base64.getEncoder().encodeToString(key.getEncoded()));
+        }
+        if (algorithm == HashAlgorithm.SHA256TREE) {
+            config.put("chunkSize", chunkSize);
+            config.put("treeLayout", TreeHash.LAYOUT);
         }
+        return config;
+    }
+
+    /**
+     * Write a json object to a configuration file
+     *
+     * @param outputFile configuration file
+     * @param config     content of the file
+     * @throws Exception when file operations go wrong, exceptions are handled in the controller class
+     */
+    private static void writeConfigFile(File outputFile, JSONObject config) throws Exception {
+        FileWriter fileWriter = new FileWriter(outputFile.getAbsolutePath());
 
         try {
             fileWriter.write(config.toJSONString());
@@ -161,9 +249,10 @@ public class Hashing {
      */
     public void hash(File inputFile, File outputFile, HashAlgorithm selectedAlgorithm) throws Exception {
         secretKey = null;
-        if (selectedAlgorithm != HashAlgorithm.SHA256) {
-            KeyGenerator keyGenerator = KeyGenerator.getInstance("AES", "BC");
-            secretKey = keyGenerator.generateKey();
+        chunkSize = TreeHash.DEFAULT_CHUNK_SIZE;
+        if (selectedAlgorithm == HashAlgorithm.AESCMAC || selectedAlgorithm == HashAlgorithm.HMACSHA256) {
+            // 192 bit is the default key size of the Bouncy Castle AES key generator
+            secretKey = EnginePool.getKeyGenerator("AES", 192).generateKey();
         }
 
         byte[] hash = hashFile(inputFile, selectedAlgorithm);
@@ -171,23 +260,184 @@ public class Hashing {
     }
 
     /**
-     * Read a hash and hash algorithm from a file and store it in the base classes instance variables
+     * Hash a input file with several algorithms and put all hashes in one manifest file.
+     * The file is read only once, every chunk is passed to all digests and MACs, see
+     * {@link MappedFileIO#update(File, List)}. Every MAC gets its own key
      *
-     * @param hashFile json file containing the hash and the hash algorithm
+     * @param inputFile  file to be hashed
+     * @param outputFile file which will store the hashes in a json format
+     * @param algorithms {@link HashAlgorithm}s that are used for hashing, duplicates are ignored
+     * @throws Exception when file operations go wrong, exceptions are handled in the controller class
      */
-    private void readHashFile(File hashFile) {
-        try {
-            FileReader fileReader = new FileReader(hashFile.getAbsolutePath());
-            JSONParser jsonParser = new JSONParser();
-            JSONObject jsonObject = (JSONObject) jsonParser.parse(fileReader);
-
-            this.selectedAlgorithm = HashAlgorithm.valueOf(jsonObject.get("hashAlgorithm").toString().replace("-", ""));
-            this.loadedHash = Base64.getDecoder().decode(jsonObject.get("hash").toString());
-            if (jsonObject.get("key") != null) {
-                this.secretKey = new SecretKeySpec(Base64.getDecoder().decode(jsonObject.get("key").toString()), selectedAlgorithm.label);
+    @SuppressWarnings("unchecked") //The json-simple library is compiled with an old bytecode version: 46.0
+    public void hashAll(File inputFile, File outputFile, HashAlgorithm... algorithms) throws Exception {
+        Set<HashAlgorithm> selected = EnumSet.noneOf(HashAlgorithm.class);
+        selected.addAll(Arrays.asList(algorithms));
+        if (selected.isEmpty()) {
+            throw new IllegalArgumentException("No hash algorithm selected");
+        }
+        List<ManifestEntry> entries = new ArrayList<>();
+        for (HashAlgorithm algorithm : selected) {
+            SecretKey key = null;
+            if (algorithm == HashAlgorithm.AESCMAC || algorithm == HashAlgorithm.HMACSHA256) {
+                key = EnginePool.getKeyGenerator("AES", 192).generateKey();
+            }
+            entries.add(new ManifestEntry(algorithm, key, TreeHash.DEFAULT_CHUNK_SIZE));
+        }
+
+        hashAll(inputFile, entries);
+
+        JSONArray hashes = new JSONArray();
+        for (ManifestEntry entry : entries) {
+            hashes.add(toJson(entry.algorithm, entry.hash, entry.provider, entry.key, entry.chunkSize));
+        }
+        JSONObject manifest = new JSONObject();
+        manifest.put("hashes", hashes);
+        writeConfigFile(outputFile, manifest);
+    }
+
+    /**
+     * Compute all hashes of a manifest and compare them to the stored hashes
+     *
+     * @param selectedFile file to be checked
+     * @param hashes       entries of the manifest
+     * @return true if the manifest is not empty and all hashes are equal
+     * @throws Exception when file operations go wrong, exceptions are handled in the controller class
+     */
+    private boolean checkManifest(File selectedFile, JSONArray hashes) throws Exception {
+        List<ManifestEntry> entries = new ArrayList<>();
+        List<byte[]> loadedHashes = new ArrayList<>();
+        for (Object hash : hashes) {
+            readHashFile((JSONObject) hash);
+            entries.add(new ManifestEntry(selectedAlgorithm, secretKey, chunkSize));
+            loadedHashes.add(loadedHash);
+            secretKey = null;
+            chunkSize = TreeHash.DEFAULT_CHUNK_SIZE;
+        }
+        if (entries.isEmpty()) {
+            return false;
+        }
+        hashAll(selectedFile, entries);
+
+        boolean equal = true;
+        for (int i = 0; i < entries.size(); i++) {
+            equal &= Arrays.equals(entries.get(i).hash, loadedHashes.get(i));
+        }
+        return equal;
+    }
+
+    /**
+     * Read the file once and compute the hashes of all entries
+     *
+     * @param inputFile file to be hashed
+     * @param entries   entries receiving the hashes
+     * @throws Exception when file operations go wrong
+     */
+    private static void hashAll(File inputFile, List<ManifestEntry> entries) throws Exception {
+        List<MappedFileIO.ChunkConsumer> consumers = new ArrayList<>();
+        for (ManifestEntry entry : entries) {
+            consumers.add(entry.start());
+        }
+        MappedFileIO.update(inputFile, consumers);
+        for (ManifestEntry entry : entries) {
+            entry.finish();
+        }
+    }
+
+    /**
+     * Parse a hash file
+     *
+     * @param hashFile json file containing a hash or a manifest of hashes
+     * @return content of the file
+     * @throws Exception when file operations go wrong, exceptions are handled in the controller class
+     */
+    private static JSONObject parseHashFile(File hashFile) throws Exception {
+        try (FileReader fileReader = new FileReader(hashFile.getAbsolutePath())) {
+            return (JSONObject) new JSONParser().parse(fileReader);
+        }
+    }
+
+    /**
+     * Read a hash and hash algorithm from a json entry and store it in the base classes instance variables
+     *
+     * @param jsonObject json entry containing the hash and the hash algorithm
+     */
+    private void readHashFile(JSONObject jsonObject) {
+        this.selectedAlgorithm = HashAlgorithm.valueOf(jsonObject.get("hashAlgorithm").toString().replace("-", ""));
+        this.loadedHash = Base64.getDecoder().decode(jsonObject.get("hash").toString());
+        if (jsonObject.get("key") != null) {
+            this.secretKey = new SecretKeySpec(Base64.getDecoder().decode(jsonObject.get("key").toString()), selectedAlgorithm.label);
+        }
+        if (selectedAlgorithm == HashAlgorithm.SHA256TREE) {
+            if (!TreeHash.LAYOUT.equals(String.valueOf(jsonObject.get("treeLayout")))) {
+                throw new IllegalArgumentException("Unsupported tree layout: " + jsonObject.get("treeLayout"));
+            }
+            this.chunkSize = Integer.parseInt(jsonObject.get("chunkSize").toString());
+        }
+    }
+
+    /**
+     * One hash of a manifest. Uses its own digest or MAC instance, because the engines of one pass run in parallel
+     */
+    private static class ManifestEntry {
+        private final HashAlgorithm algorithm;
+        // key of a MAC, null for digests
+        private final SecretKey key;
+        // chunk size of SHA256TREE
+        private final int chunkSize;
+        private Provider provider;
+        private MessageDigest digest;
+        private Mac mac;
+        private TreeHash.Accumulator tree;
+        // computed hash, set by finish()
+        private byte[] hash;
+
+        ManifestEntry(HashAlgorithm algorithm, SecretKey key, int chunkSize) {
+            this.algorithm = algorithm;
+            this.key = key;
+            this.chunkSize = chunkSize;
+        }
+
+        /**
+         * Create the engine of the algorithm
+         *
+         * @return consumer passing the chunks of the file to the engine
+         * @throws GeneralSecurityException when the algorithm is not available
+         */
+        MappedFileIO.ChunkConsumer start() throws GeneralSecurityException {
+            switch (algorithm) {
+                case AESCMAC:
+                case HMACSHA256:
+                    mac = CryptoProviders.getMac(algorithm.label);
+                    mac.init(key);
+                    provider = mac.getProvider();
+                    return mac::update;
+                case SHA256:
+                    digest = CryptoProviders.getMessageDigest(algorithm.label);
+                    provider = digest.getProvider();
+                    return digest::update;
+                case SHA256TREE:
+                    tree = new TreeHash.Accumulator(chunkSize);
+                    provider = CryptoProviders.getMessageDigest("SHA-256").getProvider();
+                    return tree;
+                default:
+                    throw new IllegalArgumentException("Unsupported hash algorithm: " + algorithm);
+            }
+        }
+
+        /**
+         * Compute the hash after the whole file was passed to the engine
+         *
+         * @throws GeneralSecurityException when SHA-256 is not available
+         */
+        void finish() throws GeneralSecurityException {
+            if (mac != null) {
+                hash = mac.doFinal();
+            } else if (digest != null) {
+                hash = digest.digest();
+            } else {
+                hash = tree.finish();
             }
-        } catch (IOException | ParseException e) {
-            e.printStackTrace();
         }
     }
 }
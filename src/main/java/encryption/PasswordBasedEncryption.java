@@ -1,35 +1,57 @@
 package encryption;
 
 import encryption.enums.BlockMode;
+import encryption.enums.HeaderField;
 import encryption.enums.KeyDerivationFunction;
 import encryption.enums.PaddingMode;
 import encryption.interfaces.PasswordBasedEncryptor;
+import encryption.util.DerivedKeyCache;
+import encryption.util.EnginePool;
+import encryption.util.KdfScheduler;
+import encryption.util.MappedFileIO;
 import encryption.util.SaltGenerator;
 import org.apache.commons.io.FilenameUtils;
 import org.bouncycastle.crypto.PBEParametersGenerator;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
+import org.bouncycastle.crypto.generators.PKCS12ParametersGenerator;
 import org.bouncycastle.crypto.generators.SCrypt;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.bouncycastle.crypto.params.HKDFParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.security.AlgorithmParameterGenerator;
 import java.security.AlgorithmParameters;
 import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Base64;
 
 /**
- * Base class for encrypting files with password based encryption algorithms (PBE)
+ * Base class for encrypting files with password based encryption algorithms (PBE).
+ * Salt, IV and KDF parameters are stored in a {@link FileHeader} in front of the encrypted content,
+ * so an encrypted file is decrypted with the password alone. Files without a header are decrypted with the
+ * parameters of their legacy configuration file.
+ * With a {@link PbeSession} the file key is derived from the master key of the session through HKDF.
+ * Keys derived for decryption are kept in a {@link DerivedKeyCache}, so files sharing password and salt
+ * run the KDF only once.
  * Used by {@link controller.PasswordBasedEncryptionController}
  *
  * @author Leo Nobis
@@ -37,8 +59,37 @@ import java.util.Base64;
 @SuppressWarnings("SameParameterValue")
 public class PasswordBasedEncryption implements PasswordBasedEncryptor {
 
+    // SCRYPT cost parameter N used for encryption
+    static final int SCRYPT_COST = 65536;
+    // SCRYPT block size parameter r used for encryption
+    static final int SCRYPT_BLOCK_SIZE = 128;
+    // SCRYPT parallelization parameter p used for encryption
+    static final int SCRYPT_PARALLELIZATION = 1;
+    // Iteration count of PBEWithSHA256And128BitAES-CBC used for encryption
+    static final int SHA256_ITERATIONS = 1000;
+    // Largest iteration count accepted from a header, a few seconds of derivation
+    static final int SHA256_MAX_ITERATIONS = 10_000_000;
+    // Argon2id memory in KiB used for encryption
+    static final int ARGON2_MEMORY = 65536;
+    // Argon2id number of passes over the memory used for encryption
+    static final int ARGON2_ITERATIONS = 3;
+    // Argon2id number of lanes used for encryption
+    static final int ARGON2_LANES = 4;
+    // Largest Argon2id memory in KiB, the same limit as ScryptParameters.MAX_MEMORY
+    static final int ARGON2_MAX_MEMORY = (int) (ScryptParameters.MAX_MEMORY / 1024);
+    // HKDF info of file keys derived from a session master key
+    static final String HKDF_INFO = "FileCrypt AESPBE file key";
+    // Maximum number of keys kept for decryption
+    static final int KEY_CACHE_SIZE = 16;
+    // Time in milliseconds a key is kept for decryption
+    static final long KEY_CACHE_TTL_MILLIS = 5 * 60 * 1000;
+
+    // Keys derived for decryption, shared by all instances
+    private static final DerivedKeyCache derivedKeys = new DerivedKeyCache(KEY_CACHE_SIZE, KEY_CACHE_TTL_MILLIS);
+
     // Used for GUI choiceBox
-    private final KeyDerivationFunction[] supportedKdf = {KeyDerivationFunction.SHA256, KeyDerivationFunction.SCRYPT};
+    private final KeyDerivationFunction[] supportedKdf =
+            {KeyDerivationFunction.SHA256, KeyDerivationFunction.SCRYPT, KeyDerivationFunction.ARGON2ID};
     // Used for GUI choiceBox
     private final PaddingMode[] supportedPaddingModes = PaddingMode.values();
     // Used for GUI choiceBox
@@ -70,8 +121,20 @@ public class PasswordBasedEncryption implements PasswordBasedEncryptor {
     private byte[] iv;
     // Salt used for key generation
     private byte[] salt;
-    // Used to write config files and de/encrypted files
-    private FileWriter fileWriter;
+    // KDF parameters, read from the header on decryption
+    private int scryptCost = SCRYPT_COST;
+    private int scryptBlockSize = SCRYPT_BLOCK_SIZE;
+    private int scryptParallelization = SCRYPT_PARALLELIZATION;
+    private int iterationCount = SHA256_ITERATIONS;
+    private int argon2Memory = ARGON2_MEMORY;
+    private int argon2Iterations = ARGON2_ITERATIONS;
+    private int argon2Lanes = ARGON2_LANES;
+    // Header of the encrypted file, null for legacy files
+    private FileHeader header;
+    // Session the file key is derived from, null to derive it from the password
+    private PbeSession session;
+    // Per-file HKDF salt of a key derived from a session master key, null otherwise
+    private byte[] hkdfSalt;
 
     /**
      * Calculate a derived key using PBKDF2 based on SHA-256 using
@@ -82,7 +145,7 @@ public class PasswordBasedEncryption implements PasswordBasedEncryptor {
      * @param iterationCount the iteration count parameter.
      * @return the derived key.
      */
-    private static byte[] jcePKCS5Scheme2(char[] password, byte[] salt,
+    static byte[] jcePKCS5Scheme2(char[] password, byte[] salt,
                                           int iterationCount)
             throws GeneralSecurityException {
         SecretKeyFactory fact = SecretKeyFactory.getInstance(
@@ -103,7 +166,7 @@ public class PasswordBasedEncryption implements PasswordBasedEncryptor {
      * @param parallelizationParam the parallelization parameter.
      * @return the derived key.
      */
-    private static byte[] bcSCRYPT(char[] password, byte[] salt,
+    static byte[] bcSCRYPT(char[] password, byte[] salt,
                                    int costParameter, int blocksize,
                                    int parallelizationParam) {
         return SCrypt.generate(
@@ -113,36 +176,167 @@ public class PasswordBasedEncryption implements PasswordBasedEncryptor {
     }
 
     /**
-     * Create a configuration json file containing information about the used encryption parameters as well as the key.
-     * This file can later be used for decryption.
-     * Caution: Do not share this file!
+     * Calculate a derived key using Argon2id using the BC low-level API.
+     *
+     * @param password   the password input.
+     * @param salt       the salt parameter.
+     * @param memory     the memory parameter in KiB.
+     * @param iterations the number of passes over the memory.
+     * @param lanes      the number of lanes the memory is split into.
+     * @return the derived key.
      */
-    @SuppressWarnings("unchecked") //The json-simple library is compiled with an old bytecode version: 46.0
-    private void createConfigFile() {
-        JSONObject config = new JSONObject();
+    static byte[] bcARGON2ID(char[] password, byte[] salt, int memory, int iterations, int lanes) {
+        Argon2BytesGenerator generator = new Argon2BytesGenerator();
+        generator.init(new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+                .withVersion(Argon2Parameters.ARGON2_VERSION_13)
+                .withSalt(salt)
+                .withMemoryAsKB(memory)
+                .withIterations(iterations)
+                .withParallelism(lanes)
+                .build());
+        byte[] key = new byte[256 / 8];
+        generator.generateBytes(password, key);
+        return key;
+    }
 
-        config.put("algorithm", "AES");
-        config.put("paddingMode", selectedPaddingMode.toString());
-        config.put("blockMode", selectedBlockMode.toString());
-        config.put("keyLength", selectedKeyLength.toString());
-        config.put("salt", Base64.getEncoder().encodeToString(salt));
-        if (this.iv != null) {
-            config.put("iv", Base64.getEncoder().encodeToString(iv));
+    /**
+     * Calculate key and IV of PBEWithSHA256And128BitAES-CBC-BC using the PKCS#12 scheme
+     * of the BC low-level API, the same derivation the BC PBE cipher runs for its PBE key.
+     *
+     * @param password       the password input.
+     * @param salt           the salt parameter.
+     * @param iterationCount the iteration count parameter.
+     * @return the 128 bit key followed by the 128 bit IV.
+     */
+    static byte[] bcPKCS12SHA256(char[] password, byte[] salt, int iterationCount) {
+        byte[] passwordBytes = PBEParametersGenerator.PKCS12PasswordToBytes(password);
+        PKCS12ParametersGenerator generator = new PKCS12ParametersGenerator(new SHA256Digest());
+        generator.init(passwordBytes, salt, iterationCount);
+        ParametersWithIV parameters = (ParametersWithIV) generator.generateDerivedParameters(128, 128);
+        Arrays.fill(passwordBytes, (byte) 0);
+
+        byte[] key = ((KeyParameter) parameters.getParameters()).getKey();
+        byte[] keyAndIv = Arrays.copyOf(key, key.length + parameters.getIV().length);
+        System.arraycopy(parameters.getIV(), 0, keyAndIv, key.length, parameters.getIV().length);
+        Arrays.fill(key, (byte) 0);
+        return keyAndIv;
+    }
+
+    /**
+     * Clear all keys kept for decryption, e.g. when the user is done with a set of files
+     */
+    public static void clearKeyCache() {
+        derivedKeys.clear();
+    }
+
+    /**
+     * Derive a 256 bit key from a password. Memory-hard KDFs wait in the {@link KdfScheduler}
+     * until their memory fits into the budget
+     *
+     * @param password   the password input
+     * @param kdf        SCRYPT, ARGON2ID or SHA256 for PBKDF2 based on SHA-256
+     * @param salt       the salt parameter
+     * @param parameters N, r and p for SCRYPT, memory, iterations and lanes for ARGON2ID,
+     *                   the iteration count for SHA256
+     * @return the derived key
+     * @throws GeneralSecurityException when the KDF is not available
+     */
+    static byte[] deriveKey(char[] password, KeyDerivationFunction kdf, byte[] salt, int[] parameters)
+            throws GeneralSecurityException {
+        if (kdf == KeyDerivationFunction.SCRYPT) {
+            return KdfScheduler.derive(getKdfMemory(kdf, parameters),
+                    () -> bcSCRYPT(password, salt, parameters[0], parameters[1], parameters[2]));
+        }
+        if (kdf == KeyDerivationFunction.ARGON2ID) {
+            return KdfScheduler.derive(getKdfMemory(kdf, parameters),
+                    () -> bcARGON2ID(password, salt, parameters[0], parameters[1], parameters[2]));
         }
+        return jcePKCS5Scheme2(password, salt, parameters[0]);
+    }
 
-        try {
-            fileWriter = new FileWriter(selectedFile.getAbsolutePath() + ".json");
-            fileWriter.write(config.toJSONString());
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                fileWriter.flush();
-                fileWriter.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    /**
+     * Return the memory one derivation needs
+     *
+     * @param kdf        the KDF
+     * @param parameters parameters of the KDF, see {@link #deriveKey(char[], KeyDerivationFunction, byte[], int[])}
+     * @return 128 * N * r bytes for SCRYPT, the memory parameter for ARGON2ID, 0 for SHA256
+     */
+    static long getKdfMemory(KeyDerivationFunction kdf, int[] parameters) {
+        if (kdf == KeyDerivationFunction.SCRYPT) {
+            return ScryptParameters.getMemory(parameters[0], parameters[1]);
+        }
+        if (kdf == KeyDerivationFunction.ARGON2ID) {
+            return 1024L * parameters[0];
+        }
+        return 0;
+    }
+
+    /**
+     * Derive the key of a single file from a master key using HKDF with SHA-256
+     *
+     * @param masterKey master key of the session
+     * @param hkdfSalt  random per-file salt
+     * @param info      context information bound to the key
+     * @return AES key of the file
+     */
+    private SecretKey deriveFileKey(byte[] masterKey, byte[] hkdfSalt, byte[] info) {
+        HKDFBytesGenerator generator = new HKDFBytesGenerator(new SHA256Digest());
+        generator.init(new HKDFParameters(masterKey, hkdfSalt, info));
+        byte[] key = new byte[selectedKeyLength / 8];
+        generator.generateBytes(key, 0, key.length);
+        return new SecretKeySpec(key, "AES");
+    }
+
+    /**
+     * Return the parameters of the selected KDF
+     *
+     * @return N, r and p for SCRYPT, memory, iterations and lanes for ARGON2ID, the iteration count for SHA256
+     */
+    private int[] getKdfParameters() {
+        if (selectedKdf == KeyDerivationFunction.SCRYPT) {
+            return new int[]{scryptCost, scryptBlockSize, scryptParallelization};
+        }
+        if (selectedKdf == KeyDerivationFunction.ARGON2ID) {
+            return new int[]{argon2Memory, argon2Iterations, argon2Lanes};
         }
+        return new int[]{iterationCount};
+    }
+
+    /**
+     * Create the header of the encrypted file containing information about the used encryption parameters,
+     * the salt and the KDF parameters. The password is needed in addition for decryption.
+     *
+     * @param provider provider of the encryption cipher
+     * @return header holding all parameters needed for decryption
+     */
+    private FileHeader createHeader(Provider provider) {
+        FileHeader header = new FileHeader()
+                .put(HeaderField.ALGORITHM, toString())
+                .put(HeaderField.BLOCK_MODE, selectedBlockMode.toString())
+                .put(HeaderField.PADDING_MODE, selectedPaddingMode.toString())
+                .put(HeaderField.KEY_LENGTH, selectedKeyLength)
+                .put(HeaderField.KDF, selectedKdf.toString())
+                .put(HeaderField.SALT, salt)
+                .put(HeaderField.PROVIDER, provider.getName());
+        if (selectedKdf == KeyDerivationFunction.SCRYPT) {
+            header.put(HeaderField.SCRYPT_COST, scryptCost)
+                    .put(HeaderField.SCRYPT_BLOCK_SIZE, scryptBlockSize)
+                    .put(HeaderField.SCRYPT_PARALLELIZATION, scryptParallelization);
+        } else if (selectedKdf == KeyDerivationFunction.ARGON2ID) {
+            header.put(HeaderField.ARGON2_MEMORY, argon2Memory)
+                    .put(HeaderField.ARGON2_ITERATIONS, argon2Iterations)
+                    .put(HeaderField.ARGON2_LANES, argon2Lanes);
+        } else {
+            header.put(HeaderField.ITERATIONS, iterationCount);
+        }
+        if (hkdfSalt != null) {
+            header.put(HeaderField.HKDF_SALT, hkdfSalt)
+                    .put(HeaderField.HKDF_INFO, HKDF_INFO);
+        }
+        if (this.iv != null) {
+            header.put(HeaderField.IV, iv);
+        }
+        return header;
     }
 
     /**
@@ -152,13 +346,8 @@ public class PasswordBasedEncryption implements PasswordBasedEncryptor {
      * @throws Exception when file operations go wrong, exceptions are handled in the controller class
      */
     public void decrypt() throws Exception {
-        readConfigFile();
-
-        if (selectedKdf == KeyDerivationFunction.SCRYPT) {
-            secretKey = generateSecretKeySCRYPT();
-        } else if (selectedKdf == KeyDerivationFunction.SHA256) {
-            secretKey = generateSecretKeySHA256();
-        }
+        readFileParameters();
+        Cipher cipher = initDecryption();
 
         String fileString = selectedFile.getAbsolutePath().replace(".encrypted", "");
 
@@ -166,30 +355,111 @@ public class PasswordBasedEncryption implements PasswordBasedEncryptor {
         String fileBase = FilenameUtils.getBaseName(fileString);
         String fileExtension = FilenameUtils.getExtension(fileString);
 
-        byte[] inputBytes = Files.readAllBytes(selectedFile.toPath());
-        byte[] outputBytes = decrypt(inputBytes);
         File outputFile = new File(filePath + fileBase + "_decrypted." + fileExtension);
-        Files.write(outputFile.toPath(), outputBytes);
+        MappedFileIO.process(cipher, selectedFile, header == null ? 0 : header.getLength(), outputFile, new byte[0]);
     }
 
     /**
-     * Byte level decryption of a given input using parameters set in the init() function
+     * Check the authentication tag of the selected file without writing the plaintext
+     * init() method has to be called first
      *
-     * @param input byte representation of the input file
-     * @return decrypted file as byte array
+     * @return true if the file is intact and the password is correct, false if the authentication failed
+     * @throws Exception when file operations go wrong or the block mode is not authenticated,
+     *                   exceptions are handled in the controller class
+     */
+    public boolean verify() throws Exception {
+        // checked before the key derivation, a file that cannot be verified must not cost a KDF run
+        readFileParameters();
+        if (selectedBlockMode != BlockMode.GCM) {
+            throw new IllegalArgumentException("Only GCM files can be verified, not " + selectedBlockMode);
+        }
+        Cipher cipher = initDecryption();
+        try {
+            MappedFileIO.verify(cipher, selectedFile, header == null ? 0 : header.getLength());
+            return true;
+        } catch (AEADBadTagException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read the parameters of the selected file from its header or, for legacy files, its configuration file
+     *
+     * @throws IOException when the file cannot be read
+     */
+    private void readFileParameters() throws IOException {
+        header = FileHeader.read(selectedFile);
+        if (header != null) {
+            readHeader();
+        } else {
+            readConfigFile();
+        }
+    }
+
+    /**
+     * Derive the key of the selected file and create the decryption cipher
+     * readFileParameters() has to be called first
+     *
+     * @return cipher initialised for decryption
      * @throws Exception when file operations go wrong, exceptions are handled in the controller class
      */
-    private byte[] decrypt(byte[] input) throws Exception {
-        Cipher cipher = Cipher.getInstance(transformationString, "BC");
+    private Cipher initDecryption() throws Exception {
+        char[] passwordChars = password.toCharArray();
+        int[] parameters = getKdfParameters();
+        if (hkdfSalt != null) {
+            byte[] info = header.getBytes(HeaderField.HKDF_INFO);
+            if (session != null) {
+                secretKey = deriveFileKey(session.getMasterKey(selectedKdf, salt, parameters), hkdfSalt, info);
+            } else {
+                byte[] masterKey = derivedKeys.computeIfAbsent(selectedKdf.toString(), passwordChars, salt, parameters,
+                        () -> deriveKey(passwordChars, selectedKdf, salt, parameters));
+                secretKey = deriveFileKey(masterKey, hkdfSalt, info);
+                Arrays.fill(masterKey, (byte) 0);
+            }
+        } else if (selectedKdf == KeyDerivationFunction.SCRYPT) {
+            byte[] key = derivedKeys.computeIfAbsent("SCRYPT-AES", passwordChars, salt, parameters,
+                    () -> deriveKey(passwordChars, selectedKdf, salt, parameters));
+            secretKey = new SecretKeySpec(key, "AES");
+            Arrays.fill(key, (byte) 0);
+        } else if (selectedKdf == KeyDerivationFunction.ARGON2ID) {
+            byte[] key = derivedKeys.computeIfAbsent("ARGON2ID-AES", passwordChars, salt, parameters,
+                    () -> deriveKey(passwordChars, selectedKdf, salt, parameters));
+            secretKey = new SecretKeySpec(key, "AES");
+            Arrays.fill(key, (byte) 0);
+        } else if (selectedKdf == KeyDerivationFunction.SHA256) {
+            // key and IV of the BC PBE cipher, derived without it so they can be cached
+            byte[] keyAndIv = derivedKeys.computeIfAbsent("PBEWithSHA256And128BitAES-CBC", passwordChars, salt,
+                    parameters, () -> bcPKCS12SHA256(passwordChars, salt, iterationCount));
+            secretKey = new SecretKeySpec(keyAndIv, 0, 16, "AES");
+            iv = Arrays.copyOfRange(keyAndIv, 16, keyAndIv.length);
+            Arrays.fill(keyAndIv, (byte) 0);
+        }
+        Arrays.fill(passwordChars, '\0');
+
+        return initDecryptionCipher();
+    }
+
+    /**
+     * Create a cipher for decryption using the derived key and the parameters read from the header
+     * or the legacy configuration file
+     *
+     * @return cipher initialised for decryption
+     * @throws Exception when file operations go wrong, exceptions are handled in the controller class
+     */
+    private Cipher initDecryptionCipher() throws Exception {
+        Cipher cipher = EnginePool.getDecryptionCipher(transformationString);
 
         if (selectedBlockMode == BlockMode.GCM) {
             GCMParameterSpec spec = new GCMParameterSpec(128, iv);
             cipher.init(Cipher.DECRYPT_MODE, secretKey, spec);
         } else if (selectedBlockMode == BlockMode.CBC) {
-            cipher.init(Cipher.DECRYPT_MODE, secretKey);
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(iv));
         }
 
-        return cipher.doFinal(input);
+        if (header != null && selectedBlockMode == BlockMode.GCM) {
+            cipher.updateAAD(header.toByteArray());
+        }
+        return cipher;
     }
 
     /**
@@ -198,38 +468,48 @@ public class PasswordBasedEncryption implements PasswordBasedEncryptor {
      * @throws Exception when file operations go wrong, exceptions are handled in the controller class
      */
     public void encrypt() throws Exception {
-        byte[] inputBytes = Files.readAllBytes(selectedFile.toPath());
-        byte[] outputBytes = encrypt(inputBytes);
+        Cipher cipher = initEncryptionCipher();
         File outputFile = new File(selectedFile.getAbsolutePath() + ".encrypted");
-        Files.write(outputFile.toPath(), outputBytes);
+        MappedFileIO.process(cipher, selectedFile, 0, outputFile, header.toByteArray());
     }
 
     /**
-     * Byte level encryption of a given input using parameters set in the init() function
+     * Derive the key from the password and create a cipher for encryption using parameters set in the init() function.
+     * Also creates the header needed for decryption
      *
-     * @param input byte representation of the input file
-     * @return encrypted file as byte array
+     * @return cipher initialised for encryption
      * @throws Exception when file operations go wrong, exceptions are handled in the controller class
      */
-    private byte[] encrypt(byte[] input) throws Exception {
-        Cipher cipher = Cipher.getInstance(transformationString, "BC");
+    private Cipher initEncryptionCipher() throws Exception {
+        Cipher cipher = EnginePool.getCipher(transformationString);
         salt = SaltGenerator.getNextSalt();
+        iv = null;
+        hkdfSalt = null;
 
         // KDF CHECK
-        if (selectedKdf == KeyDerivationFunction.SCRYPT) {
-            byte[] key = bcSCRYPT(password.toCharArray(), salt, 65536, 128, 1);
-            secretKey = new SecretKeySpec(key, 0, key.length, "AES");
-            cipher = Cipher.getInstance(transformationString, "BC");
+        if (session != null) {
+            selectedKdf = session.getKdf();
+            salt = session.getSalt();
+            hkdfSalt = SaltGenerator.getNextSalt();
+            byte[] masterKey = session.getMasterKey(selectedKdf, salt, getKdfParameters());
+            secretKey = deriveFileKey(masterKey, hkdfSalt, HKDF_INFO.getBytes(StandardCharsets.UTF_8));
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+        } else if (selectedKdf == KeyDerivationFunction.SCRYPT) {
+            secretKey = generateSecretKeySCRYPT();
+            cipher = EnginePool.getCipher(transformationString);
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+        } else if (selectedKdf == KeyDerivationFunction.ARGON2ID) {
+            secretKey = generateSecretKeyARGON2ID();
             cipher.init(Cipher.ENCRYPT_MODE, secretKey);
         } else if (selectedKdf == KeyDerivationFunction.SHA256) {
             secretKey = generateSecretKeySHA256();
-            cipher = Cipher.getInstance("PBEWithSHA256And128BitAES-CBC-BC", "BC");
+            cipher = EnginePool.getCipher("PBEWithSHA256And128BitAES-CBC-BC");
             cipher.init(Cipher.ENCRYPT_MODE, secretKey);
         }
 
         // BLOCK MODE CHECK
         if (selectedBlockMode == BlockMode.GCM) {
-            AlgorithmParameterGenerator parameterGenerator = AlgorithmParameterGenerator.getInstance("GCM", "BC");
+            AlgorithmParameterGenerator parameterGenerator = EnginePool.getAlgorithmParameterGenerator("GCM");
             AlgorithmParameters pGCM = parameterGenerator.generateParameters();
             GCMParameterSpec gcmParameterSpec = pGCM.getParameterSpec(GCMParameterSpec.class);
             this.iv = gcmParameterSpec.getIV();
@@ -238,18 +518,34 @@ public class PasswordBasedEncryption implements PasswordBasedEncryptor {
             this.iv = cipher.getIV();
         }
 
-        createConfigFile();
+        header = createHeader(cipher.getProvider());
+        if (selectedBlockMode == BlockMode.GCM) {
+            // the header is authenticated together with the encrypted content
+            cipher.updateAAD(header.toByteArray());
+        }
 
-        return cipher.doFinal(input);
+        return cipher;
     }
 
     /**
      * Generate a SecretKey for SCRYPT generated with the entered password and a salt value
      *
      * @return SecretKey for SCRYPT
+     * @throws GeneralSecurityException when the derivation fails
      */
-    private SecretKey generateSecretKeySCRYPT() {
-        byte[] key = bcSCRYPT(password.toCharArray(), salt, 65536, 128, 1);
+    private SecretKey generateSecretKeySCRYPT() throws GeneralSecurityException {
+        byte[] key = deriveKey(password.toCharArray(), KeyDerivationFunction.SCRYPT, salt, getKdfParameters());
+        return new SecretKeySpec(key, 0, key.length, "AES");
+    }
+
+    /**
+     * Generate a SecretKey for Argon2id generated with the entered password and a salt value
+     *
+     * @return SecretKey for Argon2id
+     * @throws GeneralSecurityException when the derivation fails
+     */
+    private SecretKey generateSecretKeyARGON2ID() throws GeneralSecurityException {
+        byte[] key = deriveKey(password.toCharArray(), KeyDerivationFunction.ARGON2ID, salt, getKdfParameters());
         return new SecretKeySpec(key, 0, key.length, "AES");
     }
 
@@ -260,7 +556,7 @@ public class PasswordBasedEncryption implements PasswordBasedEncryptor {
      * @throws Exception when file operations go wrong, exceptions are handled in the controller class
      */
     private SecretKey generateSecretKeySHA256() throws Exception {
-        PBEKeySpec pbeKeySpec = new PBEKeySpec(password.toCharArray(), salt, 1000, 256);
+        PBEKeySpec pbeKeySpec = new PBEKeySpec(password.toCharArray(), salt, iterationCount, 256);
         SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance("PBEWithSHA256And128BitAES-CBC-BC");
         return secretKeyFactory.generateSecret(pbeKeySpec);
     }
@@ -328,7 +624,7 @@ public class PasswordBasedEncryption implements PasswordBasedEncryptor {
      * @param selectedKdf         used for en/decryption
      * @param selectedKeyLength   used for en/decryption
      * @param selectedFile        used for en/decryption
-     * @param configurationFile   used for en/decryption
+     * @param configurationFile   only needed to decrypt legacy files without header, may be null
      * @param password            used for en/decryption
      */
     @Override
@@ -349,12 +645,88 @@ public class PasswordBasedEncryption implements PasswordBasedEncryptor {
         this.password = password;
 
         this.transformationString = generateTransformationString();
+        this.scryptCost = SCRYPT_COST;
+        this.scryptBlockSize = SCRYPT_BLOCK_SIZE;
+        this.scryptParallelization = SCRYPT_PARALLELIZATION;
+        this.iterationCount = SHA256_ITERATIONS;
+        this.argon2Memory = ARGON2_MEMORY;
+        this.argon2Iterations = ARGON2_ITERATIONS;
+        this.argon2Lanes = ARGON2_LANES;
+    }
+
+    /**
+     * Set the scrypt parameters of the following encryption, has to be called after init().
+     * Decryption reads the parameters from the header
+     *
+     * @param parameters e.g. the result of {@link ScryptParameters#calibrate(long, long)}
+     */
+    public void setScryptParameters(ScryptParameters parameters) {
+        this.scryptCost = parameters.getCost();
+        this.scryptBlockSize = parameters.getBlockSize();
+        this.scryptParallelization = parameters.getParallelization();
+    }
+
+    /**
+     * Set the Argon2id parameters of the following encryption, has to be called after init().
+     * Decryption reads the parameters from the header
+     *
+     * @param memory     memory in KiB, at least 8 KiB per lane and at most ARGON2_MAX_MEMORY
+     * @param iterations number of passes over the memory, at least 1
+     * @param lanes      number of lanes the memory is split into, at least 1
+     * @throws IllegalArgumentException when a parameter is out of range
+     */
+    public void setArgon2Parameters(int memory, int iterations, int lanes) {
+        if (iterations < 1 || lanes < 1 || lanes > 0xFFFFFF || memory < 8 * lanes || memory > ARGON2_MAX_MEMORY) {
+            throw new IllegalArgumentException("Invalid Argon2id parameters: memory=" + memory
+                    + " iterations=" + iterations + " lanes=" + lanes);
+        }
+        this.argon2Memory = memory;
+        this.argon2Iterations = iterations;
+        this.argon2Lanes = lanes;
+    }
+
+    /**
+     * Read de/encryption parameters, salt and KDF parameters from the header of the encrypted file.
+     * The KDF recorded in the header replaces the one passed to init()
+     *
+     * @throws IOException              when the header is incomplete or belongs to another encryptor
+     * @throws IllegalArgumentException when the KDF parameters of the header are out of range
+     */
+    private void readHeader() throws IOException {
+        header.checkAlgorithm(toString());
+        this.selectedPaddingMode = PaddingMode.valueOf(header.getString(HeaderField.PADDING_MODE));
+        this.selectedBlockMode = BlockMode.valueOf(header.getString(HeaderField.BLOCK_MODE));
+        this.selectedKeyLength = header.getInt(HeaderField.KEY_LENGTH);
+        this.selectedKdf = KeyDerivationFunction.valueOf(header.getString(HeaderField.KDF));
+        this.transformationString = generateTransformationString();
+        this.salt = header.getBytes(HeaderField.SALT);
+        this.iv = header.contains(HeaderField.IV) ? header.getBytes(HeaderField.IV) : null;
+        this.hkdfSalt = header.contains(HeaderField.HKDF_SALT) ? header.getBytes(HeaderField.HKDF_SALT) : null;
+        if (selectedKdf == KeyDerivationFunction.SCRYPT) {
+            // validated before the derivation allocates 128 * N * r bytes
+            setScryptParameters(new ScryptParameters(header.getInt(HeaderField.SCRYPT_COST),
+                    header.getInt(HeaderField.SCRYPT_BLOCK_SIZE), header.getInt(HeaderField.SCRYPT_PARALLELIZATION)));
+        } else if (selectedKdf == KeyDerivationFunction.ARGON2ID) {
+            setArgon2Parameters(header.getInt(HeaderField.ARGON2_MEMORY), header.getInt(HeaderField.ARGON2_ITERATIONS),
+                    header.getInt(HeaderField.ARGON2_LANES));
+        } else {
+            int iterations = header.getInt(HeaderField.ITERATIONS);
+            if (iterations < 1 || iterations > SHA256_MAX_ITERATIONS) {
+                throw new IllegalArgumentException("Iteration count must be between 1 and " + SHA256_MAX_ITERATIONS
+                        + ": " + iterations);
+            }
+            this.iterationCount = iterations;
+        }
     }
 
     /**
-     * Read de/encryption parameters from the configuration file
+     * Read de/encryption parameters from the configuration file of a legacy file without header
      */
     private void readConfigFile() {
+        this.hkdfSalt = null;
+        if (configurationFile == null) {
+            throw new IllegalArgumentException("File has no header, the configuration file is needed for decryption");
+        }
         try {
             FileReader fileReader = new FileReader(configurationFile.getAbsolutePath());
             JSONParser jsonParser = new JSONParser();
@@ -363,6 +735,7 @@ public class PasswordBasedEncryption implements PasswordBasedEncryptor {
             this.selectedPaddingMode = PaddingMode.valueOf(jsonObject.get("paddingMode").toString());
             this.selectedBlockMode = BlockMode.valueOf(jsonObject.get("blockMode").toString());
             this.selectedKeyLength = Integer.valueOf(jsonObject.get("keyLength").toString());
+            this.transformationString = generateTransformationString();
             this.salt = Base64.getDecoder().decode(jsonObject.get("salt").toString());
             if (jsonObject.get("iv") != null) {
                 this.iv = Base64.getDecoder().decode(jsonObject.get("iv").toString());
@@ -372,6 +745,16 @@ public class PasswordBasedEncryption implements PasswordBasedEncryptor {
         }
     }
 
+    /**
+     * Set a session for all following en/decryptions. The file keys are derived from the master key of the session,
+     * the password and KDF of init() are replaced by the ones of the session for encryption
+     *
+     * @param session session shared by all files of a batch, null to derive every key from the password
+     */
+    public void setSession(PbeSession session) {
+        this.session = session;
+    }
+
     /**
      * Return a name for the GUI
      *
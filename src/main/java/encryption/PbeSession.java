@@ -0,0 +1,153 @@
+package encryption;
+
+import encryption.enums.KeyDerivationFunction;
+import encryption.util.SaltGenerator;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Password based encryption session for many files with one password.
+ * The expensive KDF derives a master key from the password and the session salt only once, every file then gets
+ * its own key from the master key through HKDF with a random per-file salt. The per-file salt and HKDF info are
+ * stored in the {@link FileHeader}, so every file can also be decrypted on its own with the password.
+ * Set on {@link PasswordBasedEncryption#setSession(PbeSession)}, can be shared by concurrent encryptors.
+ * Close the session to clear the master keys.
+ *
+ * @author Leo Nobis
+ */
+public class PbeSession implements AutoCloseable {
+
+    // password all master keys are derived from
+    private final char[] password;
+    // KDF used for encryption
+    private final KeyDerivationFunction kdf;
+    // salt of the master key used for encryption
+    private final byte[] salt = SaltGenerator.getNextSalt();
+    // master keys derived or being derived in this session, keyed by KDF, salt and KDF parameters
+    private final Map<String, CompletableFuture<byte[]>> masterKeys = new HashMap<>();
+    // true after close(), guarded by this
+    private boolean closed;
+
+    /**
+     * Create a session, the master key is derived on first use
+     *
+     * @param password password all files are encrypted with
+     * @param kdf      KDF the master key is derived with
+     */
+    public PbeSession(String password, KeyDerivationFunction kdf) {
+        this.password = password.toCharArray();
+        this.kdf = kdf;
+    }
+
+    /**
+     * Return the master key for a salt and KDF parameters, deriving it only the first time.
+     * Concurrent callers wait for a running derivation instead of starting their own
+     *
+     * @param kdf        KDF the master key is derived with
+     * @param salt       salt of the master key
+     * @param parameters KDF parameters, see {@link PasswordBasedEncryption}
+     * @return master key, must not be modified
+     * @throws GeneralSecurityException when the KDF is not available
+     */
+    byte[] getMasterKey(KeyDerivationFunction kdf, byte[] salt, int[] parameters)
+            throws GeneralSecurityException {
+        String cacheKey = kdf + ":" + Base64.getEncoder().encodeToString(salt) + ":" + Arrays.toString(parameters);
+        CompletableFuture<byte[]> masterKey;
+        boolean derive = false;
+        // only the lookup runs under the lock, derivations of other keys are not blocked by a running KDF
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Session is closed");
+            }
+            masterKey = masterKeys.get(cacheKey);
+            if (masterKey == null) {
+                masterKey = new CompletableFuture<>();
+                masterKeys.put(cacheKey, masterKey);
+                derive = true;
+            }
+        }
+        if (derive) {
+            derive(cacheKey, masterKey, kdf, salt, parameters);
+        }
+        try {
+            return masterKey.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the master key", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * Derive a master key and complete the future waiting callers share.
+     * A failed derivation is removed so that the next caller tries again
+     *
+     * @param cacheKey   key of the master key in the session
+     * @param masterKey  future completed with the master key
+     * @param kdf        KDF the master key is derived with
+     * @param salt       salt of the master key
+     * @param parameters KDF parameters, see {@link PasswordBasedEncryption}
+     */
+    private void derive(String cacheKey, CompletableFuture<byte[]> masterKey, KeyDerivationFunction kdf,
+                        byte[] salt, int[] parameters) {
+        byte[] key;
+        try {
+            key = PasswordBasedEncryption.deriveKey(password, kdf, salt, parameters);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            synchronized (this) {
+                masterKeys.remove(cacheKey, masterKey);
+            }
+            masterKey.completeExceptionally(e);
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                // the session was closed during the derivation, the key must not outlive it
+                Arrays.fill(key, (byte) 0);
+                masterKey.completeExceptionally(new IllegalStateException("Session is closed"));
+            } else {
+                masterKey.complete(key);
+            }
+        }
+    }
+
+    /**
+     * Getter method for the KDF used for encryption
+     *
+     * @return KDF of the session
+     */
+    public KeyDerivationFunction getKdf() {
+        return kdf;
+    }
+
+    /**
+     * Getter method for the salt of the master key used for encryption
+     *
+     * @return salt stored in the header of every file encrypted in this session
+     */
+    byte[] getSalt() {
+        return salt.clone();
+    }
+
+    /**
+     * Overwrite the password and all master keys
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        Arrays.fill(password, '\0');
+        // derivations still running see the closed flag and clear their own key
+        masterKeys.values().forEach(masterKey -> masterKey.thenAccept(key -> Arrays.fill(key, (byte) 0)));
+        masterKeys.clear();
+    }
+}
@@ -0,0 +1,153 @@
+package encryption;
+
+/**
+ * Cost parameters of the scrypt KDF: CPU/memory cost N, block size r and parallelization p.
+ * One derivation needs 128 * N * r bytes of memory and takes time proportional to N * r * p.
+ * The parameters used for encryption are stored in the {@link FileHeader}, decryption reads them from there.
+ * {@link #calibrate(long, long)} picks the strongest parameters that fit a time and memory budget on this host.
+ *
+ * @author Leo Nobis
+ */
+public class ScryptParameters {
+
+    // Parameters used if none are set: about 1 GB of memory per derivation
+    public static final ScryptParameters DEFAULT = new ScryptParameters(PasswordBasedEncryption.SCRYPT_COST,
+            PasswordBasedEncryption.SCRYPT_BLOCK_SIZE, PasswordBasedEncryption.SCRYPT_PARALLELIZATION);
+    // Block size used by calibrate(), the value recommended for scrypt
+    static final int CALIBRATION_BLOCK_SIZE = 8;
+    // Cost parameter of the measured derivation, 16 MB with the calibration block size
+    private static final int CALIBRATION_COST = 1 << 14;
+    // Smallest cost parameter calibrate() returns
+    private static final int MIN_COST = 1 << 10;
+    // Largest memory of one derivation, 128 * N * r must fit the int sizes of the BC implementation
+    static final long MAX_MEMORY = Integer.MAX_VALUE;
+
+    // CPU/memory cost N, a power of 2
+    private final int cost;
+    // block size r
+    private final int blockSize;
+    // parallelization p
+    private final int parallelization;
+
+    /**
+     * Create scrypt parameters
+     *
+     * @param cost            CPU/memory cost N, a power of 2 greater than 1
+     * @param blockSize       block size r, at least 1
+     * @param parallelization parallelization p, at least 1
+     * @throws IllegalArgumentException when a parameter is out of range or 128 * N * r exceeds MAX_MEMORY
+     */
+    public ScryptParameters(int cost, int blockSize, int parallelization) {
+        if (cost < 2 || Integer.bitCount(cost) != 1) {
+            throw new IllegalArgumentException("scrypt cost must be a power of 2 greater than 1: " + cost);
+        }
+        if (blockSize < 1 || parallelization < 1 || (long) blockSize * parallelization >= 1 << 30) {
+            throw new IllegalArgumentException("Invalid scrypt block size " + blockSize
+                    + " or parallelization " + parallelization);
+        }
+        if ((long) cost * blockSize > MAX_MEMORY / 128) {
+            throw new IllegalArgumentException("scrypt cost " + cost + " and block size " + blockSize
+                    + " need more than " + MAX_MEMORY + " bytes");
+        }
+        this.cost = cost;
+        this.blockSize = blockSize;
+        this.parallelization = parallelization;
+    }
+
+    /**
+     * Measure the speed of scrypt on this host and return the largest parameters within the budget.
+     * N is raised as far as time and memory allow, time left over is spent on a higher p,
+     * which costs time but no additional memory
+     *
+     * @param targetMillis time one derivation may take
+     * @param maxMemory    memory in bytes one derivation may use
+     * @return parameters with block size 8
+     */
+    public static ScryptParameters calibrate(long targetMillis, long maxMemory) {
+        if (targetMillis < 1 || maxMemory < getMemory(MIN_COST, CALIBRATION_BLOCK_SIZE)) {
+            throw new IllegalArgumentException("scrypt needs at least "
+                    + getMemory(MIN_COST, CALIBRATION_BLOCK_SIZE) + " bytes and 1 ms");
+        }
+        // warm up, so the measurement is not dominated by the interpreter
+        measure(MIN_COST);
+        double millisPerCost = Math.min(measure(CALIBRATION_COST), measure(CALIBRATION_COST)) / CALIBRATION_COST;
+
+        int cost = MIN_COST;
+        while (cost < 1 << 30
+                && getMemory(cost * 2, CALIBRATION_BLOCK_SIZE) <= Math.min(maxMemory, MAX_MEMORY)
+                && cost * 2 * millisPerCost <= targetMillis) {
+            cost *= 2;
+        }
+        int parallelization = (int) Math.max(1, Math.min(1 << 16, targetMillis / (cost * millisPerCost)));
+        return new ScryptParameters(cost, CALIBRATION_BLOCK_SIZE, parallelization);
+    }
+
+    /**
+     * Run one derivation with the calibration block size
+     *
+     * @param cost cost parameter N
+     * @return elapsed time in milliseconds
+     */
+    private static double measure(int cost) {
+        long start = System.nanoTime();
+        PasswordBasedEncryption.bcSCRYPT("calibration".toCharArray(), new byte[16], cost, CALIBRATION_BLOCK_SIZE, 1);
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    /**
+     * Memory needed by one derivation
+     *
+     * @param cost      cost parameter N
+     * @param blockSize block size r
+     * @return 128 * N * r bytes
+     */
+    static long getMemory(int cost, int blockSize) {
+        return 128L * cost * blockSize;
+    }
+
+    /**
+     * Memory needed by one derivation with these parameters
+     *
+     * @return 128 * N * r bytes
+     */
+    public long getMemory() {
+        return getMemory(cost, blockSize);
+    }
+
+    /**
+     * Getter method for the CPU/memory cost
+     *
+     * @return N
+     */
+    public int getCost() {
+        return cost;
+    }
+
+    /**
+     * Getter method for the block size
+     *
+     * @return r
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Getter method for the parallelization
+     *
+     * @return p
+     */
+    public int getParallelization() {
+        return parallelization;
+    }
+
+    /**
+     * Return the parameters in readable form
+     *
+     * @return e.g. N=131072 r=8 p=1
+     */
+    @Override
+    public String toString() {
+        return "N=" + cost + " r=" + blockSize + " p=" + parallelization;
+    }
+}
@@ -0,0 +1,206 @@
+package encryption;
+
+import encryption.util.CryptoProviders;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+
+/**
+ * Read-only random access to the plaintext of a file encrypted by {@link SegmentedEncryption}.
+ * Only the segment covering the current position is read, authenticated and decrypted,
+ * so the cost of a read does not depend on the size of the file.
+ * The most recently decrypted segment is kept for sequential reads. Not thread safe.
+ * The header in front of the first segment is skipped and authenticated with every segment.
+ *
+ * @author Leo Nobis
+ */
+public class SegmentedDecryptingChannel implements SeekableByteChannel {
+
+    // encrypted file
+    private final FileChannel channel;
+    // key used for decryption
+    private final SecretKey key;
+    // random prefix of every segment nonce
+    private final byte[] noncePrefix;
+    // plaintext size of a segment
+    private final int segmentSize;
+    // encoded header in front of the first segment, empty for legacy files
+    private final byte[] header;
+    // number of segments in the encrypted file
+    private final long segmentCount;
+    // plaintext size of the whole file
+    private final long size;
+    // cipher reused for every segment
+    private final Cipher cipher;
+
+    // current plaintext position
+    private long position = 0;
+    // index of the segment held in segmentBuffer, -1 if none
+    private long bufferedSegment = -1;
+    // plaintext of the buffered segment
+    private final ByteBuffer segmentBuffer;
+    // ciphertext of the segment being decrypted
+    private final ByteBuffer encryptedBuffer;
+
+    /**
+     * Open an encrypted file for random access
+     *
+     * @param encryptedFile path of the encrypted file
+     * @param key           key used for decryption
+     * @param noncePrefix   random prefix of every segment nonce
+     * @param segmentSize   plaintext size of a segment
+     * @param header        encoded header in front of the first segment, empty for legacy files
+     * @throws IOException              when the file cannot be opened
+     * @throws GeneralSecurityException when the file cannot be a segmented file or the cipher is not available
+     */
+    SegmentedDecryptingChannel(Path encryptedFile, SecretKey key, byte[] noncePrefix, int segmentSize, byte[] header)
+            throws IOException, GeneralSecurityException {
+        this.channel = FileChannel.open(encryptedFile, StandardOpenOption.READ);
+        try {
+            this.key = key;
+            this.noncePrefix = noncePrefix;
+            this.segmentSize = segmentSize;
+            this.header = header;
+            this.segmentCount = SegmentedEncryption.getSegmentCount(channel.size() - header.length, segmentSize);
+            this.size = channel.size() - header.length - segmentCount * SegmentedEncryption.TAG_LENGTH;
+            this.cipher = CryptoProviders.getCipher(SegmentedEncryption.TRANSFORMATION);
+        } catch (IOException | GeneralSecurityException e) {
+            channel.close();
+            throw e;
+        }
+        this.segmentBuffer = ByteBuffer.allocate(segmentSize);
+        this.encryptedBuffer = ByteBuffer.allocate(segmentSize + SegmentedEncryption.TAG_LENGTH);
+    }
+
+    /**
+     * Read plaintext from the current position, decrypting the covering segments on demand
+     *
+     * @param dst buffer the plaintext is written to
+     * @return number of bytes read, -1 at the end of the file
+     * @throws IOException when reading fails or a segment does not authenticate
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+        int read = 0;
+        while (dst.hasRemaining() && position < size) {
+            loadSegment(position / segmentSize);
+            int offset = (int) (position % segmentSize);
+            int length = Math.min(dst.remaining(), segmentBuffer.limit() - offset);
+            dst.put(segmentBuffer.array(), offset, length);
+            position += length;
+            read += length;
+        }
+        return read;
+    }
+
+    /**
+     * Read, authenticate and decrypt a segment unless it is already buffered
+     *
+     * @param index index of the segment
+     * @throws IOException when reading fails or the segment does not authenticate
+     */
+    private void loadSegment(long index) throws IOException {
+        if (index == bufferedSegment) {
+            return;
+        }
+        bufferedSegment = -1;
+
+        long encryptedSegmentSize = segmentSize + SegmentedEncryption.TAG_LENGTH;
+        long segmentPosition = header.length + index * encryptedSegmentSize;
+        encryptedBuffer.clear();
+        encryptedBuffer.limit((int) Math.min(encryptedSegmentSize, channel.size() - segmentPosition));
+        while (encryptedBuffer.hasRemaining()) {
+            if (channel.read(encryptedBuffer, segmentPosition + encryptedBuffer.position()) < 0) {
+                throw new IOException("Unexpected end of file in segment " + index);
+            }
+        }
+        encryptedBuffer.flip();
+
+        segmentBuffer.clear();
+        try {
+            byte[] nonce = SegmentedEncryption.segmentNonce(noncePrefix, index, index == segmentCount - 1);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(SegmentedEncryption.TAG_LENGTH * 8, nonce));
+            if (header.length > 0) {
+                cipher.updateAAD(header);
+            }
+            cipher.doFinal(encryptedBuffer, segmentBuffer);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Segment " + index + " failed authentication", e);
+        }
+        segmentBuffer.flip();
+        bufferedSegment = index;
+    }
+
+    /**
+     * The channel is read-only
+     */
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Position must not be negative");
+        }
+        position = newPosition;
+        return this;
+    }
+
+    /**
+     * Plaintext size of the encrypted file
+     *
+     * @return size in bytes
+     */
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    /**
+     * The channel is read-only
+     */
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!channel.isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+}
@@ -0,0 +1,526 @@
+package encryption;
+
+import encryption.enums.BlockMode;
+import encryption.enums.HeaderField;
+import encryption.enums.PaddingMode;
+import encryption.interfaces.ProgressListener;
+import encryption.interfaces.SymmetricalEncryptor;
+import encryption.util.EnginePool;
+import encryption.util.MappedFileIO;
+import encryption.util.SaltGenerator;
+import org.apache.commons.io.FilenameUtils;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base class for encrypting files with AES-GCM in independently authenticated segments (STREAM construction).
+ * The file is split into fixed-size segments, every segment is encrypted with a nonce derived from a random prefix,
+ * the segment index and a flag marking the final segment. Segments are en/decrypted in parallel on a ForkJoinPool
+ * and decryption authenticates segment by segment, so neither direction holds the whole file in memory.
+ * The segment layout is stored in a {@link FileHeader} in front of the first segment and authenticated with every
+ * segment, the key is stored in a separate configuration file.
+ * Encrypted files can also be read at random positions through {@link SegmentedDecryptingChannel}.
+ * Used by {@link controller.SymmetricEncryptionController}
+ *
+ * @author Leo Nobis
+ */
+public class SegmentedEncryption implements SymmetricalEncryptor {
+
+    // Default plaintext size of a segment
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    // GCM authentication tag length in bytes
+    static final int TAG_LENGTH = 16;
+    // Length of the random nonce prefix, followed by a 4 byte segment index and a 1 byte final flag
+    static final int NONCE_PREFIX_LENGTH = 7;
+    // Transformation used for every segment
+    static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    // Used for GUI choiceBox
+    private final PaddingMode[] supportedPaddingModes = {PaddingMode.NoPadding};
+    // Used for GUI choiceBox
+    private final BlockMode[] supportedBlockModes = {BlockMode.GCM};
+    // Used for GUI choiceBox
+    private final Integer[] supportedKeyLengths = {128, 192, 256};
+
+    // File to be encrypted
+    private File selectedFile;
+    // File holding configuration information
+    private File configurationFile;
+    // KeyLength used for encryption
+    private Integer selectedKeyLength;
+    // Plaintext size of a segment
+    private int segmentSize = DEFAULT_SEGMENT_SIZE;
+    // Pool the segments are processed on
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    // generated or loaded SecretKey
+    private SecretKey key;
+    // random prefix of every segment nonce
+    private byte[] noncePrefix;
+    // encoded header in front of the first segment, empty for legacy files
+    private byte[] headerBytes = new byte[0];
+
+    /**
+     * Encrypt a given input file with parameters set in the init() function
+     *
+     * @throws Exception when file operations go wrong, exceptions are handled in the controller class
+     */
+    @Override
+    public void encrypt() throws Exception {
+        key = EnginePool.getKeyGenerator("AES", selectedKeyLength).generateKey();
+        noncePrefix = Arrays.copyOf(SaltGenerator.getNextSalt(), NONCE_PREFIX_LENGTH);
+
+        File outputFile = new File(selectedFile.getAbsolutePath() + ".encrypted");
+        long segmentCount = Math.max(1, (selectedFile.length() + segmentSize - 1) / segmentSize);
+        checkSegmentCount(segmentCount);
+
+        headerBytes = createHeader().toByteArray();
+        createConfigFile();
+        processSegments(Cipher.ENCRYPT_MODE, selectedFile, outputFile, segmentCount);
+    }
+
+    /**
+     * Decrypt selected file with configuration
+     * init() method has to be called first
+     *
+     * @throws Exception when file operations go wrong, exceptions are handled in the controller class
+     *                   AEADBadTagException when a segment has been manipulated, reordered or truncated
+     */
+    @Override
+    public void decrypt() throws Exception {
+        readConfigFile();
+
+        String fileString = selectedFile.getAbsolutePath().replace(".encrypted", "");
+
+        String filePath = FilenameUtils.getFullPath(fileString);
+        String fileBase = FilenameUtils.getBaseName(fileString);
+        String fileExtension = FilenameUtils.getExtension(fileString);
+
+        long segmentCount = getSegmentCount(selectedFile.length() - headerBytes.length, segmentSize);
+        File outputFile = new File(filePath + fileBase + "_decrypted." + fileExtension);
+        processSegments(Cipher.DECRYPT_MODE, selectedFile, outputFile, segmentCount);
+    }
+
+    /**
+     * Authenticate all segments of the selected file in parallel without writing the plaintext
+     * init() method has to be called first
+     *
+     * @return true if every segment is intact, false if a segment failed the authentication
+     * @throws Exception when file operations go wrong, exceptions are handled in the controller class
+     */
+    public boolean verify() throws Exception {
+        readConfigFile();
+
+        long segmentCount = getSegmentCount(selectedFile.length() - headerBytes.length, segmentSize);
+        try {
+            processSegments(Cipher.DECRYPT_MODE, selectedFile, null, segmentCount);
+            return true;
+        } catch (AEADBadTagException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Open the selected file for random access to its plaintext. Only the segments covering a requested range
+     * are read and decrypted.
+     * init() method has to be called first
+     *
+     * @return read-only channel over the plaintext, has to be closed by the caller
+     * @throws Exception when file operations go wrong or the file cannot be a segmented file
+     */
+    public SeekableByteChannel openDecryptingChannel() throws Exception {
+        readConfigFile();
+        return new SegmentedDecryptingChannel(selectedFile.toPath(), key, noncePrefix, segmentSize, headerBytes);
+    }
+
+    /**
+     * En/decrypt all segments of the input file in parallel and write them to their position in the output file.
+     * Encryption writes the header in front of the first segment, decryption skips it.
+     * If a segment fails the incomplete output file is deleted.
+     * Without output file the segments are only authenticated.
+     * The progress listener of the calling thread is called from the pool threads after every segment.
+     *
+     * @param mode         Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+     * @param inputFile    file to be read
+     * @param outputFile   file to be written, null to discard the output
+     * @param segmentCount number of segments in the file
+     * @throws Exception when file operations go wrong, exceptions are handled in the controller class
+     */
+    private void processSegments(int mode, File inputFile, File outputFile, long segmentCount) throws Exception {
+        try (FileChannel input = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+             FileChannel output = outputFile == null ? null : FileChannel.open(outputFile.toPath(),
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            if (mode == Cipher.ENCRYPT_MODE) {
+                ByteBuffer header = ByteBuffer.wrap(headerBytes);
+                while (header.hasRemaining()) {
+                    output.write(header, header.position());
+                }
+            }
+            long inputOffset = mode == Cipher.ENCRYPT_MODE ? 0 : headerBytes.length;
+            Progress progress = new Progress(MappedFileIO.getProgressListener(), input.size() - inputOffset);
+            pool.invoke(new SegmentTask(mode, input, output, 0, segmentCount, segmentCount, progress));
+        } catch (SegmentException e) {
+            deleteOutput(outputFile);
+            throw e.unwrap();
+        } catch (Exception e) {
+            deleteOutput(outputFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Delete an incomplete output file
+     *
+     * @param outputFile file to be deleted, may be null
+     * @throws IOException when the file cannot be deleted
+     */
+    private static void deleteOutput(File outputFile) throws IOException {
+        if (outputFile != null) {
+            Files.deleteIfExists(outputFile.toPath());
+        }
+    }
+
+    /**
+     * En/decrypt a single segment
+     *
+     * @param mode    Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+     * @param input   channel to read the segment from
+     * @param output  channel to write the result to, null to discard it
+     * @param index   index of the segment
+     * @param isFinal true if this is the last segment of the file
+     * @return number of bytes read from the input
+     * @throws Exception when file operations go wrong or the segment does not authenticate
+     */
+    private int processSegment(int mode, FileChannel input, FileChannel output, long index, boolean isFinal)
+            throws Exception {
+        int inputSegmentSize = mode == Cipher.ENCRYPT_MODE ? segmentSize : segmentSize + TAG_LENGTH;
+        int outputSegmentSize = mode == Cipher.ENCRYPT_MODE ? segmentSize + TAG_LENGTH : segmentSize;
+        int inputOffset = mode == Cipher.ENCRYPT_MODE ? 0 : headerBytes.length;
+        int outputOffset = mode == Cipher.ENCRYPT_MODE ? headerBytes.length : 0;
+
+        long position = inputOffset + index * inputSegmentSize;
+        ByteBuffer inputBuffer = ByteBuffer.allocate((int) Math.min(inputSegmentSize, input.size() - position));
+        while (inputBuffer.hasRemaining()) {
+            if (input.read(inputBuffer, position + inputBuffer.position()) < 0) {
+                throw new IOException("Unexpected end of file in segment " + index);
+            }
+        }
+        inputBuffer.flip();
+
+        Cipher cipher = EnginePool.getCipher(TRANSFORMATION);
+        cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, segmentNonce(noncePrefix, index, isFinal)));
+        if (headerBytes.length > 0) {
+            cipher.updateAAD(headerBytes);
+        }
+        ByteBuffer outputBuffer = ByteBuffer.allocate(cipher.getOutputSize(inputBuffer.remaining()));
+        cipher.doFinal(inputBuffer, outputBuffer);
+        outputBuffer.flip();
+        if (output == null) {
+            return inputBuffer.limit();
+        }
+
+        long outputPosition = outputOffset + index * outputSegmentSize;
+        while (outputBuffer.hasRemaining()) {
+            output.write(outputBuffer, outputPosition + outputBuffer.position());
+        }
+        return inputBuffer.limit();
+    }
+
+    /**
+     * Derive the nonce of a segment: nonce prefix, big endian segment index and final flag
+     *
+     * @param noncePrefix random prefix stored in the configuration file
+     * @param index       index of the segment
+     * @param isFinal     true if this is the last segment of the file
+     * @return 12 byte GCM nonce
+     */
+    static byte[] segmentNonce(byte[] noncePrefix, long index, boolean isFinal) {
+        return ByteBuffer.allocate(NONCE_PREFIX_LENGTH + 5)
+                .put(noncePrefix)
+                .putInt((int) index)
+                .put((byte) (isFinal ? 1 : 0))
+                .array();
+    }
+
+    /**
+     * Calculate the number of segments of an encrypted file
+     *
+     * @param encryptedLength length of the encrypted file
+     * @param segmentSize     plaintext size of a segment
+     * @return number of segments
+     * @throws AEADBadTagException when the length cannot belong to a segmented file
+     */
+    static long getSegmentCount(long encryptedLength, int segmentSize) throws AEADBadTagException {
+        long encryptedSegmentSize = segmentSize + TAG_LENGTH;
+        long segmentCount = (encryptedLength + encryptedSegmentSize - 1) / encryptedSegmentSize;
+        if (segmentCount == 0 || encryptedLength - (segmentCount - 1) * encryptedSegmentSize < TAG_LENGTH) {
+            throw new AEADBadTagException("Encrypted file is truncated");
+        }
+        checkSegmentCount(segmentCount);
+        return segmentCount;
+    }
+
+    /**
+     * The segment index is encoded with 4 bytes in the nonce
+     *
+     * @param segmentCount number of segments
+     */
+    private static void checkSegmentCount(long segmentCount) {
+        if (segmentCount > 0xFFFFFFFFL) {
+            throw new IllegalArgumentException("File has too many segments, choose a larger segment size");
+        }
+    }
+
+    /**
+     * Create the header of the encrypted file holding the segment layout
+     *
+     * @return header holding all parameters except the key
+     * @throws Exception when the cipher is not available
+     */
+    private FileHeader createHeader() throws Exception {
+        return new FileHeader()
+                .put(HeaderField.ALGORITHM, toString())
+                .put(HeaderField.BLOCK_MODE, BlockMode.GCM.toString())
+                .put(HeaderField.PADDING_MODE, PaddingMode.NoPadding.toString())
+                .put(HeaderField.KEY_LENGTH, selectedKeyLength)
+                .put(HeaderField.SEGMENT_SIZE, segmentSize)
+                .put(HeaderField.NONCE_PREFIX, noncePrefix)
+                .put(HeaderField.PROVIDER, EnginePool.getCipher(TRANSFORMATION).getProvider().getName());
+    }
+
+    /**
+     * Create a configuration json file containing the key. The segment layout is stored in the header
+     * of the encrypted file. This file is needed for decryption.
+     * Caution: Do not share this file!
+     */
+    @SuppressWarnings("unchecked") //The json-simple library is compiled with an old bytecode version: 46.0
+    private void createConfigFile() throws IOException {
+        JSONObject config = new JSONObject();
+
+        config.put("algorithm", "AES");
+        config.put("keyLength", selectedKeyLength.toString());
+        config.put("key", Base64.getEncoder().encodeToString(key.getEncoded()));
+
+        try (FileWriter fileWriter = new FileWriter(selectedFile.getAbsolutePath() + ".json")) {
+            fileWriter.write(config.toJSONString());
+        }
+    }
+
+    /**
+     * Read the key from the configuration file and the segment layout from the header,
+     * or from the configuration file for legacy files without header
+     */
+    private void readConfigFile() throws IOException, ParseException {
+        FileHeader header = FileHeader.read(selectedFile);
+        try (FileReader fileReader = new FileReader(configurationFile.getAbsolutePath())) {
+            JSONObject jsonObject = (JSONObject) new JSONParser().parse(fileReader);
+
+            byte[] decodedKey = Base64.getDecoder().decode(jsonObject.get("key").toString());
+            this.key = new SecretKeySpec(decodedKey, "AES");
+            this.selectedKeyLength = decodedKey.length * 8;
+            if (header != null) {
+                header.checkAlgorithm(toString());
+                this.segmentSize = header.getInt(HeaderField.SEGMENT_SIZE);
+                this.noncePrefix = header.getBytes(HeaderField.NONCE_PREFIX);
+                this.headerBytes = header.toByteArray();
+            } else {
+                this.segmentSize = Integer.parseInt(jsonObject.get("segmentSize").toString());
+                this.noncePrefix = Base64.getDecoder().decode(jsonObject.get("noncePrefix").toString());
+                this.headerBytes = new byte[0];
+            }
+        }
+    }
+
+    /**
+     * Set the plaintext size of a segment used for encryption. Decryption reads it from the header
+     *
+     * @param segmentSize plaintext bytes per segment
+     */
+    public void setSegmentSize(int segmentSize) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive");
+        }
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Set the pool segments are processed on, the common pool is used by default
+     *
+     * @param pool ForkJoinPool used for en/decryption
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Getter method for supported block modes
+     *
+     * @return supported block modes
+     */
+    @Override
+    public BlockMode[] getSupportedBlockModes() {
+        return supportedBlockModes;
+    }
+
+    /**
+     * Getter method for supported key lengths
+     *
+     * @return supported key lengths
+     */
+    @Override
+    public Integer[] getSupportedKeyLengths() {
+        return supportedKeyLengths;
+    }
+
+    /**
+     * Getter method for supported padding modes
+     *
+     * @return supported padding modes
+     */
+    @Override
+    public PaddingMode[] getSupportedPaddingModes() {
+        return supportedPaddingModes;
+    }
+
+    /**
+     * Has to be called before using encrypt and decrypt
+     * Sets the instance variables of the base class which are used by the en/decrypt functions.
+     * Only GCM without padding is supported, the segment layout is read from the header on decryption
+     *
+     * @param selectedPaddingMode has to be NoPadding
+     * @param selectedBlockMode   has to be GCM
+     * @param selectedKeyLength   used for encryption
+     * @param selectedFile        used for en/decryption
+     * @param configurationFile   used for decryption
+     */
+    @Override
+    public void init(PaddingMode selectedPaddingMode,
+                     BlockMode selectedBlockMode,
+                     Integer selectedKeyLength,
+                     File selectedFile,
+                     File configurationFile) {
+        if (selectedBlockMode != BlockMode.GCM || selectedPaddingMode != PaddingMode.NoPadding) {
+            throw new IllegalArgumentException("Segmented encryption only supports GCM with NoPadding");
+        }
+        this.selectedKeyLength = selectedKeyLength;
+        this.selectedFile = selectedFile;
+        this.configurationFile = configurationFile;
+    }
+
+    /**
+     * Return a name for the GUI
+     *
+     * @return name for the GUI
+     */
+    @Override
+    public String toString() {
+        return "AES-GCM-STREAM";
+    }
+
+    /**
+     * Splits a range of segments until it is small enough to be processed by a single worker
+     */
+    private class SegmentTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int mode;
+        private final FileChannel input;
+        private final FileChannel output;
+        private final long from;
+        private final long to;
+        private final long segmentCount;
+        private final Progress progress;
+
+        SegmentTask(int mode, FileChannel input, FileChannel output, long from, long to, long segmentCount,
+                    Progress progress) {
+            this.mode = mode;
+            this.input = input;
+            this.output = output;
+            this.from = from;
+            this.to = to;
+            this.segmentCount = segmentCount;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                long middle = (from + to) >>> 1;
+                invokeAll(new SegmentTask(mode, input, output, from, middle, segmentCount, progress),
+                        new SegmentTask(mode, input, output, middle, to, segmentCount, progress));
+                return;
+            }
+            try {
+                progress.add(processSegment(mode, input, output, from, from == segmentCount - 1));
+            } catch (Exception e) {
+                throw new SegmentException(e);
+            }
+        }
+    }
+
+    /**
+     * Sums up the bytes processed by all segment tasks and reports them to the progress listener
+     */
+    private static class Progress {
+        private final ProgressListener listener;
+        private final long totalBytes;
+        private final AtomicLong processedBytes = new AtomicLong();
+
+        Progress(ProgressListener listener, long totalBytes) {
+            this.listener = listener;
+            this.totalBytes = totalBytes;
+        }
+
+        void add(long bytes) {
+            long processed = processedBytes.addAndGet(bytes);
+            if (listener != null) {
+                listener.progress(processed, totalBytes);
+            }
+        }
+    }
+
+    /**
+     * Carries checked exceptions out of a ForkJoin task
+     */
+    private static class SegmentException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SegmentException(Throwable cause) {
+            super(cause);
+        }
+
+        /**
+         * ForkJoinPool may wrap the thrown exception in another instance of the same type
+         *
+         * @return the exception thrown by the segment
+         */
+        Exception unwrap() {
+            Throwable cause = this;
+            while (cause instanceof SegmentException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            return cause instanceof Exception ? (Exception) cause : this;
+        }
+    }
+}
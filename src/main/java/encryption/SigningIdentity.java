@@ -0,0 +1,198 @@
+package encryption;
+
+import encryption.enums.SignatureAlgorithm;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStoreException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+
+/**
+ * Key pair used by {@link DigitalSigning} for all signatures.
+ * The key pair is generated once and stored in a local keystore file in JSON format,
+ * so signing does not have to generate a new key for every file. Every {@link SignatureAlgorithm} has its own key pair.
+ * Caution: Do not share the keystore file, it contains the private key!
+ *
+ * @author Leo Nobis
+ */
+public class SigningIdentity {
+
+    // Directory holding the default keystore files
+    private static final File DEFAULT_KEYSTORE_DIRECTORY = new File(System.getProperty("user.home"), ".filecrypt");
+
+    // signature algorithm the key pair is used with
+    private final SignatureAlgorithm algorithm;
+    // key pair used for signing
+    private final KeyPair keyPair;
+
+    private SigningIdentity(SignatureAlgorithm algorithm, KeyPair keyPair) {
+        this.algorithm = algorithm;
+        this.keyPair = keyPair;
+    }
+
+    /**
+     * Default location of the keystore file for a signature algorithm
+     *
+     * @param algorithm signature algorithm of the identity
+     * @return ~/.filecrypt/signing_identity.json for DSA, ~/.filecrypt/signing_identity_[algorithm].json otherwise
+     */
+    public static File getDefaultKeystoreFile(SignatureAlgorithm algorithm) {
+        String suffix = algorithm == SignatureAlgorithm.DSA ? "" : "_" + algorithm.name().toLowerCase();
+        return new File(DEFAULT_KEYSTORE_DIRECTORY, "signing_identity" + suffix + ".json");
+    }
+
+    /**
+     * Load a DSA identity from a keystore file. If the file does not exist a new key pair is generated and stored in it.
+     *
+     * @param keystoreFile json file holding the key pair
+     * @return the loaded or generated identity
+     * @throws Exception when file operations go wrong, exceptions are handled in the controller class
+     */
+    public static SigningIdentity loadOrCreate(File keystoreFile) throws Exception {
+        return loadOrCreate(keystoreFile, SignatureAlgorithm.DSA);
+    }
+
+    /**
+     * Load the identity from a keystore file. If the file does not exist a new key pair is generated and stored in it.
+     *
+     * @param keystoreFile json file holding the key pair
+     * @param algorithm    signature algorithm the key pair has to be used with
+     * @return the loaded or generated identity
+     * @throws KeyStoreException when the keystore file holds a key pair of another algorithm
+     * @throws Exception         when file operations go wrong, exceptions are handled in the controller class
+     */
+    public static SigningIdentity loadOrCreate(File keystoreFile, SignatureAlgorithm algorithm) throws Exception {
+        if (keystoreFile.exists()) {
+            SigningIdentity identity = load(keystoreFile);
+            if (identity.getAlgorithm() != algorithm) {
+                throw new KeyStoreException("Keystore " + keystoreFile.getPath() + " holds a "
+                        + identity.getAlgorithm() + " key pair, not " + algorithm);
+            }
+            return identity;
+        }
+        SigningIdentity identity = new SigningIdentity(algorithm, generateKeyPair(algorithm));
+        identity.store(keystoreFile);
+        return identity;
+    }
+
+    /**
+     * Load the identity from a keystore file
+     *
+     * @param keystoreFile json file holding the key pair
+     * @return the loaded identity
+     * @throws Exception when file operations go wrong, exceptions are handled in the controller class
+     */
+    public static SigningIdentity load(File keystoreFile) throws Exception {
+        try (FileReader fileReader = new FileReader(keystoreFile)) {
+            JSONObject jsonObject = (JSONObject) new JSONParser().parse(fileReader);
+
+            SignatureAlgorithm algorithm = SignatureAlgorithm.DSA;
+            if (jsonObject.get("signatureAlgorithm") != null) {
+                algorithm = SignatureAlgorithm.fromLabel(jsonObject.get("signatureAlgorithm").toString());
+            }
+            KeyFactory keyFactory = KeyFactory.getInstance(algorithm.keyAlgorithm, "BC");
+            byte[] privateKeyBytes = Base64.getDecoder().decode(jsonObject.get("privateKey").toString());
+            byte[] publicKeyBytes = Base64.getDecoder().decode(jsonObject.get("publicKey").toString());
+            PrivateKey privateKey = keyFactory.generatePrivate(new PKCS8EncodedKeySpec(privateKeyBytes));
+            PublicKey publicKey = keyFactory.generatePublic(new X509EncodedKeySpec(publicKeyBytes));
+
+            return new SigningIdentity(algorithm, new KeyPair(publicKey, privateKey));
+        }
+    }
+
+    /**
+     * Generate a key pair for a signature algorithm: 2048 bit DSA using provider based parameters,
+     * an EC key on the P-256 curve or an Ed25519 key.
+     *
+     * @param algorithm signature algorithm the key pair is used with
+     * @return a KeyPair
+     */
+    private static KeyPair generateKeyPair(SignatureAlgorithm algorithm) throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(algorithm.keyAlgorithm, "BC");
+
+        switch (algorithm) {
+            case DSA:
+                keyPairGenerator.initialize(2048);
+                break;
+            case ECDSAP256:
+                keyPairGenerator.initialize(new ECGenParameterSpec("P-256"));
+                break;
+            default:
+                break;
+        }
+
+        return keyPairGenerator.generateKeyPair();
+    }
+
+    /**
+     * Write the key pair to a new keystore file, readable only by the owner where the file system supports it
+     *
+     * @param keystoreFile json file the key pair will be written to
+     * @throws IOException when file operations go wrong
+     */
+    @SuppressWarnings("unchecked") //The json-simple library is compiled with an old bytecode version: 46.0
+    private void store(File keystoreFile) throws IOException {
+        JSONObject config = new JSONObject();
+
+        config.put("algorithm", algorithm.keyAlgorithm);
+        config.put("signatureAlgorithm", algorithm.label);
+        config.put("privateKey", Base64.getEncoder().encodeToString(keyPair.getPrivate().getEncoded()));
+        config.put("publicKey", Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded()));
+
+        File parent = keystoreFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        try {
+            Files.createFile(keystoreFile.toPath(),
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system
+            Files.createFile(keystoreFile.toPath());
+        }
+        try (FileWriter fileWriter = new FileWriter(keystoreFile)) {
+            fileWriter.write(config.toJSONString());
+        }
+    }
+
+    /**
+     * Getter method for the signature algorithm
+     *
+     * @return signature algorithm the key pair is used with
+     */
+    public SignatureAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Getter method for the private key
+     *
+     * @return private key used for signing
+     */
+    public PrivateKey getPrivateKey() {
+        return keyPair.getPrivate();
+    }
+
+    /**
+     * Getter method for the public key
+     *
+     * @return public key that verifies signatures of this identity
+     */
+    public PublicKey getPublicKey() {
+        return keyPair.getPublic();
+    }
+}
@@ -1,13 +1,17 @@
 package encryption;
 
 import encryption.enums.BlockMode;
+import encryption.enums.HeaderField;
 import encryption.enums.PaddingMode;
 import encryption.interfaces.SymmetricalEncryptor;
+import encryption.util.EnginePool;
+import encryption.util.MappedFileIO;
 import org.apache.commons.io.FilenameUtils;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
@@ -18,13 +22,16 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.security.AlgorithmParameterGenerator;
 import java.security.AlgorithmParameters;
+import java.security.Provider;
 import java.util.Base64;
 
 /**
- * Base class for encrypting files with symmetric encryption algorithms
+ * Base class for encrypting files with symmetric encryption algorithms.
+ * The encryption parameters are stored in a {@link FileHeader} in front of the encrypted content,
+ * the key is stored in a separate configuration file. Files without a header are decrypted with the
+ * parameters of their legacy configuration file.
  * Used by {@link controller.SymmetricEncryptionController}
  *
  * @author Leo Nobis
@@ -56,6 +63,8 @@ public class SymmetricEncryption implements SymmetricalEncryptor {
     private SecretKey key;
     // Initialisation Vector used for de/encryption
     private byte[] iv;
+    // Header of the encrypted file, null for legacy files
+    private FileHeader header;
     // Used to write config files and de/encrypted files
     private FileWriter fileWriter;
 
@@ -81,8 +90,8 @@ public class SymmetricEncryption implements SymmetricalEncryptor {
     }
 
     /**
-     * Create a configuration json file containing information about the used encryption parameters as well as the key.
-     * This file can later be used for decryption.
+     * Create a configuration json file containing the key. The encryption parameters are stored in the header
+     * of the encrypted file. This file is needed for decryption.
      * Caution: Do not share this file!
      */
     @SuppressWarnings("unchecked") //The json-simple library is compiled with an old bytecode version: 46.0
@@ -90,15 +99,9 @@ public class SymmetricEncryption implements SymmetricalEncryptor {
         JSONObject config = new JSONObject();
 
         config.put("algorithm", "AES");
-        config.put("paddingMode", selectedPaddingMode.toString());
-        config.put("blockMode", selectedBlockMode.toString());
         config.put("keyLength", selectedKeyLength.toString());
         config.put("key", convertSecretKeyToString(secretKey));
 
-        if (this.iv != null) {
-            config.put("iv", Base64.getEncoder().encodeToString(iv));
-        }
-
         try {
             fileWriter = new FileWriter(selectedFile.getAbsolutePath() + ".json");
             fileWriter.write(config.toJSONString());
@@ -114,6 +117,25 @@ public class SymmetricEncryption implements SymmetricalEncryptor {
         }
     }
 
+    /**
+     * Create the header of the encrypted file from the parameters set in the init() function
+     *
+     * @param provider provider of the encryption cipher
+     * @return header holding all parameters except the key
+     */
+    private FileHeader createHeader(Provider provider) {
+        FileHeader header = new FileHeader()
+                .put(HeaderField.ALGORITHM, toString())
+                .put(HeaderField.BLOCK_MODE, selectedBlockMode.toString())
+                .put(HeaderField.PADDING_MODE, selectedPaddingMode.toString())
+                .put(HeaderField.KEY_LENGTH, selectedKeyLength)
+                .put(HeaderField.PROVIDER, provider.getName());
+        if (this.iv != null) {
+            header.put(HeaderField.IV, iv);
+        }
+        return header;
+    }
+
     /**
      * Decrypt selected file with configuration
      * init() method has to be called first
@@ -121,6 +143,7 @@ public class SymmetricEncryption implements SymmetricalEncryptor {
      * @throws Exception when file operations go wrong, exceptions are handled in the controller class
      */
     public void decrypt() throws Exception {
+        header = FileHeader.read(selectedFile);
         readConfigFile();
 
         String fileString = selectedFile.getAbsolutePath().replace(".encrypted", "");
@@ -129,22 +152,44 @@ public class SymmetricEncryption implements SymmetricalEncryptor {
         String fileBase = FilenameUtils.getBaseName(fileString);
         String fileExtension = FilenameUtils.getExtension(fileString);
 
-        byte[] inputBytes = Files.readAllBytes(selectedFile.toPath());
-        byte[] outputBytes = decrypt(inputBytes);
+        Cipher cipher = initDecryptionCipher();
         File outputFile = new File(filePath + fileBase + "_decrypted." + fileExtension);
-        Files.write(outputFile.toPath(), outputBytes);
+        MappedFileIO.process(cipher, selectedFile, header == null ? 0 : header.getLength(), outputFile, new byte[0]);
     }
 
     /**
-     * Byte level decryption of a given input using parameters set in the init() function
+     * Check the authentication tag of the selected file without writing the plaintext
+     * init() method has to be called first
      *
-     * @param input byte representation of the input file
-     * @return decrypted file as byte array
+     * @return true if the file is intact, false if the authentication failed
+     * @throws Exception when file operations go wrong or the block mode is not authenticated,
+     *                   exceptions are handled in the controller class
+     */
+    public boolean verify() throws Exception {
+        header = FileHeader.read(selectedFile);
+        readConfigFile();
+        if (!isAuthenticated()) {
+            throw new IllegalArgumentException("Only GCM and CCM files can be verified, not " + selectedBlockMode);
+        }
+
+        Cipher cipher = initDecryptionCipher();
+        try {
+            MappedFileIO.verify(cipher, selectedFile, header == null ? 0 : header.getLength());
+            return true;
+        } catch (AEADBadTagException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Create a cipher for decryption using parameters read from the header or the legacy configuration file
+     *
+     * @return cipher initialised for decryption
      * @throws Exception when file operations go wrong, exceptions are handled in the controller class
      */
-    private byte[] decrypt(byte[] input) throws Exception {
+    private Cipher initDecryptionCipher() throws Exception {
 
-        Cipher cipher = Cipher.getInstance(transformationString, "BC");
+        Cipher cipher = EnginePool.getDecryptionCipher(transformationString);
 
         if (selectedBlockMode == BlockMode.CBC
                 || selectedBlockMode == BlockMode.CTS
@@ -157,29 +202,33 @@ public class SymmetricEncryption implements SymmetricalEncryptor {
         } else if (selectedBlockMode == BlockMode.CCM) {
             GCMParameterSpec spec = new GCMParameterSpec(128, this.iv);
             cipher.init(Cipher.DECRYPT_MODE, key, spec);
-            cipher.updateAAD("0000".getBytes());
+            if (header == null) {
+                cipher.updateAAD("0000".getBytes());
+            }
         } else {
             cipher.init(Cipher.DECRYPT_MODE, key);
         }
 
-        return cipher.doFinal(input);
+        if (header != null && isAuthenticated()) {
+            cipher.updateAAD(header.toByteArray());
+        }
+        return cipher;
     }
 
     /**
-     * Byte level encryption of a given input using parameters set in the init() function
+     * Generate a key and create a cipher for encryption using parameters set in the init() function.
+     * Also creates the header and writes the configuration file needed for decryption
      *
-     * @param input byte representation of the input file
-     * @return encrypted file as byte array
+     * @return cipher initialised for encryption
      * @throws Exception when file operations go wrong, exceptions are handled in the controller class
      */
-    private byte[] encrypt(byte[] input) throws Exception {
-        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES", "BC");
-
-        keyGenerator.init(selectedKeyLength);
+    private Cipher initEncryptionCipher() throws Exception {
+        KeyGenerator keyGenerator = EnginePool.getKeyGenerator("AES", selectedKeyLength);
 
         SecretKey key = keyGenerator.generateKey();
+        this.iv = null;
 
-        Cipher cipher = Cipher.getInstance(transformationString, "BC");
+        Cipher cipher = EnginePool.getCipher(transformationString);
 
         cipher.init(Cipher.ENCRYPT_MODE, key);
 
@@ -189,7 +238,7 @@ public class SymmetricEncryption implements SymmetricalEncryptor {
         ) {
             this.iv = cipher.getIV();
         } else if (selectedBlockMode == BlockMode.GCM) {
-            AlgorithmParameterGenerator parameterGenerator = AlgorithmParameterGenerator.getInstance("GCM", "BC");
+            AlgorithmParameterGenerator parameterGenerator = EnginePool.getAlgorithmParameterGenerator("GCM");
             AlgorithmParameters pGCM = parameterGenerator.generateParameters();
             GCMParameterSpec gcmParameterSpec = pGCM.getParameterSpec(GCMParameterSpec.class);
             this.iv = gcmParameterSpec.getIV();
@@ -198,12 +247,25 @@ public class SymmetricEncryption implements SymmetricalEncryptor {
             this.iv = cipher.getIV();
             GCMParameterSpec spec = new GCMParameterSpec(128, this.iv);
             cipher.init(Cipher.ENCRYPT_MODE, key, spec);
-            cipher.updateAAD("0000".getBytes());
         }
 
+        header = createHeader(cipher.getProvider());
+        if (isAuthenticated()) {
+            // the header is authenticated together with the encrypted content
+            cipher.updateAAD(header.toByteArray());
+        }
         createConfigFile(key);
 
-        return cipher.doFinal(input);
+        return cipher;
+    }
+
+    /**
+     * Check if the selected block mode authenticates additional data
+     *
+     * @return true for GCM and CCM
+     */
+    private boolean isAuthenticated() {
+        return selectedBlockMode == BlockMode.GCM || selectedBlockMode == BlockMode.CCM;
     }
 
     /**
@@ -212,10 +274,9 @@ public class SymmetricEncryption implements SymmetricalEncryptor {
      * @throws Exception when file operations go wrong, exceptions are handled in the controller class
      */
     public void encrypt() throws Exception {
-        byte[] inputBytes = Files.readAllBytes(selectedFile.toPath());
-        byte[] outputBytes = encrypt(inputBytes);
+        Cipher cipher = initEncryptionCipher();
         File outputFile = new File(selectedFile.getAbsolutePath() + ".encrypted");
-        Files.write(outputFile.toPath(), outputBytes);
+        MappedFileIO.process(cipher, selectedFile, 0, outputFile, header.toByteArray());
     }
 
     /**
@@ -287,23 +348,33 @@ public class SymmetricEncryption implements SymmetricalEncryptor {
     }
 
     /**
-     * Read de/encryption parameters from the configuration file
+     * Read the key from the configuration file and the de/encryption parameters from the header,
+     * or from the configuration file for legacy files without header
+     *
+     * @throws IOException    when the configuration file cannot be read or the header is incomplete
+     * @throws ParseException when the configuration file is not valid json
      */
-    private void readConfigFile() {
-        try {
-            FileReader fileReader = new FileReader(configurationFile.getAbsolutePath());
+    private void readConfigFile() throws IOException, ParseException {
+        try (FileReader fileReader = new FileReader(configurationFile.getAbsolutePath())) {
             JSONParser jsonParser = new JSONParser();
             JSONObject jsonObject = (JSONObject) jsonParser.parse(fileReader);
 
-            this.selectedPaddingMode = PaddingMode.valueOf(jsonObject.get("paddingMode").toString());
-            this.selectedBlockMode = BlockMode.valueOf(jsonObject.get("blockMode").toString());
-            this.selectedKeyLength = Integer.valueOf(jsonObject.get("keyLength").toString());
             this.key = convertStringToSecretKey(jsonObject.get("key").toString());
-            if (jsonObject.get("iv") != null) {
-                this.iv = Base64.getDecoder().decode(jsonObject.get("iv").toString());
+            if (header != null) {
+                header.checkAlgorithm(toString());
+                this.selectedPaddingMode = PaddingMode.valueOf(header.getString(HeaderField.PADDING_MODE));
+                this.selectedBlockMode = BlockMode.valueOf(header.getString(HeaderField.BLOCK_MODE));
+                this.selectedKeyLength = header.getInt(HeaderField.KEY_LENGTH);
+                this.iv = header.contains(HeaderField.IV) ? header.getBytes(HeaderField.IV) : null;
+            } else {
+                this.selectedPaddingMode = PaddingMode.valueOf(jsonObject.get("paddingMode").toString());
+                this.selectedBlockMode = BlockMode.valueOf(jsonObject.get("blockMode").toString());
+                this.selectedKeyLength = Integer.valueOf(jsonObject.get("keyLength").toString());
+                if (jsonObject.get("iv") != null) {
+                    this.iv = Base64.getDecoder().decode(jsonObject.get("iv").toString());
+                }
             }
-        } catch (IOException | ParseException e) {
-            e.printStackTrace();
+            this.transformationString = generateTransformationString();
         }
     }
 
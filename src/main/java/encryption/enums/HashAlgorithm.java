@@ -3,7 +3,8 @@ package encryption.enums;
 public enum HashAlgorithm {
     SHA256("SHA-256"),
     AESCMAC("AESCMAC"),
-    HMACSHA256("HMACSHA256");
+    HMACSHA256("HMACSHA256"),
+    SHA256TREE("SHA-256-TREE");
 
     public final String label;
 
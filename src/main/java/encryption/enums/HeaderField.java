@@ -0,0 +1,46 @@
+package encryption.enums;
+
+public enum HeaderField {
+    ALGORITHM("algorithm", 1),
+    BLOCK_MODE("blockMode", 2),
+    PADDING_MODE("paddingMode", 3),
+    KEY_LENGTH("keyLength", 4),
+    IV("iv", 5),
+    KDF("kdf", 6),
+    SALT("salt", 7),
+    ITERATIONS("iterations", 8),
+    SCRYPT_COST("scryptCost", 9),
+    SCRYPT_BLOCK_SIZE("scryptBlockSize", 10),
+    SCRYPT_PARALLELIZATION("scryptParallelization", 11),
+    SEGMENT_SIZE("segmentSize", 12),
+    NONCE_PREFIX("noncePrefix", 13),
+    PROVIDER("provider", 14),
+    HKDF_SALT("hkdfSalt", 15),
+    HKDF_INFO("hkdfInfo", 16),
+    ARGON2_MEMORY("argon2Memory", 17),
+    ARGON2_ITERATIONS("argon2Iterations", 18),
+    ARGON2_LANES("argon2Lanes", 19);
+
+    public final String label;
+    public final int tag;
+
+    HeaderField(String label, int tag) {
+        this.label = label;
+        this.tag = tag;
+    }
+
+    /**
+     * Find the field for a tag stored in a file header
+     *
+     * @param tag tag byte of the field
+     * @return matching field, null for fields written by a later version
+     */
+    public static HeaderField fromTag(int tag) {
+        for (HeaderField field : values()) {
+            if (field.tag == tag) {
+                return field;
+            }
+        }
+        return null;
+    }
+}
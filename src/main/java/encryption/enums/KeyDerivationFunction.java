@@ -2,5 +2,6 @@ package encryption.enums;
 
 public enum KeyDerivationFunction {
     SCRYPT,
-    SHA256
+    SHA256,
+    ARGON2ID
 }
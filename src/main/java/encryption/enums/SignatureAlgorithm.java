@@ -0,0 +1,30 @@
+package encryption.enums;
+
+public enum SignatureAlgorithm {
+    DSA("SHA256withDSA", "DSA"),
+    ECDSAP256("SHA256withECDSA", "EC"),
+    ED25519("Ed25519", "Ed25519");
+
+    public final String label;
+    public final String keyAlgorithm;
+
+    SignatureAlgorithm(String label, String keyAlgorithm) {
+        this.label = label;
+        this.keyAlgorithm = keyAlgorithm;
+    }
+
+    /**
+     * Find the algorithm for a label stored in a signature file
+     *
+     * @param label JCA name of the signature algorithm
+     * @return matching algorithm
+     */
+    public static SignatureAlgorithm fromLabel(String label) {
+        for (SignatureAlgorithm algorithm : values()) {
+            if (algorithm.label.equals(label)) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("Unknown signature algorithm: " + label);
+    }
+}
@@ -9,6 +9,8 @@ public interface Encryptor {
 
     void decrypt() throws Exception;
 
+    boolean verify() throws Exception;
+
     String toString();
 
     PaddingMode[] getSupportedPaddingModes();
@@ -0,0 +1,10 @@
+package encryption.interfaces;
+
+/**
+ * Receives the progress of a file operation. Set for the current thread with
+ * {@link encryption.util.MappedFileIO#setProgressListener(ProgressListener)}.
+ * Throwing a {@link java.util.concurrent.CancellationException} aborts the operation.
+ */
+public interface ProgressListener {
+    void progress(long processedBytes, long totalBytes);
+}
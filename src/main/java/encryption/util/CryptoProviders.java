@@ -0,0 +1,238 @@
+package encryption.util;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Selects the JCA provider for ciphers, message digests, MACs and signatures.
+ * The JDK providers come first because HotSpot replaces their AES, GHASH and SHA code with AES-NI, CLMUL and SHA
+ * instructions. Bouncy Castle is pure Java and is used for everything the JDK does not offer, e.g. CCM,
+ * ZeroBytePadding, AESCMAC and the PBE ciphers.
+ * The order can be changed with the system property filecrypt.providers, e.g. -Dfilecrypt.providers=BC
+ * <p>
+ * The selected provider is cached per algorithm and can be read from the returned engine with getProvider().
+ */
+public class CryptoProviders {
+
+    // System property holding a comma separated list of provider names
+    public static final String PROVIDERS_PROPERTY = "filecrypt.providers";
+    // Providers tried in this order if the property is not set
+    static final String DEFAULT_PROVIDERS = "SunJCE,SUN,SunEC,BC";
+    // Algorithms always taken from Bouncy Castle: SunEC does not accept the Ed25519 keys of SigningIdentity
+    private static final Set<String> BOUNCY_CASTLE_ONLY = Set.of("ED25519");
+    // Providers that hold back the whole plaintext of a GCM decryption until doFinal()
+    private static final Set<String> BUFFERING_GCM_DECRYPTION = Set.of("SunJCE");
+
+    // Provider names in order of preference
+    private static volatile List<String> preferredProviders =
+            parse(System.getProperty(PROVIDERS_PROPERTY, DEFAULT_PROVIDERS));
+    // Provider and algorithm name selected per engine type and algorithm
+    private static final Map<String, Selection> selections = new ConcurrentHashMap<>();
+    // Incremented whenever the provider order changes, so pooled engines of the old order are dropped
+    private static volatile int generation;
+
+    /**
+     * Creates an engine of one type, e.g. Cipher::getInstance
+     */
+    private interface EngineFactory<T> {
+        T getInstance(String algorithm, Provider provider) throws GeneralSecurityException;
+    }
+
+    /**
+     * Provider selected for an algorithm, together with the name the provider knows the algorithm by
+     */
+    private static class Selection {
+        private final Provider provider;
+        private final String algorithm;
+
+        Selection(Provider provider, String algorithm) {
+            this.provider = provider;
+            this.algorithm = algorithm;
+        }
+    }
+
+    /**
+     * Return a cipher from the fastest provider supporting the transformation
+     *
+     * @param transformation e.g. AES/GCM/NoPadding
+     * @return new cipher instance
+     * @throws GeneralSecurityException when no provider supports the transformation
+     */
+    public static Cipher getCipher(String transformation) throws GeneralSecurityException {
+        return getInstance("Cipher", transformation, false, Cipher::getInstance);
+    }
+
+    /**
+     * Return a cipher from the fastest provider that returns decrypted data already in update().
+     * Used where a whole file is decrypted by one cipher, the JDK GCM implementation would keep the complete
+     * file in memory until the tag is checked.
+     *
+     * @param transformation e.g. AES/GCM/NoPadding
+     * @return new cipher instance
+     * @throws GeneralSecurityException when no provider supports the transformation
+     */
+    public static Cipher getDecryptionCipher(String transformation) throws GeneralSecurityException {
+        return getInstance("Cipher", transformation, true, Cipher::getInstance);
+    }
+
+    /**
+     * Return a message digest from the fastest provider supporting the algorithm
+     *
+     * @param algorithm e.g. SHA-256
+     * @return new message digest instance
+     * @throws GeneralSecurityException when no provider supports the algorithm
+     */
+    public static MessageDigest getMessageDigest(String algorithm) throws GeneralSecurityException {
+        return getInstance("MessageDigest", algorithm, false, MessageDigest::getInstance);
+    }
+
+    /**
+     * Return a MAC from the fastest provider supporting the algorithm
+     *
+     * @param algorithm e.g. HMACSHA256
+     * @return new MAC instance
+     * @throws GeneralSecurityException when no provider supports the algorithm
+     */
+    public static Mac getMac(String algorithm) throws GeneralSecurityException {
+        return getInstance("Mac", algorithm, false, Mac::getInstance);
+    }
+
+    /**
+     * Return a signature from the fastest provider supporting the algorithm
+     *
+     * @param algorithm e.g. SHA256withECDSA
+     * @return new signature instance
+     * @throws GeneralSecurityException when no provider supports the algorithm
+     */
+    public static Signature getSignature(String algorithm) throws GeneralSecurityException {
+        return getInstance("Signature", algorithm, false, Signature::getInstance);
+    }
+
+    /**
+     * Getter method for the provider order
+     *
+     * @return provider names in order of preference
+     */
+    public static List<String> getPreferredProviders() {
+        return preferredProviders;
+    }
+
+    /**
+     * Setter method for the provider order, clears all cached selections
+     *
+     * @param providerNames provider names in order of preference, e.g. "BC" to use Bouncy Castle only
+     */
+    public static void setPreferredProviders(String... providerNames) {
+        preferredProviders = Collections.unmodifiableList(Arrays.asList(providerNames.clone()));
+        selections.clear();
+        generation++;
+    }
+
+    /**
+     * Getter method for the number of changes of the provider order, used by {@link EnginePool}
+     *
+     * @return generation of the provider order
+     */
+    static int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Return an engine from the first provider in the preferred order that supports the algorithm.
+     * If no provider does, the exception of the last provider tried is thrown.
+     *
+     * @param type      engine type, part of the cache key
+     * @param algorithm algorithm or transformation
+     * @param streaming true if the engine must not buffer a whole GCM decryption
+     * @param factory   creates the engine for a provider
+     * @return new engine instance
+     * @throws GeneralSecurityException when no provider supports the algorithm
+     */
+    private static <T> T getInstance(String type, String algorithm, boolean streaming, EngineFactory<T> factory)
+            throws GeneralSecurityException {
+        String key = type + ":" + algorithm + (streaming ? ":streaming" : "");
+        Selection selection = selections.get(key);
+        if (selection != null) {
+            return factory.getInstance(selection.algorithm, selection.provider);
+        }
+
+        GeneralSecurityException lastException = null;
+        for (String providerName : preferredProviders) {
+            Provider provider = Security.getProvider(providerName);
+            if (provider == null || !isAllowed(provider, algorithm, streaming)) {
+                continue;
+            }
+            for (String name : getAlgorithmNames(provider, algorithm)) {
+                try {
+                    T engine = factory.getInstance(name, provider);
+                    selections.put(key, new Selection(provider, name));
+                    return engine;
+                } catch (GeneralSecurityException e) {
+                    lastException = e;
+                }
+            }
+        }
+        if (lastException != null) {
+            throw lastException;
+        }
+        throw new NoSuchAlgorithmException(algorithm + " not available from " + preferredProviders);
+    }
+
+    /**
+     * Check if a provider may be used for an algorithm
+     *
+     * @param provider  provider to be checked
+     * @param algorithm algorithm or transformation
+     * @param streaming true if the engine must not buffer a whole GCM decryption
+     * @return false if the provider is known not to work for the algorithm
+     */
+    private static boolean isAllowed(Provider provider, String algorithm, boolean streaming) {
+        String upperCase = algorithm.toUpperCase(Locale.ROOT);
+        if (BOUNCY_CASTLE_ONLY.contains(upperCase)) {
+            return provider.getName().equals("BC");
+        }
+        return !(streaming && upperCase.contains("/GCM/") && BUFFERING_GCM_DECRYPTION.contains(provider.getName()));
+    }
+
+    /**
+     * Return the names to try for an algorithm. The JDK only knows PKCS7 padding as PKCS5Padding,
+     * which is the same padding for 16 byte AES blocks.
+     *
+     * @param provider  provider the names are tried with
+     * @param algorithm algorithm or transformation
+     * @return names in the order they are tried
+     */
+    private static List<String> getAlgorithmNames(Provider provider, String algorithm) {
+        if (!provider.getName().equals("BC") && algorithm.endsWith("/PKCS7Padding")) {
+            return List.of(algorithm, algorithm.replace("/PKCS7Padding", "/PKCS5Padding"));
+        }
+        return List.of(algorithm);
+    }
+
+    /**
+     * Split a comma separated list of provider names
+     *
+     * @param providerNames e.g. SunJCE,BC
+     * @return provider names
+     */
+    private static List<String> parse(String providerNames) {
+        return Collections.unmodifiableList(Arrays.stream(providerNames.split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,279 @@
+package encryption.util;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory cache of keys derived from passwords, so decrypting many files with the same password and salt
+ * runs the KDF only once. The cache is bounded in size and time: the least recently used entry is evicted when
+ * the cache is full, and every entry expires a fixed time after it was derived. Evicted keys are overwritten with zeros.
+ * <p>
+ * Entries are keyed by an HMAC of KDF, parameters, salt and password under a random key that never leaves the
+ * process, so the cache holds no password and no unsalted password hash that could be attacked without the KDF.
+ */
+public class DerivedKeyCache {
+
+    // Removes expired entries of all caches, daemon thread so it does not keep the JVM alive
+    private static final ScheduledExecutorService EXPIRY = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "derived-key-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Maximum number of cached keys
+    private final int maxEntries;
+    // Time in milliseconds a key stays cached after it was derived
+    private final long timeToLiveMillis;
+    // Random HMAC key of the cache keys
+    private final SecretKeySpec hmacKey;
+    // Cached keys in access order, keyed by the Base64 encoded HMAC
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Derivations that are running, completed when their key is cached or the derivation failed
+    private final HashMap<String, CompletableFuture<Void>> pending = new HashMap<>();
+    // Task removing the entry that expires first, null if the cache is empty
+    private ScheduledFuture<?> expiryTask;
+    // Time the expiry task runs at
+    private long expiryTaskAt;
+
+    /**
+     * Derives a key, e.g. with scrypt
+     */
+    public interface Derivation {
+        byte[] derive() throws GeneralSecurityException;
+    }
+
+    /**
+     * Cached key together with the time it expires at
+     */
+    private static class Entry {
+        private final byte[] key;
+        private final long expiresAt;
+
+        Entry(byte[] key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Create an empty cache
+     *
+     * @param maxEntries       maximum number of cached keys
+     * @param timeToLiveMillis time in milliseconds a key stays cached after it was derived
+     */
+    public DerivedKeyCache(int maxEntries, long timeToLiveMillis) {
+        if (maxEntries < 1 || timeToLiveMillis < 1) {
+            throw new IllegalArgumentException("Cache size and time to live must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.timeToLiveMillis = timeToLiveMillis;
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        this.hmacKey = new SecretKeySpec(secret, "HMACSHA256");
+        Arrays.fill(secret, (byte) 0);
+    }
+
+    /**
+     * Return the cached key for a password, salt and KDF parameters, or derive and cache it.
+     * The derivation runs outside the lock, so derivations of different keys run in parallel.
+     * Concurrent callers for the same key wait for the running derivation instead of starting their own
+     *
+     * @param kdf        name of the KDF, e.g. SCRYPT
+     * @param password   password the key is derived from
+     * @param salt       salt the key is derived with
+     * @param parameters KDF parameters, e.g. N, r and p
+     * @param derivation derives the key if it is not cached, the cache takes over the returned array
+     * @return copy of the derived key, to be cleared by the caller
+     * @throws GeneralSecurityException when the derivation fails
+     */
+    public byte[] computeIfAbsent(String kdf, char[] password, byte[] salt, int[] parameters, Derivation derivation)
+            throws GeneralSecurityException {
+        String cacheKey = cacheKey(kdf, password, salt, parameters);
+        CompletableFuture<Void> derivationDone = null;
+        while (derivationDone == null) {
+            CompletableFuture<Void> running;
+            synchronized (this) {
+                byte[] key = get(cacheKey);
+                if (key != null) {
+                    return key;
+                }
+                running = pending.get(cacheKey);
+                if (running == null) {
+                    derivationDone = new CompletableFuture<>();
+                    pending.put(cacheKey, derivationDone);
+                }
+            }
+            if (running != null) {
+                // look the key up again once the running derivation has cached it
+                await(running);
+            }
+        }
+        try {
+            byte[] key = derivation.derive();
+            byte[] copy = key.clone();
+            put(cacheKey, key);
+            return copy;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            derivationDone.completeExceptionally(e);
+            throw e;
+        } finally {
+            synchronized (this) {
+                pending.remove(cacheKey);
+            }
+            derivationDone.complete(null);
+        }
+    }
+
+    /**
+     * Wait for a derivation started by another caller
+     *
+     * @param running derivation of the other caller
+     * @throws GeneralSecurityException when the derivation failed
+     */
+    private static void await(CompletableFuture<Void> running) throws GeneralSecurityException {
+        try {
+            running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the key derivation", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * Return a copy of a cached key
+     *
+     * @param cacheKey HMAC of the derivation input
+     * @return copy of the key, null if it is not cached or has expired
+     */
+    private synchronized byte[] get(String cacheKey) {
+        removeExpired();
+        Entry entry = entries.get(cacheKey);
+        return entry == null ? null : entry.key.clone();
+    }
+
+    /**
+     * Cache a key, evicting the least recently used key if the cache is full
+     *
+     * @param cacheKey HMAC of the derivation input
+     * @param key      derived key, zeroed when it is evicted
+     */
+    private synchronized void put(String cacheKey, byte[] key) {
+        removeExpired();
+        Entry previous = entries.put(cacheKey, new Entry(key, System.currentTimeMillis() + timeToLiveMillis));
+        if (previous != null) {
+            Arrays.fill(previous.key, (byte) 0);
+        }
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > maxEntries) {
+            Arrays.fill(iterator.next().key, (byte) 0);
+            iterator.remove();
+        }
+        scheduleExpiry();
+    }
+
+    /**
+     * Evict and zero all expired keys
+     */
+    synchronized void removeExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.expiresAt <= now) {
+                Arrays.fill(entry.key, (byte) 0);
+                iterator.remove();
+            }
+        }
+        scheduleExpiry();
+    }
+
+    /**
+     * Keep one expiry task per cache, scheduled for the entry that expires first
+     */
+    private synchronized void scheduleExpiry() {
+        long earliest = Long.MAX_VALUE;
+        for (Entry entry : entries.values()) {
+            earliest = Math.min(earliest, entry.expiresAt);
+        }
+        if (expiryTask != null && expiryTaskAt == earliest) {
+            return;
+        }
+        if (expiryTask != null) {
+            expiryTask.cancel(false);
+            expiryTask = null;
+        }
+        if (earliest != Long.MAX_VALUE) {
+            expiryTaskAt = earliest;
+            long delay = Math.max(0, earliest - System.currentTimeMillis());
+            expiryTask = EXPIRY.schedule(this::removeExpired, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Evict and zero all keys, e.g. when the user leaves the password based encryption
+     */
+    public synchronized void clear() {
+        entries.values().forEach(entry -> Arrays.fill(entry.key, (byte) 0));
+        entries.clear();
+        scheduleExpiry();
+    }
+
+    /**
+     * Getter method for the number of cached keys
+     *
+     * @return number of keys that have not been evicted yet
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Compute the HMAC identifying a derivation
+     *
+     * @param kdf        name of the KDF
+     * @param password   password the key is derived from
+     * @param salt       salt the key is derived with
+     * @param parameters KDF parameters
+     * @return Base64 encoded HMAC
+     * @throws GeneralSecurityException when HMAC-SHA256 is not available
+     */
+    private String cacheKey(String kdf, char[] password, byte[] salt, int[] parameters)
+            throws GeneralSecurityException {
+        Mac mac = EnginePool.getMac("HMACSHA256");
+        mac.init(hmacKey);
+        mac.update((kdf + Arrays.toString(parameters)).getBytes(StandardCharsets.UTF_8));
+        mac.update(ByteBuffer.allocate(Integer.BYTES).putInt(salt.length).array());
+        mac.update(salt);
+        ByteBuffer passwordBytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        try {
+            mac.update(passwordBytes.duplicate());
+        } finally {
+            passwordBytes.clear();
+            while (passwordBytes.hasRemaining()) {
+                passwordBytes.put((byte) 0);
+            }
+        }
+        return Base64.getEncoder().encodeToString(mac.doFinal());
+    }
+}
@@ -0,0 +1,155 @@
+package encryption.util;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import java.security.AlgorithmParameterGenerator;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Thread-local pool of JCA engines, keyed by engine type and algorithm.
+ * Looking up the provider and creating an engine can cost more than en/decrypting or hashing a small file,
+ * so every thread keeps one engine per algorithm from the provider selected by {@link CryptoProviders}
+ * and reuses it for the next file. Engines are dropped when the provider order changes.
+ * <p>
+ * A pooled engine has to be initialised before use and must only be used until the operation that got it
+ * is finished, it must not be stored in a field or passed to another thread.
+ */
+public class EnginePool {
+
+    // Engines of the current thread
+    private static final ThreadLocal<Engines> ENGINES = ThreadLocal.withInitial(Engines::new);
+
+    /**
+     * Creates the engine if the current thread has none for the key
+     */
+    private interface EngineFactory<T> {
+        T create() throws GeneralSecurityException;
+    }
+
+    /**
+     * Engines of one thread together with the provider order they were created for
+     */
+    private static class Engines {
+        private final Map<String, Object> engines = new HashMap<>();
+        private int generation = CryptoProviders.getGeneration();
+    }
+
+    /**
+     * Return the cipher of the current thread, see {@link CryptoProviders#getCipher(String)}
+     *
+     * @param transformation e.g. AES/GCM/NoPadding
+     * @return pooled cipher, has to be initialised with init()
+     * @throws GeneralSecurityException when no provider supports the transformation
+     */
+    public static Cipher getCipher(String transformation) throws GeneralSecurityException {
+        return get(Cipher.class, "Cipher:" + transformation, () -> CryptoProviders.getCipher(transformation));
+    }
+
+    /**
+     * Return the decryption cipher of the current thread, see {@link CryptoProviders#getDecryptionCipher(String)}
+     *
+     * @param transformation e.g. AES/GCM/NoPadding
+     * @return pooled cipher, has to be initialised with init()
+     * @throws GeneralSecurityException when no provider supports the transformation
+     */
+    public static Cipher getDecryptionCipher(String transformation) throws GeneralSecurityException {
+        return get(Cipher.class, "DecryptionCipher:" + transformation,
+                () -> CryptoProviders.getDecryptionCipher(transformation));
+    }
+
+    /**
+     * Return the message digest of the current thread, reset to its initial state
+     *
+     * @param algorithm e.g. SHA-256
+     * @return pooled message digest
+     * @throws GeneralSecurityException when no provider supports the algorithm
+     */
+    public static MessageDigest getMessageDigest(String algorithm) throws GeneralSecurityException {
+        MessageDigest digest = get(MessageDigest.class, "MessageDigest:" + algorithm,
+                () -> CryptoProviders.getMessageDigest(algorithm));
+        // a failed operation may have left data in the digest
+        digest.reset();
+        return digest;
+    }
+
+    /**
+     * Return the MAC of the current thread
+     *
+     * @param algorithm e.g. HMACSHA256
+     * @return pooled MAC, has to be initialised with init()
+     * @throws GeneralSecurityException when no provider supports the algorithm
+     */
+    public static Mac getMac(String algorithm) throws GeneralSecurityException {
+        return get(Mac.class, "Mac:" + algorithm, () -> CryptoProviders.getMac(algorithm));
+    }
+
+    /**
+     * Return the signature of the current thread
+     *
+     * @param algorithm e.g. SHA256withECDSA
+     * @return pooled signature, has to be initialised with initSign() or initVerify()
+     * @throws GeneralSecurityException when no provider supports the algorithm
+     */
+    public static Signature getSignature(String algorithm) throws GeneralSecurityException {
+        return get(Signature.class, "Signature:" + algorithm, () -> CryptoProviders.getSignature(algorithm));
+    }
+
+    /**
+     * Return the Bouncy Castle key generator of the current thread for an algorithm and key size
+     *
+     * @param algorithm e.g. AES
+     * @param keySize   key size in bits
+     * @return pooled key generator, initialised with the key size
+     * @throws GeneralSecurityException when the algorithm is not available
+     */
+    public static KeyGenerator getKeyGenerator(String algorithm, int keySize) throws GeneralSecurityException {
+        return get(KeyGenerator.class, "KeyGenerator:" + algorithm + ":" + keySize, () -> {
+            KeyGenerator keyGenerator = KeyGenerator.getInstance(algorithm, "BC");
+            keyGenerator.init(keySize);
+            return keyGenerator;
+        });
+    }
+
+    /**
+     * Return the Bouncy Castle parameter generator of the current thread, e.g. for random GCM parameters
+     *
+     * @param algorithm e.g. GCM
+     * @return pooled parameter generator
+     * @throws GeneralSecurityException when the algorithm is not available
+     */
+    public static AlgorithmParameterGenerator getAlgorithmParameterGenerator(String algorithm)
+            throws GeneralSecurityException {
+        return get(AlgorithmParameterGenerator.class, "AlgorithmParameterGenerator:" + algorithm,
+                () -> AlgorithmParameterGenerator.getInstance(algorithm, "BC"));
+    }
+
+    /**
+     * Return the engine of the current thread for a key, creating it on first use
+     *
+     * @param type    engine class
+     * @param key     engine type and algorithm
+     * @param factory creates the engine
+     * @return pooled engine
+     * @throws GeneralSecurityException when the engine cannot be created
+     */
+    private static <T> T get(Class<T> type, String key, EngineFactory<T> factory) throws GeneralSecurityException {
+        Engines engines = ENGINES.get();
+        int generation = CryptoProviders.getGeneration();
+        if (engines.generation != generation) {
+            engines.engines.clear();
+            engines.generation = generation;
+        }
+
+        Object engine = engines.engines.get(key);
+        if (engine == null) {
+            engine = factory.create();
+            engines.engines.put(key, engine);
+        }
+        return type.cast(engine);
+    }
+}
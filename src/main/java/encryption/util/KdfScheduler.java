@@ -0,0 +1,153 @@
+package encryption.util;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Admission control for memory-hard key derivations. Every derivation announces the memory it needs,
+ * e.g. 128 * N * r bytes for scrypt, and only starts while the derivations already running leave room for it
+ * in the memory budget. Derivations that do not fit wait in arrival order, so concurrent en/decryptions run as many
+ * derivations in parallel as the budget allows instead of failing with an OutOfMemoryError.
+ * A derivation larger than the whole budget runs alone.
+ * <p>
+ * The budget defaults to three quarters of the maximum heap size and can be set in megabytes with the
+ * system property filecrypt.kdf.memory, e.g. -Dfilecrypt.kdf.memory=2048
+ */
+public class KdfScheduler {
+
+    // System property holding the memory budget in megabytes
+    public static final String MEMORY_BUDGET_PROPERTY = "filecrypt.kdf.memory";
+
+    // Guards all fields below
+    private static final Object lock = new Object();
+    // Derivations waiting for admission, in arrival order
+    private static final Queue<Object> waiting = new ArrayDeque<>();
+    // Memory in bytes all running derivations may use together
+    private static long memoryBudget = parse(System.getProperty(MEMORY_BUDGET_PROPERTY));
+    // Memory in bytes announced by the running derivations
+    private static long memoryInUse;
+    // Number of running derivations
+    private static int running;
+
+    /**
+     * Run a derivation once its memory fits into the budget
+     *
+     * @param memory     memory in bytes the derivation needs
+     * @param derivation derivation to be run
+     * @return the derived key
+     * @throws GeneralSecurityException when the derivation fails
+     * @throws CancellationException    when the thread is interrupted while waiting, the interrupt flag stays set
+     */
+    public static byte[] derive(long memory, DerivedKeyCache.Derivation derivation) throws GeneralSecurityException {
+        acquire(memory);
+        try {
+            return derivation.derive();
+        } finally {
+            release(memory);
+        }
+    }
+
+    /**
+     * Wait until all derivations that arrived earlier have started and the memory fits into the budget
+     *
+     * @param memory memory in bytes the derivation needs
+     */
+    private static void acquire(long memory) {
+        Object ticket = new Object();
+        synchronized (lock) {
+            waiting.add(ticket);
+            try {
+                while (waiting.peek() != ticket || (running > 0 && memoryInUse + memory > memoryBudget)) {
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                waiting.remove(ticket);
+                lock.notifyAll();
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting for memory for the key derivation");
+            }
+            waiting.remove();
+            running++;
+            memoryInUse += memory;
+            // the next derivation may fit as well
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Return the memory of a finished derivation to the budget
+     *
+     * @param memory memory in bytes the derivation needed
+     */
+    private static void release(long memory) {
+        synchronized (lock) {
+            running--;
+            memoryInUse -= memory;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Getter method for the memory budget
+     *
+     * @return memory in bytes all running derivations may use together
+     */
+    public static long getMemoryBudget() {
+        synchronized (lock) {
+            return memoryBudget;
+        }
+    }
+
+    /**
+     * Setter method for the memory budget, waiting derivations are admitted against the new budget
+     *
+     * @param bytes memory in bytes all running derivations may use together
+     */
+    public static void setMemoryBudget(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive");
+        }
+        synchronized (lock) {
+            memoryBudget = bytes;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Getter method for the memory announced by the running derivations
+     *
+     * @return memory in bytes currently in use
+     */
+    public static long getMemoryInUse() {
+        synchronized (lock) {
+            return memoryInUse;
+        }
+    }
+
+    /**
+     * Parse the memory budget property. Runs in the static initializer, so an invalid value is reported
+     * and replaced by the default instead of failing the initialization of this class
+     *
+     * @param megabytes budget in megabytes, null for three quarters of the maximum heap size
+     * @return budget in bytes
+     */
+    private static long parse(String megabytes) {
+        long defaultBudget = Runtime.getRuntime().maxMemory() / 4 * 3;
+        if (megabytes == null || megabytes.isBlank()) {
+            return defaultBudget;
+        }
+        try {
+            long budget = Long.parseLong(megabytes.trim());
+            if (budget > 0 && budget <= Long.MAX_VALUE / (1024 * 1024)) {
+                return budget * 1024 * 1024;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        System.err.println("Ignoring " + MEMORY_BUDGET_PROPERTY + "=" + megabytes
+                + ", expected a positive number of megabytes, using " + defaultBudget / (1024 * 1024) + " MB");
+        return defaultBudget;
+    }
+}
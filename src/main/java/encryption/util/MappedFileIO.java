@@ -0,0 +1,294 @@
+package encryption.util;
+
+import encryption.interfaces.ProgressListener;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Utility class for file I/O based on FileChannel and direct ByteBuffers.
+ * Large files are memory-mapped window by window, small files are read into a reused direct buffer.
+ * The data is passed to the JCA engines as ByteBuffers so it is not copied on and off the Java heap,
+ * and memory use does not depend on the size of the file.
+ * Every chunk is reported to the {@link ProgressListener} of the current thread, which can also cancel the operation.
+ */
+public class MappedFileIO {
+    // Size of the chunks that are passed to the update() methods
+    public static final int CHUNK_SIZE = 1024 * 1024;
+    // Files from this size on are memory-mapped instead of read
+    static final long MAPPING_THRESHOLD = 4L * CHUNK_SIZE;
+    // Size of a mapped window, a 10 GB file is mapped in several windows
+    static final long MAPPING_SIZE = 256L * CHUNK_SIZE;
+
+    // Reused direct buffers, one per thread
+    private static final ThreadLocal<ByteBuffer> INPUT_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(CHUNK_SIZE));
+    private static final ThreadLocal<ByteBuffer> OUTPUT_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(CHUNK_SIZE + 64));
+    // Listener of the file operations running on the current thread
+    private static final ThreadLocal<ProgressListener> PROGRESS_LISTENER = new ThreadLocal<>();
+
+    /**
+     * Consumer for the chunks of a file
+     */
+    public interface ChunkConsumer {
+        void accept(ByteBuffer chunk) throws Exception;
+    }
+
+    /**
+     * Set the listener that receives the progress of all following file operations on the current thread
+     *
+     * @param listener progress listener, null to remove it
+     */
+    public static void setProgressListener(ProgressListener listener) {
+        if (listener == null) {
+            PROGRESS_LISTENER.remove();
+        } else {
+            PROGRESS_LISTENER.set(listener);
+        }
+    }
+
+    /**
+     * Getter method for the progress listener of the current thread
+     *
+     * @return progress listener, null if none is set
+     */
+    public static ProgressListener getProgressListener() {
+        return PROGRESS_LISTENER.get();
+    }
+
+    /**
+     * Pass the input file through the cipher chunk by chunk and write the result to the output file.
+     * The cipher is finished with doFinal() after the last chunk. If anything goes wrong the incomplete output file is deleted.
+     * Bouncy Castle buffers CCM input until doFinal(), in that case the output buffer grows with the file.
+     *
+     * @param cipher     initialised cipher used for en/decryption
+     * @param inputFile  file to be read
+     * @param outputFile file the cipher output will be written to
+     * @throws Exception when file or cipher operations go wrong, exceptions are handled in the controller class
+     */
+    public static void process(Cipher cipher, File inputFile, File outputFile) throws Exception {
+        process(cipher, inputFile, 0, outputFile, new byte[0]);
+    }
+
+    /**
+     * Pass the input file through the cipher like {@link #process(Cipher, File, File)}, skipping the header
+     * of an encrypted input file and writing a header in front of the cipher output
+     *
+     * @param cipher       initialised cipher used for en/decryption
+     * @param inputFile    file to be read
+     * @param inputOffset  number of bytes at the start of the input file that are not passed through the cipher
+     * @param outputFile   file the cipher output will be written to
+     * @param outputHeader bytes written to the output file before the cipher output
+     * @throws Exception when file or cipher operations go wrong, exceptions are handled in the controller class
+     */
+    public static void process(Cipher cipher, File inputFile, long inputOffset, File outputFile, byte[] outputHeader)
+            throws Exception {
+        try (FileChannel output = FileChannel.open(outputFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.wrap(outputHeader);
+            while (header.hasRemaining()) {
+                output.write(header);
+            }
+            ByteBuffer[] outputBuffer = {OUTPUT_BUFFER.get()};
+            forEachChunk(inputFile, inputOffset, chunk -> {
+                outputBuffer[0] = ensureCapacity(outputBuffer[0], cipher.getOutputSize(chunk.remaining()));
+                cipher.update(chunk, outputBuffer[0]);
+                write(output, outputBuffer[0]);
+            });
+            outputBuffer[0] = ensureCapacity(outputBuffer[0], cipher.getOutputSize(0));
+            cipher.doFinal(ByteBuffer.allocate(0), outputBuffer[0]);
+            write(output, outputBuffer[0]);
+        } catch (Exception e) {
+            Files.deleteIfExists(outputFile.toPath());
+            throw e;
+        }
+    }
+
+    /**
+     * Pass an encrypted file through a cipher initialised for decryption and discard the output,
+     * so the authentication tag is checked without writing the plaintext to disk
+     *
+     * @param cipher      initialised cipher used for decryption
+     * @param inputFile   file to be read
+     * @param inputOffset number of bytes at the start of the input file that are not passed through the cipher
+     * @throws Exception when file or cipher operations go wrong, AEADBadTagException when the tag does not match
+     */
+    public static void verify(Cipher cipher, File inputFile, long inputOffset) throws Exception {
+        ByteBuffer[] outputBuffer = {OUTPUT_BUFFER.get()};
+        forEachChunk(inputFile, inputOffset, chunk -> {
+            outputBuffer[0] = ensureCapacity(outputBuffer[0], cipher.getOutputSize(chunk.remaining()));
+            cipher.update(chunk, outputBuffer[0]);
+        });
+        outputBuffer[0] = ensureCapacity(outputBuffer[0], cipher.getOutputSize(0));
+        cipher.doFinal(ByteBuffer.allocate(0), outputBuffer[0]);
+    }
+
+    /**
+     * Feed the whole file into a message digest
+     *
+     * @param digest    digest to be updated
+     * @param inputFile file to be read
+     * @throws Exception when file operations go wrong
+     */
+    public static void update(MessageDigest digest, File inputFile) throws Exception {
+        forEachChunk(inputFile, 0, digest::update);
+    }
+
+    /**
+     * Feed the whole file into an initialised MAC
+     *
+     * @param mac       MAC to be updated
+     * @param inputFile file to be read
+     * @throws Exception when file operations go wrong
+     */
+    public static void update(Mac mac, File inputFile) throws Exception {
+        forEachChunk(inputFile, 0, mac::update);
+    }
+
+    /**
+     * Feed the whole file into a signature initialised for signing or verification
+     *
+     * @param signature signature to be updated
+     * @param inputFile file to be read
+     * @throws Exception when file operations go wrong
+     */
+    public static void update(Signature signature, File inputFile) throws Exception {
+        forEachChunk(inputFile, 0, signature::update);
+    }
+
+    /**
+     * Read the file once and pass every chunk to all consumers, e.g. the digests and MACs of a hash manifest.
+     * Every consumer gets its own view of the chunk. On a multi-core host the consumers of a chunk run in parallel
+     * on the common ForkJoinPool, the next chunk is read when all of them are done.
+     * A consumer must therefore not be shared with another consumer of the same call
+     *
+     * @param inputFile file to be read
+     * @param consumers receive every chunk in order
+     * @throws Exception when file operations go wrong or a consumer fails
+     */
+    public static void update(File inputFile, List<ChunkConsumer> consumers) throws Exception {
+        boolean parallel = consumers.size() > 1 && Runtime.getRuntime().availableProcessors() > 1;
+        forEachChunk(inputFile, 0, chunk -> {
+            if (!parallel) {
+                for (ChunkConsumer consumer : consumers) {
+                    consumer.accept(chunk.duplicate());
+                }
+                return;
+            }
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[consumers.size() - 1];
+            for (int i = 1; i < consumers.size(); i++) {
+                ChunkConsumer consumer = consumers.get(i);
+                ByteBuffer view = chunk.duplicate();
+                futures[i - 1] = CompletableFuture.runAsync(() -> {
+                    try {
+                        consumer.accept(view);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                });
+            }
+            try {
+                consumers.get(0).accept(chunk.duplicate());
+            } finally {
+                // the chunk is only valid until all consumers are done with it
+                try {
+                    CompletableFuture.allOf(futures).join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        });
+    }
+
+    /**
+     * Pass the content of a file to the consumer in chunks of at most CHUNK_SIZE bytes.
+     * The chunks are only valid during the call of the consumer. The progress listener is called after every chunk.
+     *
+     * @param inputFile file to be read
+     * @param offset    position of the first byte passed to the consumer
+     * @param consumer  receives the chunks in order
+     * @throws Exception when file operations go wrong or the consumer fails
+     */
+    private static void forEachChunk(File inputFile, long offset, ChunkConsumer consumer) throws Exception {
+        ProgressListener listener = PROGRESS_LISTENER.get();
+        try (FileChannel channel = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ)) {
+            long end = channel.size();
+            long size = Math.max(0, end - offset);
+            long processed = 0;
+            if (size >= MAPPING_THRESHOLD) {
+                for (long position = offset; position < end; position += MAPPING_SIZE) {
+                    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                            position, Math.min(MAPPING_SIZE, end - position));
+                    while (window.hasRemaining()) {
+                        ByteBuffer chunk = window.slice();
+                        chunk.limit(Math.min(CHUNK_SIZE, chunk.remaining()));
+                        window.position(window.position() + chunk.remaining());
+                        processed += chunk.remaining();
+                        consumer.accept(chunk);
+                        if (listener != null) {
+                            listener.progress(processed, size);
+                        }
+                    }
+                }
+            } else {
+                ByteBuffer buffer = INPUT_BUFFER.get();
+                buffer.clear();
+                channel.position(offset);
+                while (channel.read(buffer) != -1) {
+                    buffer.flip();
+                    processed += buffer.remaining();
+                    consumer.accept(buffer);
+                    buffer.clear();
+                    if (listener != null) {
+                        listener.progress(processed, size);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Return an empty buffer that can hold at least the required number of bytes.
+     * Grows geometrically so modes that buffer their whole input do not reallocate for every chunk.
+     *
+     * @param buffer   current buffer
+     * @param required number of bytes the next cipher call may produce
+     * @return cleared buffer with enough capacity
+     */
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int required) {
+        buffer.clear();
+        if (buffer.capacity() >= required) {
+            return buffer;
+        }
+        return ByteBuffer.allocateDirect(Math.max(required, 2 * buffer.capacity()));
+    }
+
+    /**
+     * Write the content of a filled buffer to a channel
+     *
+     * @param channel channel to write to
+     * @param buffer  buffer in write mode
+     * @throws IOException when writing fails
+     */
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
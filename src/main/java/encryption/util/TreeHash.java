@@ -0,0 +1,280 @@
+package encryption.util;
+
+import encryption.interfaces.ProgressListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SHA-256 Merkle tree hash of a file. The file is split into chunks of a fixed size, the leaves are hashed in
+ * parallel on a {@link ForkJoinPool} and combined pairwise into a single root, so large files are hashed with all cores.
+ * <p>
+ * Layout "binary": leaf = SHA-256(0x00 || chunk), node = SHA-256(0x01 || left || right). Each level is built from
+ * the pairs of the level below, an odd node at the end is moved up unchanged. An empty file has one empty leaf.
+ * The prefixes keep leaves and nodes apart, so no node can be passed off as a chunk.
+ * Chunk size and layout are needed to recompute the root and are stored next to it.
+ */
+public class TreeHash {
+
+    // Layout written to and expected in hash files
+    public static final String LAYOUT = "binary";
+    // Chunk size used for new hashes
+    public static final int DEFAULT_CHUNK_SIZE = MappedFileIO.CHUNK_SIZE;
+    // Largest chunk size accepted from a hash file, every worker holds one chunk in memory
+    public static final int MAX_CHUNK_SIZE = 64 * MappedFileIO.CHUNK_SIZE;
+    // Largest number of leaves, all leaf hashes are held in memory until the root is built.
+    // 1 TiB with the default chunk size, a hash file with a tiny chunk size cannot exhaust the heap
+    public static final int MAX_LEAVES = 1 << 20;
+    // Digest of leaves and nodes
+    static final String DIGEST = "SHA-256";
+    // Prefix of leaf hashes
+    private static final byte LEAF = 0x00;
+    // Prefix of node hashes
+    private static final byte NODE = 0x01;
+
+    // Read buffer of each worker thread, DEFAULT_CHUNK_SIZE bytes
+    private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<>();
+
+    /**
+     * Hash a file on the common ForkJoinPool
+     *
+     * @param file      file to be hashed
+     * @param chunkSize size of the leaves in bytes
+     * @return root of the tree
+     * @throws Exception when file operations go wrong
+     */
+    public static byte[] hash(File file, int chunkSize) throws Exception {
+        return hash(file, chunkSize, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Hash a file. Progress is reported to the progress listener of the calling thread from the workers
+     *
+     * @param file      file to be hashed
+     * @param chunkSize size of the leaves in bytes
+     * @param pool      pool hashing the leaves
+     * @return root of the tree
+     * @throws Exception when file operations go wrong
+     */
+    public static byte[] hash(File file, int chunkSize, ForkJoinPool pool) throws Exception {
+        checkChunkSize(chunkSize);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long leafCount = Math.max(1, (size + chunkSize - 1) / chunkSize);
+            if (leafCount > MAX_LEAVES) {
+                throw tooManyLeaves(chunkSize, size);
+            }
+            byte[][] level = new byte[(int) leafCount][];
+            LeafTask task = new LeafTask(channel, size, chunkSize, level, 0, level.length,
+                    MappedFileIO.getProgressListener(), new AtomicLong());
+            try {
+                pool.invoke(task);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return combine(level);
+        }
+    }
+
+    /**
+     * Check that a chunk size can be used
+     *
+     * @param chunkSize size of the leaves in bytes
+     */
+    private static void checkChunkSize(int chunkSize) {
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be between 1 and " + MAX_CHUNK_SIZE + ": " + chunkSize);
+        }
+    }
+
+    /**
+     * Create the exception for a chunk size that splits a file into more than MAX_LEAVES leaves
+     *
+     * @param chunkSize size of the leaves in bytes
+     * @param size      size of the file, 0 if unknown
+     * @return exception to be thrown
+     */
+    private static IllegalArgumentException tooManyLeaves(int chunkSize, long size) {
+        return new IllegalArgumentException("Chunk size " + chunkSize + " is too small"
+                + (size > 0 ? " for " + size + " bytes" : "") + ", a tree has at most " + MAX_LEAVES + " leaves");
+    }
+
+    /**
+     * Combine the leaves level by level into the root
+     *
+     * @param level leaf hashes, overwritten
+     * @return root of the tree
+     * @throws GeneralSecurityException when SHA-256 is not available
+     */
+    private static byte[] combine(byte[][] level) throws GeneralSecurityException {
+        MessageDigest digest = EnginePool.getMessageDigest(DIGEST);
+        int length = level.length;
+        while (length > 1) {
+            int next = 0;
+            for (int i = 0; i < length; i += 2) {
+                if (i + 1 == length) {
+                    level[next++] = level[i];
+                } else {
+                    digest.update(NODE);
+                    digest.update(level[i]);
+                    digest.update(level[i + 1]);
+                    level[next++] = digest.digest();
+                }
+            }
+            length = next;
+        }
+        return level[0];
+    }
+
+    /**
+     * Builds the root from the content of a file passed in order, so the tree hash can be computed in the same pass
+     * as other digests, see {@link MappedFileIO#update(File, List)}. The leaves are hashed one after another
+     */
+    public static class Accumulator implements MappedFileIO.ChunkConsumer {
+        private final int chunkSize;
+        private final MessageDigest digest;
+        private final List<byte[]> leaves = new ArrayList<>();
+        // bytes of the current leaf passed to the digest
+        private int leafLength;
+
+        /**
+         * Create an accumulator for an empty tree
+         *
+         * @param chunkSize size of the leaves in bytes
+         * @throws GeneralSecurityException when SHA-256 is not available
+         */
+        public Accumulator(int chunkSize) throws GeneralSecurityException {
+            checkChunkSize(chunkSize);
+            this.chunkSize = chunkSize;
+            // not pooled, another consumer of the same pass may use the pooled SHA-256 digest
+            this.digest = CryptoProviders.getMessageDigest(DIGEST);
+            digest.update(LEAF);
+        }
+
+        @Override
+        public void accept(ByteBuffer chunk) {
+            while (chunk.hasRemaining()) {
+                if (leafLength == chunkSize) {
+                    if (leaves.size() + 1 == MAX_LEAVES) {
+                        throw tooManyLeaves(chunkSize, 0);
+                    }
+                    leaves.add(digest.digest());
+                    digest.update(LEAF);
+                    leafLength = 0;
+                }
+                int length = Math.min(chunk.remaining(), chunkSize - leafLength);
+                ByteBuffer part = chunk.duplicate();
+                part.limit(part.position() + length);
+                digest.update(part);
+                chunk.position(chunk.position() + length);
+                leafLength += length;
+            }
+        }
+
+        /**
+         * Hash the last leaf and return the root
+         *
+         * @return root of the tree, equal to {@link TreeHash#hash(File, int)} of the same content
+         * @throws GeneralSecurityException when SHA-256 is not available
+         */
+        public byte[] finish() throws GeneralSecurityException {
+            leaves.add(digest.digest());
+            return combine(leaves.toArray(new byte[0][]));
+        }
+    }
+
+    /**
+     * Hashes a range of leaves, splitting it until a task hashes a single leaf
+     */
+    private static class LeafTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long size;
+        private final int chunkSize;
+        private final byte[][] leaves;
+        private final int from;
+        private final int to;
+        private final ProgressListener listener;
+        private final AtomicLong processed;
+
+        LeafTask(FileChannel channel, long size, int chunkSize, byte[][] leaves, int from, int to,
+                 ProgressListener listener, AtomicLong processed) {
+            this.channel = channel;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.leaves = leaves;
+            this.from = from;
+            this.to = to;
+            this.listener = listener;
+            this.processed = processed;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new LeafTask(channel, size, chunkSize, leaves, from, middle, listener, processed),
+                        new LeafTask(channel, size, chunkSize, leaves, middle, to, listener, processed));
+                return;
+            }
+            try {
+                leaves[from] = hashLeaf(from);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Read one chunk with a positional read and hash it
+         *
+         * @param index index of the leaf
+         * @return hash of the leaf
+         * @throws IOException              when the chunk cannot be read
+         * @throws GeneralSecurityException when SHA-256 is not available
+         */
+        private byte[] hashLeaf(int index) throws IOException, GeneralSecurityException {
+            long position = (long) index * chunkSize;
+            int length = (int) Math.min(chunkSize, size - position);
+            ByteBuffer buffer;
+            if (chunkSize > DEFAULT_CHUNK_SIZE) {
+                // larger chunks only come from hash files, their buffer is dropped so no worker keeps it
+                buffer = ByteBuffer.allocate(chunkSize);
+            } else {
+                buffer = BUFFER.get();
+                if (buffer == null) {
+                    buffer = ByteBuffer.allocateDirect(DEFAULT_CHUNK_SIZE);
+                    BUFFER.set(buffer);
+                }
+            }
+            buffer.clear().limit(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("File changed while hashing");
+                }
+            }
+            buffer.flip();
+
+            MessageDigest digest = EnginePool.getMessageDigest(DIGEST);
+            digest.update(LEAF);
+            digest.update(buffer);
+            if (listener != null) {
+                listener.progress(processed.addAndGet(length), size);
+            }
+            return digest.digest();
+        }
+    }
+}
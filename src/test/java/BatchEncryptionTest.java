@@ -0,0 +1,88 @@
+import encryption.BatchEncryption;
+import encryption.BatchReport;
+import encryption.SymmetricEncryption;
+import encryption.enums.BlockMode;
+import encryption.enums.PaddingMode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchEncryptionTest {
+
+    static final int FILE_COUNT = 20;
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Encrypts and decrypts a directory tree with several workers
+     * and asserts that every decrypted file is equal to its original file
+     */
+    @Test
+    void encryptDirectory() throws Exception {
+        Random random = new Random(42);
+        byte[][] contents = new byte[FILE_COUNT][];
+        for (int i = 0; i < FILE_COUNT; i++) {
+            contents[i] = new byte[random.nextInt(100_000)];
+            random.nextBytes(contents[i]);
+            Path file = tempDir.resolve("dir" + i % 3).resolve("file" + i + ".bin");
+            Files.createDirectories(file.getParent());
+            Files.write(file, contents[i]);
+        }
+
+        BatchEncryption batchEncryption = new BatchEncryption(4);
+        BatchReport report = batchEncryption.encrypt(BatchEncryption.collectFiles(tempDir.toFile()), file -> {
+            SymmetricEncryption encryption = new SymmetricEncryption();
+            encryption.init(PaddingMode.NoPadding, BlockMode.GCM, 256, file, null);
+            return encryption;
+        });
+        assertEquals(FILE_COUNT, report.getSucceeded());
+        assertEquals(0, report.getFailed());
+
+        List<File> encryptedFiles = BatchEncryption.collectEncryptedFiles(tempDir.toFile());
+        assertEquals(FILE_COUNT, encryptedFiles.size());
+        report = batchEncryption.decrypt(encryptedFiles, file -> {
+            SymmetricEncryption encryption = new SymmetricEncryption();
+            encryption.init(PaddingMode.NoPadding, BlockMode.GCM, 256, file,
+                    BatchEncryption.getConfigurationFile(file));
+            return encryption;
+        });
+        assertEquals(FILE_COUNT, report.getSucceeded());
+
+        for (int i = 0; i < FILE_COUNT; i++) {
+            Path decryptedFile = tempDir.resolve("dir" + i % 3).resolve("file" + i + "_decrypted.bin");
+            assertArrayEquals(contents[i], Files.readAllBytes(decryptedFile), "File: " + i);
+        }
+    }
+
+    /**
+     * A failing file is reported and does not stop the other files
+     */
+    @Test
+    void reportFailures() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            Files.write(tempDir.resolve("file" + i + ".bin.encrypted"), new byte[100]);
+        }
+        Files.write(tempDir.resolve("file0.bin"), new byte[100]);
+
+        BatchEncryption batchEncryption = new BatchEncryption(2);
+        BatchReport report = batchEncryption.decrypt(BatchEncryption.collectEncryptedFiles(tempDir.toFile()), file -> {
+            SymmetricEncryption encryption = new SymmetricEncryption();
+            // no configuration files exist
+            encryption.init(PaddingMode.NoPadding, BlockMode.GCM, 256, file,
+                    BatchEncryption.getConfigurationFile(file));
+            return encryption;
+        });
+
+        assertEquals(0, report.getSucceeded());
+        assertEquals(3, report.getFailed());
+        assertTrue(report.getFailures().containsKey(tempDir.resolve("file1.bin.encrypted").toFile()));
+    }
+}
@@ -0,0 +1,51 @@
+import encryption.util.CryptoProviders;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.NoSuchPaddingException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CryptoProvidersTest {
+
+    @AfterEach
+    void tearDown() {
+        CryptoProviders.setPreferredProviders("SunJCE", "SUN", "SunEC", "BC");
+    }
+
+    /**
+     * The JDK providers are used where they support the algorithm, Bouncy Castle otherwise
+     */
+    @Test
+    void selectProvider() throws Exception {
+        assertEquals("SunJCE", CryptoProviders.getCipher("AES/GCM/NoPadding").getProvider().getName());
+        assertEquals("SunJCE", CryptoProviders.getCipher("AES/CBC/PKCS7Padding").getProvider().getName());
+        assertEquals("SUN", CryptoProviders.getMessageDigest("SHA-256").getProvider().getName());
+        assertEquals("SunJCE", CryptoProviders.getMac("HMACSHA256").getProvider().getName());
+
+        assertEquals("BC", CryptoProviders.getCipher("AES/CCM/NoPadding").getProvider().getName());
+        assertEquals("BC", CryptoProviders.getCipher("AES/CBC/ZeroBytePadding").getProvider().getName());
+        assertEquals("BC", CryptoProviders.getMac("AESCMAC").getProvider().getName());
+        assertEquals("BC", CryptoProviders.getSignature("Ed25519").getProvider().getName());
+    }
+
+    /**
+     * Whole file GCM decryption uses a provider that does not buffer the file
+     */
+    @Test
+    void selectStreamingDecryption() throws Exception {
+        assertEquals("BC", CryptoProviders.getDecryptionCipher("AES/GCM/NoPadding").getProvider().getName());
+        assertEquals("SunJCE", CryptoProviders.getDecryptionCipher("AES/CTR/NoPadding").getProvider().getName());
+    }
+
+    /**
+     * The provider order can be changed and unsupported transformations keep their exception
+     */
+    @Test
+    void setPreferredProviders() throws Exception {
+        CryptoProviders.setPreferredProviders("BC");
+        assertEquals("BC", CryptoProviders.getCipher("AES/GCM/NoPadding").getProvider().getName());
+
+        assertThrows(NoSuchPaddingException.class, () -> CryptoProviders.getCipher("AES/GCM/PKCS7Padding"));
+    }
+}
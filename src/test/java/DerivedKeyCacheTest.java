@@ -0,0 +1,117 @@
+import encryption.util.DerivedKeyCache;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DerivedKeyCacheTest {
+
+    private static final byte[] SALT = {1, 2, 3, 4};
+    private static final int[] PARAMETERS = {1000};
+
+    /**
+     * The derivation only runs for password, salt and parameters that are not cached yet
+     */
+    @Test
+    void deriveOnce() throws Exception {
+        DerivedKeyCache cache = new DerivedKeyCache(4, 60_000);
+        AtomicInteger derivations = new AtomicInteger();
+        DerivedKeyCache.Derivation derivation = () -> new byte[]{(byte) derivations.incrementAndGet()};
+
+        byte[] first = cache.computeIfAbsent("SHA256", "password".toCharArray(), SALT, PARAMETERS, derivation);
+        byte[] second = cache.computeIfAbsent("SHA256", "password".toCharArray(), SALT, PARAMETERS, derivation);
+        assertArrayEquals(first, second);
+        assertEquals(1, derivations.get());
+
+        cache.computeIfAbsent("SHA256", "other".toCharArray(), SALT, PARAMETERS, derivation);
+        cache.computeIfAbsent("SHA256", "password".toCharArray(), new byte[]{5}, PARAMETERS, derivation);
+        cache.computeIfAbsent("SHA256", "password".toCharArray(), SALT, new int[]{2000}, derivation);
+        cache.computeIfAbsent("SCRYPT", "password".toCharArray(), SALT, PARAMETERS, derivation);
+        assertEquals(5, derivations.get());
+    }
+
+    /**
+     * A caller asking for a key that is being derived waits for that derivation instead of running its own
+     */
+    @Test
+    void deriveOnceConcurrently() throws Exception {
+        DerivedKeyCache cache = new DerivedKeyCache(4, 60_000);
+        AtomicInteger derivations = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        DerivedKeyCache.Derivation derivation = () -> {
+            derivations.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return new byte[]{7};
+        };
+
+        CompletableFuture<byte[]> first = CompletableFuture.supplyAsync(() -> compute(cache, derivation));
+        started.await();
+        CompletableFuture<byte[]> second = CompletableFuture.supplyAsync(() -> compute(cache, derivation));
+        Thread.sleep(100);
+        release.countDown();
+
+        assertArrayEquals(new byte[]{7}, first.get());
+        assertArrayEquals(new byte[]{7}, second.get());
+        assertEquals(1, derivations.get());
+    }
+
+    /**
+     * The least recently used key is zeroed when the cache is full
+     */
+    @Test
+    void evictLeastRecentlyUsed() throws Exception {
+        DerivedKeyCache cache = new DerivedKeyCache(2, 60_000);
+        byte[] a = {1, 1};
+        byte[] b = {2, 2};
+        cache.computeIfAbsent("SHA256", "a".toCharArray(), SALT, PARAMETERS, () -> a);
+        cache.computeIfAbsent("SHA256", "b".toCharArray(), SALT, PARAMETERS, () -> b);
+        cache.computeIfAbsent("SHA256", "a".toCharArray(), SALT, PARAMETERS, () -> fail("a is cached"));
+        cache.computeIfAbsent("SHA256", "c".toCharArray(), SALT, PARAMETERS, () -> new byte[]{3, 3});
+
+        assertEquals(2, cache.size());
+        assertArrayEquals(new byte[]{0, 0}, b);
+        assertArrayEquals(new byte[]{1, 1}, a);
+    }
+
+    /**
+     * Keys are zeroed when they expire, even if the cache is not used again
+     */
+    @Test
+    void expire() throws Exception {
+        DerivedKeyCache cache = new DerivedKeyCache(4, 50);
+        byte[] key = {1, 2, 3};
+        assertArrayEquals(new byte[]{1, 2, 3},
+                cache.computeIfAbsent("SHA256", "password".toCharArray(), SALT, PARAMETERS, () -> key));
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (cache.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, cache.size());
+        assertArrayEquals(new byte[]{0, 0, 0}, key);
+    }
+
+    /**
+     * Look up the key of "password" from another thread
+     *
+     * @param cache      cache to look the key up in
+     * @param derivation derives the key if it is not cached
+     * @return copy of the key
+     */
+    private static byte[] compute(DerivedKeyCache cache, DerivedKeyCache.Derivation derivation) {
+        try {
+            return cache.computeIfAbsent("SHA256", "password".toCharArray(), SALT, PARAMETERS, derivation);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,11 +1,15 @@
 import encryption.DigitalSigning;
+import encryption.SigningIdentity;
+import encryption.enums.SignatureAlgorithm;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.security.KeyStoreException;
 
-import static org.junit.jupiter.api.Assertions.assertFalse;
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 class DigitalSigningTest {
 
@@ -14,8 +18,15 @@ class DigitalSigningTest {
     File outputConfig = new File("src/test/resources/outputconfig");
     File correctSignatureFile = new File("src/test/resources/TestFile.txt_sig.json");
 
+    @TempDir
+    Path tempDir;
+
+    File keystoreFile;
+
     @BeforeEach
-    void setUp() {
+    void setUp() throws Exception {
+        keystoreFile = tempDir.resolve("signing_identity.json").toFile();
+        DigitalSigning.setIdentity(SigningIdentity.loadOrCreate(keystoreFile));
     }
 
     @Test
@@ -30,4 +41,57 @@ class DigitalSigningTest {
         assertTrue(DigitalSigning.verify(testFile, correctSignatureFile));
         assertFalse(DigitalSigning.verify(randomFile, correctSignatureFile));
     }
-}
\ No newline at end of file
+
+    /**
+     * The identity is stored once and reused, signatures verify against the trusted public key only
+     */
+    @Test
+    void signWithPersistentIdentity() throws Exception {
+        SigningIdentity identity = SigningIdentity.loadOrCreate(keystoreFile);
+        assertArrayEquals(DigitalSigning.getIdentity().getPublicKey().getEncoded(),
+                identity.getPublicKey().getEncoded());
+
+        DigitalSigning.sign(testFile, outputConfig);
+        assertTrue(DigitalSigning.verify(testFile, outputConfig, identity.getPublicKey()));
+        assertFalse(DigitalSigning.verify(randomFile, outputConfig, identity.getPublicKey()));
+
+        SigningIdentity otherIdentity = SigningIdentity.loadOrCreate(tempDir.resolve("other.json").toFile());
+        assertFalse(DigitalSigning.verify(testFile, outputConfig, otherIdentity.getPublicKey()));
+    }
+
+    /**
+     * Every signature algorithm signs and verifies with its own identity
+     */
+    @Test
+    void signWithAlgorithms() throws Exception {
+        for (SignatureAlgorithm algorithm : SignatureAlgorithm.values()
+        ) {
+            File algorithmKeystore = tempDir.resolve(algorithm.name() + ".json").toFile();
+            SigningIdentity identity = SigningIdentity.loadOrCreate(algorithmKeystore, algorithm);
+            DigitalSigning.setIdentity(identity);
+            assertEquals(algorithm, SigningIdentity.load(algorithmKeystore).getAlgorithm());
+
+            DigitalSigning.sign(testFile, outputConfig, algorithm);
+            assertTrue(DigitalSigning.verify(testFile, outputConfig), "Algorithm: " + algorithm);
+            assertFalse(DigitalSigning.verify(randomFile, outputConfig), "Algorithm: " + algorithm);
+            assertTrue(DigitalSigning.verify(testFile, outputConfig, identity.getPublicKey()), "Algorithm: " + algorithm);
+        }
+    }
+
+    /**
+     * A keystore holding a key pair of another algorithm is rejected instead of being used for that algorithm
+     */
+    @Test
+    void rejectKeystoreOfOtherAlgorithm() throws Exception {
+        File ed25519Keystore = tempDir.resolve("ed25519.json").toFile();
+        SigningIdentity.loadOrCreate(ed25519Keystore, SignatureAlgorithm.ED25519);
+
+        KeyStoreException e = assertThrows(KeyStoreException.class,
+                () -> SigningIdentity.loadOrCreate(keystoreFile, SignatureAlgorithm.ED25519));
+        assertTrue(e.getMessage().contains("DSA"));
+        assertThrows(KeyStoreException.class,
+                () -> SigningIdentity.loadOrCreate(ed25519Keystore, SignatureAlgorithm.ECDSAP256));
+        assertEquals(SignatureAlgorithm.ED25519,
+                SigningIdentity.loadOrCreate(ed25519Keystore, SignatureAlgorithm.ED25519).getAlgorithm());
+    }
+}
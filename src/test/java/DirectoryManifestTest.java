@@ -0,0 +1,154 @@
+import encryption.BatchReport;
+import encryption.DirectoryManifest;
+import encryption.enums.HashAlgorithm;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectoryManifestTest {
+
+    static final int FILE_COUNT = 12;
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * A manifest of an unchanged tree verifies with every hash algorithm
+     */
+    @Test
+    void createAndVerify() throws Exception {
+        Path directory = createTree();
+        DirectoryManifest directoryManifest = new DirectoryManifest(4);
+        for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+            File manifest = tempDir.resolve(algorithm + "_manifest.json").toFile();
+            BatchReport report = directoryManifest.create(directory.toFile(), manifest, algorithm);
+            assertEquals(FILE_COUNT, report.getSucceeded(), algorithm.label);
+
+            report = directoryManifest.verify(directory.toFile(), manifest, (file, reason) -> fail(file + ": " + reason));
+            assertEquals(FILE_COUNT, report.getSucceeded(), algorithm.label);
+            assertEquals(0, report.getFailed(), algorithm.label);
+        }
+    }
+
+    /**
+     * Changed and missing files are reported to the listener, the other files still verify
+     */
+    @Test
+    void reportMismatches() throws Exception {
+        Path directory = createTree();
+        File manifest = directory.resolve("manifest.json").toFile();
+        DirectoryManifest directoryManifest = new DirectoryManifest(3);
+        directoryManifest.create(directory.toFile(), manifest, HashAlgorithm.SHA256);
+
+        byte[] content = Files.readAllBytes(directory.resolve("dir1/file1.bin"));
+        content[0]++;
+        Files.write(directory.resolve("dir1/file1.bin"), content);
+        Files.write(directory.resolve("dir2/file2.bin"), new byte[]{1});
+        Files.delete(directory.resolve("dir0/file3.bin"));
+        Files.write(directory.resolve("dir0/new.bin"), new byte[]{1});
+
+        Map<File, Exception> mismatches = new ConcurrentHashMap<>();
+        BatchReport report = directoryManifest.verify(directory.toFile(), manifest, mismatches::put);
+        assertEquals(3, report.getFailed());
+        assertEquals(FILE_COUNT - 3, report.getSucceeded());
+        assertEquals(report.getFailures(), mismatches);
+        assertTrue(mismatches.get(directory.resolve("dir1/file1.bin").toFile())
+                instanceof DirectoryManifest.MismatchException);
+        assertTrue(mismatches.get(directory.resolve("dir2/file2.bin").toFile())
+                instanceof DirectoryManifest.MismatchException);
+        assertTrue(mismatches.get(directory.resolve("dir0/file3.bin").toFile()) instanceof FileNotFoundException);
+    }
+
+    /**
+     * Files whose stat did not change since the last run are skipped, a full verification hashes them again
+     */
+    @Test
+    void verifyIncrementally() throws Exception {
+        Path directory = createTree();
+        FileTime lastModified = FileTime.fromMillis(System.currentTimeMillis() - 3_600_000);
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                Files.setLastModifiedTime(path, lastModified);
+            }
+        }
+        File manifest = tempDir.resolve("manifest.json").toFile();
+        DirectoryManifest directoryManifest = new DirectoryManifest(2);
+        directoryManifest.create(directory.toFile(), manifest, HashAlgorithm.SHA256);
+        assertTrue(DirectoryManifest.getIndexFile(manifest).isFile());
+
+        BatchReport report = directoryManifest.verify(directory.toFile(), manifest, null);
+        assertEquals(FILE_COUNT, report.getSucceeded());
+        assertEquals(FILE_COUNT, report.getSkipped());
+        assertEquals(0, report.getBytes());
+
+        // a modified file gets a new modification time and is hashed again
+        Path modified = directory.resolve("dir1/file1.bin");
+        byte[] content = Files.readAllBytes(modified);
+        content[0]++;
+        Files.write(modified, content);
+        Files.setLastModifiedTime(modified, FileTime.fromMillis(lastModified.toMillis() + 1000));
+        report = directoryManifest.verify(directory.toFile(), manifest, null);
+        assertEquals(1, report.getFailed());
+        assertEquals(FILE_COUNT - 1, report.getSkipped());
+
+        // a change that keeps the stat is only found by a full verification
+        content[0]--;
+        Files.write(modified, content);
+        Files.setLastModifiedTime(modified, lastModified);
+        assertEquals(0, directoryManifest.verify(directory.toFile(), manifest, null).getFailed());
+        Path hidden = directory.resolve("dir2/file2.bin");
+        content = Files.readAllBytes(hidden);
+        content[0]++;
+        Files.write(hidden, content);
+        Files.setLastModifiedTime(hidden, lastModified);
+        assertEquals(0, directoryManifest.verify(directory.toFile(), manifest, null).getFailed());
+
+        report = directoryManifest.verify(directory.toFile(), manifest, null, true);
+        assertEquals(1, report.getFailed());
+        assertEquals(0, report.getSkipped());
+        assertTrue(report.getFailures().containsKey(hidden.toFile()));
+    }
+
+    /**
+     * Entries pointing outside of the tree are rejected
+     */
+    @Test
+    void rejectPathOutsideDirectory() throws Exception {
+        Path directory = Files.createDirectory(tempDir.resolve("tree"));
+        File manifest = tempDir.resolve("manifest.json").toFile();
+        Files.writeString(manifest.toPath(), "{\"provider\":\"SUN\",\"entries\":[{\"path\":\"../manifest.json\","
+                + "\"size\":1,\"hashAlgorithm\":\"SHA-256\",\"hash\":\"AA==\"}]}");
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new DirectoryManifest(1).verify(directory.toFile(), manifest, null));
+    }
+
+    /**
+     * Create FILE_COUNT files of random size in three subdirectories
+     *
+     * @return root of the tree
+     */
+    private Path createTree() throws Exception {
+        Random random = new Random(42);
+        Path directory = tempDir.resolve("tree");
+        for (int i = 0; i < FILE_COUNT; i++) {
+            byte[] content = new byte[1 + random.nextInt(100_000)];
+            random.nextBytes(content);
+            Path file = directory.resolve("dir" + i % 3).resolve("file" + i + ".bin");
+            Files.createDirectories(file.getParent());
+            Files.write(file, content);
+        }
+        return directory;
+    }
+}
@@ -0,0 +1,62 @@
+import encryption.util.CryptoProviders;
+import encryption.util.EnginePool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EnginePoolTest {
+
+    @AfterEach
+    void tearDown() {
+        CryptoProviders.setPreferredProviders("SunJCE", "SUN", "SunEC", "BC");
+    }
+
+    /**
+     * Every thread reuses its own engine instance
+     */
+    @Test
+    void reuseEnginesPerThread() throws Exception {
+        Cipher cipher = EnginePool.getCipher("AES/GCM/NoPadding");
+        assertSame(cipher, EnginePool.getCipher("AES/GCM/NoPadding"));
+
+        Cipher otherThreadCipher = CompletableFuture.supplyAsync(() -> {
+            try {
+                return EnginePool.getCipher("AES/GCM/NoPadding");
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }).get();
+        assertNotSame(cipher, otherThreadCipher);
+    }
+
+    /**
+     * A pooled digest starts without data left by an unfinished operation
+     */
+    @Test
+    void resetMessageDigest() throws Exception {
+        byte[] expected = MessageDigest.getInstance("SHA-256").digest("abc".getBytes(StandardCharsets.UTF_8));
+
+        EnginePool.getMessageDigest("SHA-256").update("unfinished".getBytes(StandardCharsets.UTF_8));
+        MessageDigest digest = EnginePool.getMessageDigest("SHA-256");
+
+        assertArrayEquals(expected, digest.digest("abc".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Changing the provider order drops the pooled engines
+     */
+    @Test
+    void dropEnginesOnProviderChange() throws Exception {
+        assertEquals("SunJCE", EnginePool.getCipher("AES/CTR/NoPadding").getProvider().getName());
+
+        CryptoProviders.setPreferredProviders("BC");
+
+        assertEquals("BC", EnginePool.getCipher("AES/CTR/NoPadding").getProvider().getName());
+    }
+}
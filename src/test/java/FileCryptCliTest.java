@@ -0,0 +1,164 @@
+import cli.FileCryptCli;
+import cli.enums.ExitCode;
+import encryption.DigitalSigning;
+import encryption.SigningIdentity;
+import encryption.enums.SignatureAlgorithm;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileCryptCliTest {
+
+    @TempDir
+    Path tempDir;
+
+    File testFile;
+    byte[] content;
+    // standard output of the last command
+    String output;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        content = new byte[100_000];
+        new Random(42).nextBytes(content);
+        testFile = tempDir.resolve("TestFile.txt").toFile();
+        Files.write(testFile.toPath(), content);
+    }
+
+    /**
+     * Missing arguments and unknown commands or options are usage errors
+     */
+    @Test
+    void usage() {
+        assertEquals(ExitCode.USAGE, run());
+        assertEquals(ExitCode.USAGE, run("unknown"));
+        assertEquals(ExitCode.USAGE, run("encrypt-aes"));
+        assertEquals(ExitCode.USAGE, run("encrypt-aes", tempDir.resolve("missing.txt").toString()));
+        assertEquals(ExitCode.USAGE, run("hash", testFile.getPath(), "--algorithm"));
+    }
+
+    /**
+     * AES round trip, the decrypted file is printed, a manipulated file fails decryption and verification
+     */
+    @Test
+    void encryptAes() throws Exception {
+        assertEquals(ExitCode.SUCCESS, run("encrypt-aes", testFile.getPath(), "--mode", "GCM"));
+        File encryptedFile = new File(testFile.getPath() + ".encrypted");
+        File configurationFile = tempDir.resolve("TestFile.txt.json").toFile();
+        assertEquals("OK " + encryptedFile.getPath(), output);
+
+        assertEquals(ExitCode.SUCCESS, run("decrypt-aes", encryptedFile.getPath(), configurationFile.getPath()));
+        File decryptedFile = tempDir.resolve("TestFile_decrypted.txt").toFile();
+        assertEquals("OK " + decryptedFile.getAbsolutePath(), output);
+        assertArrayEquals(content, Files.readAllBytes(decryptedFile.toPath()));
+        assertEquals(ExitCode.SUCCESS, run("verify-aes", encryptedFile.getPath(), configurationFile.getPath()));
+
+        manipulate(encryptedFile);
+        assertEquals(ExitCode.VERIFICATION_FAILED,
+                run("decrypt-aes", encryptedFile.getPath(), configurationFile.getPath()));
+        assertEquals(ExitCode.VERIFICATION_FAILED,
+                run("verify-aes", encryptedFile.getPath(), configurationFile.getPath()));
+    }
+
+    /**
+     * PBE round trip with the password from a file, a wrong password fails decryption
+     */
+    @Test
+    void encryptPbe() throws Exception {
+        File passwordFile = tempDir.resolve("password.txt").toFile();
+        Files.writeString(passwordFile.toPath(), "password");
+        File wrongPasswordFile = tempDir.resolve("wrong.txt").toFile();
+        Files.writeString(wrongPasswordFile.toPath(), "wrong password");
+
+        assertEquals(ExitCode.SUCCESS, run("encrypt-pbe", testFile.getPath(), "--kdf", "ARGON2ID",
+                "--argon2-memory", "1024", "--argon2-iterations", "1", "--argon2-lanes", "1",
+                "--password-file", passwordFile.getPath()));
+        File encryptedFile = new File(testFile.getPath() + ".encrypted");
+
+        assertEquals(ExitCode.SUCCESS, run("decrypt-pbe", encryptedFile.getPath(),
+                "--password-file", passwordFile.getPath()));
+        File decryptedFile = tempDir.resolve("TestFile_decrypted.txt").toFile();
+        assertEquals("OK " + decryptedFile.getAbsolutePath(), output);
+        assertArrayEquals(content, Files.readAllBytes(decryptedFile.toPath()));
+
+        assertEquals(ExitCode.VERIFICATION_FAILED, run("decrypt-pbe", encryptedFile.getPath(),
+                "--password-file", wrongPasswordFile.getPath()));
+        assertEquals(ExitCode.VERIFICATION_FAILED, run("verify-pbe", encryptedFile.getPath(),
+                "--password-file", wrongPasswordFile.getPath()));
+    }
+
+    /**
+     * A signature verifies until the file is manipulated
+     */
+    @Test
+    void sign() throws Exception {
+        DigitalSigning.setIdentity(SigningIdentity.loadOrCreate(tempDir.resolve("keystore.json").toFile(),
+                SignatureAlgorithm.ED25519));
+        File signatureFile = tempDir.resolve("TestFile.txt_sig.json").toFile();
+
+        assertEquals(ExitCode.SUCCESS, run("sign", testFile.getPath(), "--algorithm", "ED25519"));
+        assertEquals("OK " + signatureFile.getPath(), output);
+        assertEquals(ExitCode.SUCCESS, run("verify", testFile.getPath(), signatureFile.getPath()));
+
+        manipulate(testFile);
+        assertEquals(ExitCode.VERIFICATION_FAILED, run("verify", testFile.getPath(), signatureFile.getPath()));
+    }
+
+    /**
+     * Single hashes and manifests check until the file is manipulated
+     */
+    @Test
+    void hash() throws Exception {
+        File hashFile = tempDir.resolve("TestFile.txt_hash.json").toFile();
+        File manifestFile = tempDir.resolve("manifest.json").toFile();
+
+        assertEquals(ExitCode.SUCCESS, run("hash", testFile.getPath(), "--algorithm", "HMACSHA256"));
+        assertEquals("OK " + hashFile.getPath(), output);
+        assertEquals(ExitCode.SUCCESS, run("hash", testFile.getPath(), "--algorithm", "SHA256,SHA256TREE",
+                "--out", manifestFile.getPath()));
+        assertEquals(ExitCode.SUCCESS, run("check", testFile.getPath(), hashFile.getPath()));
+        assertEquals(ExitCode.SUCCESS, run("check", testFile.getPath(), manifestFile.getPath()));
+
+        manipulate(testFile);
+        assertEquals(ExitCode.VERIFICATION_FAILED, run("check", testFile.getPath(), hashFile.getPath()));
+        assertEquals(ExitCode.VERIFICATION_FAILED, run("check", testFile.getPath(), manifestFile.getPath()));
+    }
+
+    /**
+     * Run a command and keep its standard output
+     *
+     * @param args command followed by its arguments and options
+     * @return exit code of the command
+     */
+    private ExitCode run(String... args) {
+        PrintStream standardOutput = System.out;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(buffer, true));
+        try {
+            return FileCryptCli.run(args);
+        } finally {
+            System.setOut(standardOutput);
+            output = buffer.toString().trim();
+        }
+    }
+
+    /**
+     * Flip a bit in the middle of a file
+     *
+     * @param file file to be changed
+     */
+    private static void manipulate(File file) throws Exception {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file.toPath(), bytes);
+    }
+}
@@ -0,0 +1,72 @@
+import encryption.FileHeader;
+import encryption.enums.HeaderField;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileHeaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * A header written in front of content is read back without the content
+     */
+    @Test
+    void readHeader() throws Exception {
+        FileHeader header = new FileHeader()
+                .put(HeaderField.ALGORITHM, "AESPBE")
+                .put(HeaderField.BLOCK_MODE, "GCM")
+                .put(HeaderField.SCRYPT_COST, 65536)
+                .put(HeaderField.SALT, new byte[]{1, 2, 3});
+        byte[] headerBytes = header.toByteArray();
+        File file = writeFile(headerBytes, new byte[1000]);
+
+        FileHeader readHeader = FileHeader.read(file);
+        assertArrayEquals(headerBytes, readHeader.toByteArray());
+        assertEquals(headerBytes.length, readHeader.getLength());
+        assertEquals("GCM", readHeader.getString(HeaderField.BLOCK_MODE));
+        assertEquals(65536, readHeader.getInt(HeaderField.SCRYPT_COST));
+        assertArrayEquals(new byte[]{1, 2, 3}, readHeader.getBytes(HeaderField.SALT));
+        assertFalse(readHeader.contains(HeaderField.IV));
+        assertThrows(IOException.class, () -> readHeader.getBytes(HeaderField.IV));
+        assertEquals("version=1 algorithm=AESPBE blockMode=GCM scryptCost=65536 salt=AQID", readHeader.toString());
+    }
+
+    /**
+     * Legacy files have no header, unknown fields are kept and damaged headers are rejected
+     */
+    @Test
+    void readInvalidHeader() throws Exception {
+        assertNull(FileHeader.read(writeFile(new byte[100])));
+
+        byte[] unknownField = {'F', 'C', 'R', 'Y', 1, 0, 5, (byte) 200, 0, 2, 42, 43};
+        FileHeader header = FileHeader.read(writeFile(unknownField));
+        assertArrayEquals(unknownField, header.toByteArray());
+
+        byte[] truncated = Arrays.copyOf(unknownField, unknownField.length - 1);
+        assertThrows(IOException.class, () -> FileHeader.read(writeFile(truncated)));
+
+        byte[] unsupportedVersion = unknownField.clone();
+        unsupportedVersion[4] = 2;
+        assertThrows(IOException.class, () -> FileHeader.read(writeFile(unsupportedVersion)));
+    }
+
+    private File writeFile(byte[]... parts) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(Arrays.stream(parts).mapToInt(part -> part.length).sum());
+        for (byte[] part : parts) {
+            buffer.put(part);
+        }
+        File file = Files.createTempFile(tempDir, "header", ".encrypted").toFile();
+        Files.write(file.toPath(), buffer.array());
+        return file;
+    }
+}
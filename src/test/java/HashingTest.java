@@ -1,9 +1,23 @@
 import encryption.Hashing;
 import encryption.enums.HashAlgorithm;
+import encryption.util.TreeHash;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -36,4 +50,145 @@ class HashingTest {
             assertFalse(hashing.checkHash(randomFile, outputConfig));
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests hashing of a file spanning several chunks, large enough to be memory-mapped.
+     *
+     * Changing the last byte must fail the check, so every chunk has been hashed
+     */
+    @Test
+    void hashLargeFile(@TempDir Path tempDir) throws Exception {
+        byte[] content = new byte[5 * 1024 * 1024 + 3];
+        new Random(42).nextBytes(content);
+        File largeFile = tempDir.resolve("LargeFile.bin").toFile();
+        File hashFile = tempDir.resolve("LargeFile.bin_hash.json").toFile();
+
+        for (HashAlgorithm hashAlgorithm : hashAlgorithms
+        ) {
+            Files.write(largeFile.toPath(), content);
+            hashing.hash(largeFile, hashFile, hashAlgorithm);
+            assertTrue(hashing.checkHash(largeFile, hashFile), "HashAlgorithm: " + hashAlgorithm);
+
+            try (RandomAccessFile file = new RandomAccessFile(largeFile, "rw")) {
+                file.seek(content.length - 1);
+                file.write(content[content.length - 1] ^ 1);
+            }
+            assertFalse(hashing.checkHash(largeFile, hashFile), "HashAlgorithm: " + hashAlgorithm);
+        }
+    }
+
+    /**
+     * The tree root matches the documented layout, independent of the number of worker threads
+     */
+    @Test
+    void treeHash(@TempDir Path tempDir) throws Exception {
+        byte[] content = new byte[18];
+        new Random(42).nextBytes(content);
+        File file = tempDir.resolve("TreeFile.bin").toFile();
+        Files.write(file.toPath(), content);
+
+        byte[][] leaves = new byte[5][];
+        for (int i = 0; i < leaves.length; i++) {
+            leaves[i] = sha256(new byte[]{0}, Arrays.copyOfRange(content, 4 * i, Math.min(content.length, 4 * i + 4)));
+        }
+        byte[] left = sha256(new byte[]{1}, sha256(new byte[]{1}, leaves[0], leaves[1]),
+                sha256(new byte[]{1}, leaves[2], leaves[3]));
+        byte[] root = sha256(new byte[]{1}, left, leaves[4]);
+
+        assertArrayEquals(root, TreeHash.hash(file, 4));
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            assertArrayEquals(root, TreeHash.hash(file, 4, pool));
+        } finally {
+            pool.shutdown();
+        }
+
+        // chunks larger than the default are read into their own buffer
+        assertArrayEquals(sha256(new byte[]{0}, content), TreeHash.hash(file, 2 * TreeHash.DEFAULT_CHUNK_SIZE));
+
+        Files.write(file.toPath(), new byte[0]);
+        assertArrayEquals(sha256(new byte[]{0}), TreeHash.hash(file, 4));
+    }
+
+    /**
+     * A manifest holds several hashes computed in one pass and is checked in one pass
+     */
+    @Test
+    void hashAll(@TempDir Path tempDir) throws Exception {
+        byte[] content = new byte[3 * TreeHash.DEFAULT_CHUNK_SIZE / 2];
+        new Random(42).nextBytes(content);
+        File file = tempDir.resolve("ManifestFile.bin").toFile();
+        Files.write(file.toPath(), content);
+        File manifest = tempDir.resolve("ManifestFile.bin_hash.json").toFile();
+
+        hashing.hashAll(file, manifest, HashAlgorithm.SHA256, HashAlgorithm.HMACSHA256, HashAlgorithm.AESCMAC,
+                HashAlgorithm.SHA256TREE, HashAlgorithm.SHA256);
+        JSONArray hashes = (JSONArray) ((JSONObject) new JSONParser().parse(Files.readString(manifest.toPath())))
+                .get("hashes");
+        assertEquals(4, hashes.size());
+        for (Object entry : hashes) {
+            JSONObject hash = (JSONObject) entry;
+            if (HashAlgorithm.SHA256.label.equals(hash.get("hashAlgorithm"))) {
+                assertArrayEquals(sha256(content), Base64.getDecoder().decode(hash.get("hash").toString()));
+            } else if (HashAlgorithm.SHA256TREE.label.equals(hash.get("hashAlgorithm"))) {
+                assertArrayEquals(TreeHash.hash(file, TreeHash.DEFAULT_CHUNK_SIZE),
+                        Base64.getDecoder().decode(hash.get("hash").toString()));
+            } else {
+                assertNotNull(hash.get("key"));
+            }
+        }
+        assertTrue(hashing.checkHash(file, manifest));
+
+        content[content.length - 1]++;
+        Files.write(file.toPath(), content);
+        assertFalse(hashing.checkHash(file, manifest));
+    }
+
+    /**
+     * The streaming tree hash does not depend on how the content is split
+     */
+    @Test
+    void treeHashAccumulator(@TempDir Path tempDir) throws Exception {
+        byte[] content = new byte[18];
+        new Random(42).nextBytes(content);
+        File file = tempDir.resolve("TreeFile.bin").toFile();
+        Files.write(file.toPath(), content);
+
+        TreeHash.Accumulator accumulator = new TreeHash.Accumulator(4);
+        accumulator.accept(ByteBuffer.wrap(content, 0, 3));
+        accumulator.accept(ByteBuffer.wrap(content, 3, 10));
+        accumulator.accept(ByteBuffer.wrap(content, 13, 5));
+        assertArrayEquals(TreeHash.hash(file, 4), accumulator.finish());
+
+        assertArrayEquals(sha256(new byte[]{0}), new TreeHash.Accumulator(4).finish());
+    }
+
+    /**
+     * A hash file whose chunk size splits the file into more than MAX_LEAVES leaves is rejected
+     * instead of holding a leaf hash per byte, for single hashes and manifests
+     */
+    @Test
+    void rejectTinyChunkSize(@TempDir Path tempDir) throws Exception {
+        File file = tempDir.resolve("TreeFile.bin").toFile();
+        Files.write(file.toPath(), new byte[TreeHash.MAX_LEAVES + 1]);
+        File hashFile = tempDir.resolve("TreeFile.bin_hash.json").toFile();
+        File manifest = tempDir.resolve("manifest.json").toFile();
+        hashing.hash(file, hashFile, HashAlgorithm.SHA256TREE);
+        hashing.hashAll(file, manifest, HashAlgorithm.SHA256TREE);
+        String chunkSize = "\"chunkSize\":" + TreeHash.DEFAULT_CHUNK_SIZE;
+        Files.writeString(hashFile.toPath(), Files.readString(hashFile.toPath()).replace(chunkSize, "\"chunkSize\":1"));
+        Files.writeString(manifest.toPath(), Files.readString(manifest.toPath()).replace(chunkSize, "\"chunkSize\":1"));
+
+        assertThrows(IllegalArgumentException.class, () -> hashing.checkHash(file, hashFile));
+        assertThrows(IllegalArgumentException.class, () -> hashing.checkHash(file, manifest));
+        assertThrows(IllegalArgumentException.class, () -> TreeHash.hash(file, 1));
+    }
+
+    private static byte[] sha256(byte[]... parts) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (byte[] part : parts) {
+            digest.update(part);
+        }
+        return digest.digest();
+    }
+}
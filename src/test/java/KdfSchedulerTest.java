@@ -0,0 +1,149 @@
+import encryption.util.KdfScheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KdfSchedulerTest {
+
+    private long memoryBudget;
+
+    @BeforeEach
+    void setUp() {
+        memoryBudget = KdfScheduler.getMemoryBudget();
+    }
+
+    @AfterEach
+    void tearDown() {
+        KdfScheduler.setMemoryBudget(memoryBudget);
+    }
+
+    /**
+     * Only as many derivations run at once as fit into the budget
+     */
+    @Test
+    void limitConcurrentMemory() throws Exception {
+        KdfScheduler.setMemoryBudget(100);
+        assertEquals(1, runConcurrently(8, 60));
+        assertTrue(runConcurrently(8, 30) <= 3);
+        assertEquals(0, KdfScheduler.getMemoryInUse());
+    }
+
+    /**
+     * A derivation larger than the budget runs alone instead of waiting forever
+     */
+    @Test
+    void runOversizedDerivationAlone() throws Exception {
+        KdfScheduler.setMemoryBudget(100);
+        assertEquals(1, runConcurrently(3, 500));
+    }
+
+    /**
+     * An interrupted waiting derivation is cancelled and does not block the ones behind it
+     */
+    @Test
+    void cancelWaitingDerivation() throws Exception {
+        KdfScheduler.setMemoryBudget(100);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<byte[]> running = executor.submit(() -> KdfScheduler.derive(100, () -> {
+                started.countDown();
+                try {
+                    finish.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return new byte[0];
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<byte[]> waiting = executor.submit(() -> KdfScheduler.derive(100, () -> new byte[0]));
+            Thread.sleep(50);
+            waiting.cancel(true);
+
+            finish.countDown();
+            running.get(5, TimeUnit.SECONDS);
+            assertArrayEquals(new byte[0], KdfScheduler.derive(100, () -> new byte[0]));
+        } finally {
+            finish.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The budget is read from the system property, an invalid value falls back to the default
+     * instead of failing the class initialization
+     */
+    @Test
+    void parseMemoryBudgetProperty() throws Exception {
+        assertEquals(2048L * 1024 * 1024, loadMemoryBudget("2048"));
+        long defaultBudget = Runtime.getRuntime().maxMemory() / 4 * 3;
+        assertEquals(defaultBudget, loadMemoryBudget("abc"));
+        assertEquals(defaultBudget, loadMemoryBudget("-1"));
+        assertEquals(defaultBudget, loadMemoryBudget("99999999999999999"));
+    }
+
+    /**
+     * Initialize a fresh copy of the scheduler with a memory budget property
+     *
+     * @param megabytes value of the property
+     * @return memory budget of the fresh copy
+     */
+    private static long loadMemoryBudget(String megabytes) throws Exception {
+        URL classes = KdfScheduler.class.getProtectionDomain().getCodeSource().getLocation();
+        System.setProperty(KdfScheduler.MEMORY_BUDGET_PROPERTY, megabytes);
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{classes}, null)) {
+            Class<?> scheduler = loader.loadClass(KdfScheduler.class.getName());
+            return (long) scheduler.getMethod("getMemoryBudget").invoke(null);
+        } finally {
+            System.clearProperty(KdfScheduler.MEMORY_BUDGET_PROPERTY);
+        }
+    }
+
+    /**
+     * Run derivations of the same size on as many threads
+     *
+     * @param count  number of derivations
+     * @param memory memory of each derivation
+     * @return maximum number of derivations that ran at the same time
+     */
+    private int runConcurrently(int count, long memory) throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        try {
+            List<Future<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                futures.add(executor.submit(() -> KdfScheduler.derive(memory, () -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    running.decrementAndGet();
+                    return new byte[0];
+                })));
+            }
+            for (Future<byte[]> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return maxRunning.get();
+    }
+}
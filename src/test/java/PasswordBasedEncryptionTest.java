@@ -0,0 +1,317 @@
+import encryption.FileHeader;
+import encryption.PasswordBasedEncryption;
+import encryption.PbeSession;
+import encryption.ScryptParameters;
+import encryption.enums.BlockMode;
+import encryption.enums.HeaderField;
+import encryption.enums.KeyDerivationFunction;
+import encryption.enums.PaddingMode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.InvalidAlgorithmParameterException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PasswordBasedEncryptionTest {
+
+    PasswordBasedEncryption passwordBasedEncryption;
+
+    @BeforeEach
+    void setUp() {
+        passwordBasedEncryption = new PasswordBasedEncryption();
+    }
+
+    /**
+     * Tests encrypt as well as decrypt.
+     *
+     * Uses a file spanning several I/O buffers with an unaligned size
+     * and asserts that the decrypted file is equal to the original file
+     */
+    @Test
+    void encrypt(@TempDir Path tempDir) throws Exception {
+        byte[] content = new byte[3 * 64 * 1024 + 5];
+        new Random(42).nextBytes(content);
+        File testFile = tempDir.resolve("LargeFile.bin").toFile();
+        Files.write(testFile.toPath(), content);
+
+        passwordBasedEncryption.init(PaddingMode.PKCS7Padding, BlockMode.CBC, KeyDerivationFunction.SHA256, 256,
+                testFile, null, "password");
+        passwordBasedEncryption.encrypt();
+
+        File encryptedFile = tempDir.resolve("LargeFile.bin.encrypted").toFile();
+        File configurationFile = tempDir.resolve("LargeFile.bin.json").toFile();
+        passwordBasedEncryption.init(PaddingMode.PKCS7Padding, BlockMode.CBC, KeyDerivationFunction.SHA256, 256,
+                encryptedFile, configurationFile, "password");
+        passwordBasedEncryption.decrypt();
+
+        byte[] decryptedFileBytes = Files.readAllBytes(tempDir.resolve("LargeFile_decrypted.bin"));
+        assertArrayEquals(content, decryptedFileBytes);
+        assertNotEquals(content.length, encryptedFile.length());
+    }
+
+    /**
+     * The SHA256 KDF is bound to CBC, GCM parameters are rejected
+     */
+    @Test
+    void encryptSha256Gcm(@TempDir Path tempDir) throws Exception {
+        File testFile = tempDir.resolve("TestFile.txt").toFile();
+        Files.write(testFile.toPath(), "test".getBytes());
+
+        passwordBasedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, KeyDerivationFunction.SHA256, 256,
+                testFile, null, "password");
+        assertThrows(InvalidAlgorithmParameterException.class, () -> passwordBasedEncryption.encrypt());
+    }
+
+    /**
+     * Salt, IV and KDF are read from the header, no configuration file is written or needed
+     */
+    @Test
+    void decryptWithoutConfigurationFile(@TempDir Path tempDir) throws Exception {
+        File testFile = tempDir.resolve("TestFile.txt").toFile();
+        Files.write(testFile.toPath(), "test".getBytes());
+
+        passwordBasedEncryption.init(PaddingMode.PKCS7Padding, BlockMode.CBC, KeyDerivationFunction.SHA256, 256,
+                testFile, null, "password");
+        passwordBasedEncryption.encrypt();
+        assertFalse(tempDir.resolve("TestFile.txt.json").toFile().exists());
+
+        // the KDF passed to init() is replaced by the one in the header
+        File encryptedFile = tempDir.resolve("TestFile.txt.encrypted").toFile();
+        passwordBasedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, KeyDerivationFunction.SCRYPT, 256,
+                encryptedFile, null, "password");
+        passwordBasedEncryption.decrypt();
+
+        assertEquals("test", Files.readString(tempDir.resolve("TestFile_decrypted.txt")));
+    }
+
+    /**
+     * Files of one session share the master key salt but get their own HKDF salt.
+     * Every file can be decrypted with the password alone or within a new session
+     */
+    @Test
+    void encryptWithSession(@TempDir Path tempDir) throws Exception {
+        String[] names = {"A.txt", "B.txt", "C.txt"};
+        try (PbeSession session = new PbeSession("password", KeyDerivationFunction.SHA256)) {
+            for (String name : names) {
+                Files.write(tempDir.resolve(name), name.getBytes());
+                PasswordBasedEncryption encryption = new PasswordBasedEncryption();
+                encryption.init(PaddingMode.NoPadding, BlockMode.GCM, KeyDerivationFunction.SCRYPT, 256,
+                        tempDir.resolve(name).toFile(), null, "password");
+                encryption.setSession(session);
+                encryption.encrypt();
+            }
+        }
+
+        FileHeader a = FileHeader.read(tempDir.resolve("A.txt.encrypted").toFile());
+        FileHeader b = FileHeader.read(tempDir.resolve("B.txt.encrypted").toFile());
+        assertEquals(KeyDerivationFunction.SHA256.toString(), a.getString(HeaderField.KDF));
+        assertArrayEquals(a.getBytes(HeaderField.SALT), b.getBytes(HeaderField.SALT));
+        assertFalse(Arrays.equals(a.getBytes(HeaderField.HKDF_SALT), b.getBytes(HeaderField.HKDF_SALT)));
+
+        passwordBasedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, KeyDerivationFunction.SCRYPT, 256,
+                tempDir.resolve("A.txt.encrypted").toFile(), null, "password");
+        passwordBasedEncryption.decrypt();
+        assertEquals("A.txt", Files.readString(tempDir.resolve("A_decrypted.txt")));
+
+        try (PbeSession session = new PbeSession("password", KeyDerivationFunction.SCRYPT)) {
+            for (String name : new String[]{"B.txt", "C.txt"}) {
+                PasswordBasedEncryption decryption = new PasswordBasedEncryption();
+                decryption.init(PaddingMode.NoPadding, BlockMode.GCM, KeyDerivationFunction.SCRYPT, 256,
+                        tempDir.resolve(name + ".encrypted").toFile(), null, "password");
+                decryption.setSession(session);
+                decryption.decrypt();
+            }
+        }
+        assertEquals("B.txt", Files.readString(tempDir.resolve("B_decrypted.txt")));
+        assertEquals("C.txt", Files.readString(tempDir.resolve("C_decrypted.txt")));
+    }
+
+    /**
+     * Argon2id parameters are recorded in the header and used for decryption
+     */
+    @Test
+    void encryptArgon2id(@TempDir Path tempDir) throws Exception {
+        File testFile = tempDir.resolve("TestFile.txt").toFile();
+        Files.write(testFile.toPath(), "test".getBytes());
+
+        passwordBasedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, KeyDerivationFunction.ARGON2ID, 256,
+                testFile, null, "password");
+        passwordBasedEncryption.setArgon2Parameters(1024, 2, 2);
+        passwordBasedEncryption.encrypt();
+
+        File encryptedFile = tempDir.resolve("TestFile.txt.encrypted").toFile();
+        FileHeader header = FileHeader.read(encryptedFile);
+        assertEquals(1024, header.getInt(HeaderField.ARGON2_MEMORY));
+        assertEquals(2, header.getInt(HeaderField.ARGON2_ITERATIONS));
+        assertEquals(2, header.getInt(HeaderField.ARGON2_LANES));
+
+        passwordBasedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, KeyDerivationFunction.SCRYPT, 256,
+                encryptedFile, null, "password");
+        passwordBasedEncryption.decrypt();
+        assertEquals("test", Files.readString(tempDir.resolve("TestFile_decrypted.txt")));
+    }
+
+    /**
+     * scrypt parameters set for encryption are recorded in the header and used for decryption
+     */
+    @Test
+    void encryptScryptParameters(@TempDir Path tempDir) throws Exception {
+        File testFile = tempDir.resolve("TestFile.txt").toFile();
+        Files.write(testFile.toPath(), "test".getBytes());
+
+        passwordBasedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, KeyDerivationFunction.SCRYPT, 256,
+                testFile, null, "password");
+        passwordBasedEncryption.setScryptParameters(new ScryptParameters(1024, 8, 2));
+        passwordBasedEncryption.encrypt();
+
+        File encryptedFile = tempDir.resolve("TestFile.txt.encrypted").toFile();
+        FileHeader header = FileHeader.read(encryptedFile);
+        assertEquals(1024, header.getInt(HeaderField.SCRYPT_COST));
+        assertEquals(8, header.getInt(HeaderField.SCRYPT_BLOCK_SIZE));
+        assertEquals(2, header.getInt(HeaderField.SCRYPT_PARALLELIZATION));
+
+        passwordBasedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, KeyDerivationFunction.SHA256, 256,
+                encryptedFile, null, "password");
+        passwordBasedEncryption.decrypt();
+        assertEquals("test", Files.readString(tempDir.resolve("TestFile_decrypted.txt")));
+    }
+
+    /**
+     * Calibration stays within the memory budget and rejects invalid parameters
+     */
+    @Test
+    void calibrateScrypt() {
+        ScryptParameters parameters = ScryptParameters.calibrate(50, 8 * 1024 * 1024);
+        assertTrue(parameters.getMemory() <= 8 * 1024 * 1024);
+        assertTrue(parameters.getCost() >= 1024);
+
+        assertThrows(IllegalArgumentException.class, () -> new ScryptParameters(1000, 8, 1));
+        assertEquals(1L << 30, new ScryptParameters(1 << 20, 8, 1).getMemory());
+        assertThrows(IllegalArgumentException.class, () -> new ScryptParameters(1 << 21, 8, 1));
+        assertThrows(IllegalArgumentException.class, () -> new ScryptParameters(1 << 30, 1 << 20, 1));
+        assertThrows(IllegalArgumentException.class, () -> ScryptParameters.calibrate(50, 1024));
+    }
+
+    /**
+     * A GCM file is verified without writing the plaintext, a wrong password fails the verification
+     */
+    @Test
+    void verify(@TempDir Path tempDir) throws Exception {
+        File testFile = tempDir.resolve("TestFile.txt").toFile();
+        Files.write(testFile.toPath(), "test".getBytes());
+
+        passwordBasedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, KeyDerivationFunction.ARGON2ID, 256,
+                testFile, null, "password");
+        passwordBasedEncryption.setArgon2Parameters(1024, 2, 2);
+        passwordBasedEncryption.encrypt();
+
+        File encryptedFile = tempDir.resolve("TestFile.txt.encrypted").toFile();
+        passwordBasedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, KeyDerivationFunction.ARGON2ID, 256,
+                encryptedFile, null, "password");
+        assertTrue(passwordBasedEncryption.verify());
+        assertFalse(tempDir.resolve("TestFile_decrypted.txt").toFile().exists());
+
+        passwordBasedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, KeyDerivationFunction.ARGON2ID, 256,
+                encryptedFile, null, "wrong password");
+        assertFalse(passwordBasedEncryption.verify());
+    }
+
+    /**
+     * Files in other block modes are rejected from their header before the key is derived
+     */
+    @Test
+    void verifyRejectsCbc(@TempDir Path tempDir) throws Exception {
+        File testFile = tempDir.resolve("TestFile.txt").toFile();
+        Files.write(testFile.toPath(), "test".getBytes());
+        PbeSession session = new PbeSession("password", KeyDerivationFunction.SHA256);
+        passwordBasedEncryption.init(PaddingMode.PKCS7Padding, BlockMode.CBC, KeyDerivationFunction.SHA256, 256,
+                testFile, null, "password");
+        passwordBasedEncryption.setSession(session);
+        passwordBasedEncryption.encrypt();
+
+        // a closed session fails every key derivation
+        session.close();
+        passwordBasedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, KeyDerivationFunction.SHA256, 256,
+                tempDir.resolve("TestFile.txt.encrypted").toFile(), null, "password");
+        passwordBasedEncryption.setSession(session);
+        assertThrows(IllegalArgumentException.class, () -> passwordBasedEncryption.verify());
+    }
+
+    /**
+     * Argon2id parameters out of range are rejected from the header before the key is derived
+     */
+    @Test
+    void rejectArgon2idHeader(@TempDir Path tempDir) throws Exception {
+        File testFile = tempDir.resolve("TestFile.txt").toFile();
+        Files.write(testFile.toPath(), "test".getBytes());
+        PbeSession session = new PbeSession("password", KeyDerivationFunction.ARGON2ID);
+        passwordBasedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, KeyDerivationFunction.ARGON2ID, 256,
+                testFile, null, "password");
+        passwordBasedEncryption.setArgon2Parameters(1024, 2, 2);
+        passwordBasedEncryption.setSession(session);
+        passwordBasedEncryption.encrypt();
+        // a closed session fails every key derivation
+        session.close();
+
+        File encryptedFile = tempDir.resolve("TestFile.txt.encrypted").toFile();
+        assertRejected(encryptedFile, session, HeaderField.ARGON2_LANES, 0);
+        assertRejected(encryptedFile, session, HeaderField.ARGON2_ITERATIONS, 0);
+        assertRejected(encryptedFile, session, HeaderField.ARGON2_MEMORY, 15);
+        assertRejected(encryptedFile, session, HeaderField.ARGON2_MEMORY, Integer.MAX_VALUE);
+        assertThrows(IllegalArgumentException.class,
+                () -> passwordBasedEncryption.setArgon2Parameters(Integer.MAX_VALUE, 1, 1));
+    }
+
+    /**
+     * Iteration counts out of range are rejected from the header before the key is derived
+     */
+    @Test
+    void rejectIterationCountHeader(@TempDir Path tempDir) throws Exception {
+        File testFile = tempDir.resolve("TestFile.txt").toFile();
+        Files.write(testFile.toPath(), "test".getBytes());
+        PbeSession session = new PbeSession("password", KeyDerivationFunction.SHA256);
+        passwordBasedEncryption.init(PaddingMode.PKCS7Padding, BlockMode.CBC, KeyDerivationFunction.SHA256, 256,
+                testFile, null, "password");
+        passwordBasedEncryption.setSession(session);
+        passwordBasedEncryption.encrypt();
+        session.close();
+
+        File encryptedFile = tempDir.resolve("TestFile.txt.encrypted").toFile();
+        assertRejected(encryptedFile, session, HeaderField.ITERATIONS, 0);
+        assertRejected(encryptedFile, session, HeaderField.ITERATIONS, -1);
+        assertRejected(encryptedFile, session, HeaderField.ITERATIONS, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Change a number in the header of an encrypted file and expect decryption to reject it
+     * before the closed session is asked for the key
+     *
+     * @param encryptedFile file encrypted within the session
+     * @param session       closed session of the file
+     * @param field         header field to be changed
+     * @param value         value out of range
+     */
+    private void assertRejected(File encryptedFile, PbeSession session, HeaderField field, int value)
+            throws Exception {
+        byte[] original = Files.readAllBytes(encryptedFile.toPath());
+        byte[] edited = FileHeader.read(encryptedFile).put(field, value).toByteArray();
+        byte[] bytes = original.clone();
+        System.arraycopy(edited, 0, bytes, 0, edited.length);
+        Files.write(encryptedFile.toPath(), bytes);
+        try {
+            passwordBasedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, KeyDerivationFunction.SHA256, 256,
+                    encryptedFile, null, "password");
+            passwordBasedEncryption.setSession(session);
+            assertThrows(IllegalArgumentException.class, () -> passwordBasedEncryption.decrypt(), field.toString());
+        } finally {
+            Files.write(encryptedFile.toPath(), original);
+        }
+    }
+}
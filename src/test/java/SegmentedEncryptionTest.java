@@ -0,0 +1,213 @@
+import encryption.FileHeader;
+import encryption.SegmentedEncryption;
+import encryption.enums.BlockMode;
+import encryption.enums.PaddingMode;
+import encryption.util.MappedFileIO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.AEADBadTagException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentedEncryptionTest {
+
+    static final int SEGMENT_SIZE = 4096;
+
+    SegmentedEncryption segmentedEncryption;
+
+    @TempDir
+    Path tempDir;
+
+    File testFile;
+    File encryptedFile;
+    File configurationFile;
+    File decryptedFile;
+
+    @BeforeEach
+    void setUp() {
+        segmentedEncryption = new SegmentedEncryption();
+        segmentedEncryption.setSegmentSize(SEGMENT_SIZE);
+        testFile = tempDir.resolve("TestFile.bin").toFile();
+        encryptedFile = tempDir.resolve("TestFile.bin.encrypted").toFile();
+        configurationFile = tempDir.resolve("TestFile.bin.json").toFile();
+        decryptedFile = tempDir.resolve("TestFile_decrypted.bin").toFile();
+    }
+
+    /**
+     * Tests encrypt as well as decrypt for empty, aligned and unaligned file sizes
+     * and asserts that the decrypted file is equal to the original file
+     */
+    @Test
+    void encrypt() throws Exception {
+        int[] sizes = {0, 1, SEGMENT_SIZE, 3 * SEGMENT_SIZE, 37 * SEGMENT_SIZE + 123};
+        for (int size : sizes
+        ) {
+            byte[] content = writeTestFile(size);
+
+            segmentedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, 256, testFile, null);
+            segmentedEncryption.encrypt();
+            segmentedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, 256, encryptedFile, configurationFile);
+            segmentedEncryption.decrypt();
+
+            assertArrayEquals(content, Files.readAllBytes(decryptedFile.toPath()), "Size: " + size);
+        }
+    }
+
+    /**
+     * A manipulated segment fails authentication and no plaintext is left behind
+     */
+    @Test
+    void decryptManipulated() throws Exception {
+        writeTestFile(5 * SEGMENT_SIZE);
+        segmentedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, 128, testFile, null);
+        segmentedEncryption.encrypt();
+
+        long headerLength = FileHeader.read(encryptedFile).getLength();
+        try (RandomAccessFile file = new RandomAccessFile(encryptedFile, "rw")) {
+            file.seek(headerLength + 2L * SEGMENT_SIZE + 100);
+            int value = file.read();
+            file.seek(headerLength + 2L * SEGMENT_SIZE + 100);
+            file.write(value ^ 1);
+        }
+
+        segmentedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, 128, encryptedFile, configurationFile);
+        assertThrows(AEADBadTagException.class, () -> segmentedEncryption.decrypt());
+        assertFalse(decryptedFile.exists());
+    }
+
+    /**
+     * Dropping whole segments at the end is detected through the final segment flag
+     */
+    @Test
+    void decryptTruncated() throws Exception {
+        writeTestFile(5 * SEGMENT_SIZE);
+        segmentedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, 128, testFile, null);
+        segmentedEncryption.encrypt();
+
+        long headerLength = FileHeader.read(encryptedFile).getLength();
+        try (RandomAccessFile file = new RandomAccessFile(encryptedFile, "rw")) {
+            file.setLength(headerLength + 3L * (SEGMENT_SIZE + 16));
+        }
+
+        segmentedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, 128, encryptedFile, configurationFile);
+        assertThrows(AEADBadTagException.class, () -> segmentedEncryption.decrypt());
+    }
+
+    /**
+     * Random ranges read through the channel match the plaintext, including ranges spanning segments
+     */
+    @Test
+    void openDecryptingChannel() throws Exception {
+        byte[] content = writeTestFile(20 * SEGMENT_SIZE + 77);
+        segmentedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, 256, testFile, null);
+        segmentedEncryption.encrypt();
+        segmentedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, 256, encryptedFile, configurationFile);
+
+        Random random = new Random(1);
+        try (SeekableByteChannel channel = segmentedEncryption.openDecryptingChannel()) {
+            assertEquals(content.length, channel.size());
+            for (int i = 0; i < 100; i++) {
+                int position = random.nextInt(content.length);
+                int length = Math.min(random.nextInt(3 * SEGMENT_SIZE), content.length - position);
+                ByteBuffer buffer = ByteBuffer.allocate(length);
+                channel.position(position);
+                while (buffer.hasRemaining()) {
+                    channel.read(buffer);
+                }
+                assertArrayEquals(Arrays.copyOfRange(content, position, position + length), buffer.array());
+            }
+            channel.position(content.length);
+            assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+        }
+    }
+
+    /**
+     * Only reads touching a manipulated segment fail
+     */
+    @Test
+    void openDecryptingChannelManipulated() throws Exception {
+        byte[] content = writeTestFile(5 * SEGMENT_SIZE);
+        segmentedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, 256, testFile, null);
+        segmentedEncryption.encrypt();
+
+        long headerLength = FileHeader.read(encryptedFile).getLength();
+        try (RandomAccessFile file = new RandomAccessFile(encryptedFile, "rw")) {
+            file.seek(headerLength + 3L * (SEGMENT_SIZE + 16) + 10);
+            int value = file.read();
+            file.seek(headerLength + 3L * (SEGMENT_SIZE + 16) + 10);
+            file.write(value ^ 1);
+        }
+
+        segmentedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, 256, encryptedFile, configurationFile);
+        try (SeekableByteChannel channel = segmentedEncryption.openDecryptingChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate(SEGMENT_SIZE);
+            channel.position(SEGMENT_SIZE);
+            channel.read(buffer);
+            assertArrayEquals(Arrays.copyOfRange(content, SEGMENT_SIZE, 2 * SEGMENT_SIZE), buffer.array());
+
+            channel.position(3L * SEGMENT_SIZE);
+            assertThrows(IOException.class, () -> channel.read(ByteBuffer.allocate(1)));
+        }
+    }
+
+    /**
+     * Progress of the parallel segments adds up to the size of the file
+     */
+    @Test
+    void reportProgress() throws Exception {
+        writeTestFile(37 * SEGMENT_SIZE + 123);
+        AtomicLong processed = new AtomicLong();
+
+        MappedFileIO.setProgressListener((processedBytes, totalBytes) ->
+                processed.accumulateAndGet(processedBytes, Math::max));
+        try {
+            segmentedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, 256, testFile, null);
+            segmentedEncryption.encrypt();
+        } finally {
+            MappedFileIO.setProgressListener(null);
+        }
+        assertEquals(testFile.length(), processed.get());
+    }
+
+    private byte[] writeTestFile(int size) throws Exception {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        Files.write(testFile.toPath(), content);
+        return content;
+    }
+
+    /**
+     * All segments are authenticated without writing the plaintext
+     */
+    @Test
+    void verify() throws Exception {
+        writeTestFile(5 * SEGMENT_SIZE + 7);
+        segmentedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, 256, testFile, null);
+        segmentedEncryption.encrypt();
+
+        segmentedEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, 256, encryptedFile, configurationFile);
+        assertTrue(segmentedEncryption.verify());
+        assertFalse(decryptedFile.exists());
+
+        long headerLength = FileHeader.read(encryptedFile).getLength();
+        try (RandomAccessFile file = new RandomAccessFile(encryptedFile, "rw")) {
+            file.seek(headerLength + 4L * SEGMENT_SIZE + 3);
+            int value = file.read();
+            file.seek(headerLength + 4L * SEGMENT_SIZE + 3);
+            file.write(value ^ 1);
+        }
+        assertFalse(segmentedEncryption.verify());
+    }
+}
@@ -1,13 +1,29 @@
+import encryption.FileHeader;
 import encryption.SymmetricEncryption;
 import encryption.enums.BlockMode;
+import encryption.enums.HeaderField;
 import encryption.enums.PaddingMode;
+import encryption.util.MappedFileIO;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.KeyGenerator;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -87,4 +103,150 @@ class SymmetricEncryptionTest {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests that files spanning several I/O chunks are streamed through the cipher correctly.
+     *
+     * The file is large enough to be memory-mapped and has an unaligned size
+     * so the last chunk is a partial block
+     */
+    @Test
+    void encryptLargeFile(@TempDir Path tempDir) throws Exception {
+        byte[] content = new byte[5 * 1024 * 1024 + 5];
+        new Random(42).nextBytes(content);
+        File testFile = tempDir.resolve("LargeFile.bin").toFile();
+        Files.write(testFile.toPath(), content);
+
+        for (BlockMode blockMode : blockModes
+        ) {
+            PaddingMode paddingMode = (blockMode == BlockMode.ECB || blockMode == BlockMode.CBC)
+                    ? PaddingMode.PKCS7Padding
+                    : PaddingMode.NoPadding;
+
+            symmetricEncryption.init(paddingMode, blockMode, 256, testFile, null);
+            symmetricEncryption.encrypt();
+
+            File encryptedFile = tempDir.resolve("LargeFile.bin.encrypted").toFile();
+            File configurationFile = tempDir.resolve("LargeFile.bin.json").toFile();
+            symmetricEncryption.init(paddingMode, blockMode, 256, encryptedFile, configurationFile);
+            symmetricEncryption.decrypt();
+
+            byte[] decryptedFileBytes = Files.readAllBytes(tempDir.resolve("LargeFile_decrypted.bin"));
+            assertArrayEquals(content, decryptedFileBytes, "BlockMode: " + blockMode);
+        }
+    }
+
+    /**
+     * Reports the progress of a large file to the listener and deletes the incomplete
+     * encrypted file when the listener cancels the operation
+     */
+    @Test
+    void cancelEncryption(@TempDir Path tempDir) throws Exception {
+        File testFile = tempDir.resolve("LargeFile.bin").toFile();
+        Files.write(testFile.toPath(), new byte[5 * 1024 * 1024]);
+        List<Long> progress = new ArrayList<>();
+
+        MappedFileIO.setProgressListener((processedBytes, totalBytes) -> progress.add(processedBytes));
+        try {
+            symmetricEncryption.init(PaddingMode.NoPadding, BlockMode.CTS, 256, testFile, null);
+            symmetricEncryption.encrypt();
+            assertEquals(testFile.length(), progress.get(progress.size() - 1));
+
+            MappedFileIO.setProgressListener((processedBytes, totalBytes) -> {
+                throw new CancellationException();
+            });
+            assertThrows(CancellationException.class, () -> symmetricEncryption.encrypt());
+            assertFalse(tempDir.resolve("LargeFile.bin.encrypted").toFile().exists());
+        } finally {
+            MappedFileIO.setProgressListener(null);
+        }
+    }
+
+    /**
+     * Parameters are read from the header of the encrypted file, the configuration file only holds the key
+     * and a changed header fails authentication
+     */
+    @Test
+    void decryptWithHeader(@TempDir Path tempDir) throws Exception {
+        File testFile = tempDir.resolve("TestFile.txt").toFile();
+        Files.write(testFile.toPath(), "Hallo".getBytes());
+        File encryptedFile = tempDir.resolve("TestFile.txt.encrypted").toFile();
+        File configurationFile = tempDir.resolve("TestFile.txt.json").toFile();
+
+        symmetricEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, 128, testFile, null);
+        symmetricEncryption.encrypt();
+        FileHeader header = FileHeader.read(encryptedFile);
+        assertEquals("GCM", header.getString(HeaderField.BLOCK_MODE));
+        assertEquals(128, header.getInt(HeaderField.KEY_LENGTH));
+        assertFalse(Files.readString(configurationFile.toPath()).contains("blockMode"));
+
+        // block mode, padding and key length passed to init() are ignored
+        symmetricEncryption.init(PaddingMode.PKCS7Padding, BlockMode.CBC, 256, encryptedFile, configurationFile);
+        symmetricEncryption.decrypt();
+        assertEquals("Hallo", Files.readString(tempDir.resolve("TestFile_decrypted.txt")));
+
+        byte[] encryptedFileBytes = Files.readAllBytes(encryptedFile.toPath());
+        byte[] content = Arrays.copyOfRange(encryptedFileBytes, header.getLength(), encryptedFileBytes.length);
+        byte[] changedHeader = header.put(HeaderField.KDF, "SCRYPT").toByteArray();
+        Files.write(encryptedFile.toPath(), ByteBuffer.allocate(changedHeader.length + content.length)
+                .put(changedHeader)
+                .put(content)
+                .array());
+        assertThrows(AEADBadTagException.class, () -> symmetricEncryption.decrypt());
+    }
+
+    /**
+     * Files written before the header was introduced are decrypted with the parameters of their configuration file
+     */
+    @Test
+    void decryptLegacyFile(@TempDir Path tempDir) throws Exception {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(192);
+        SecretKey key = keyGenerator.generateKey();
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+
+        File encryptedFile = tempDir.resolve("TestFile.txt.encrypted").toFile();
+        File configurationFile = tempDir.resolve("TestFile.txt.json").toFile();
+        Files.write(encryptedFile.toPath(), cipher.doFinal("Hallo".getBytes()));
+        Files.writeString(configurationFile.toPath(), "{\"paddingMode\":\"PKCS7Padding\",\"keyLength\":\"192\","
+                + "\"blockMode\":\"CBC\",\"iv\":\"" + Base64.getEncoder().encodeToString(cipher.getIV()) + "\","
+                + "\"key\":\"" + Base64.getEncoder().encodeToString(key.getEncoded()) + "\",\"algorithm\":\"AES\"}");
+
+        symmetricEncryption.init(PaddingMode.NoPadding, BlockMode.GCM, 256, encryptedFile, configurationFile);
+        symmetricEncryption.decrypt();
+        assertEquals("Hallo", Files.readString(tempDir.resolve("TestFile_decrypted.txt")));
+    }
+
+    /**
+     * GCM and CCM files are verified without writing the plaintext, a changed byte fails the verification
+     * and unauthenticated modes cannot be verified
+     */
+    @Test
+    void verify(@TempDir Path tempDir) throws Exception {
+        byte[] content = new byte[3 * 64 * 1024 + 5];
+        new Random(42).nextBytes(content);
+        File testFile = tempDir.resolve("TestFile.bin").toFile();
+        Files.write(testFile.toPath(), content);
+        File encryptedFile = tempDir.resolve("TestFile.bin.encrypted").toFile();
+        File configurationFile = tempDir.resolve("TestFile.bin.json").toFile();
+
+        for (BlockMode blockMode : new BlockMode[]{BlockMode.GCM, BlockMode.CCM}) {
+            symmetricEncryption.init(PaddingMode.NoPadding, blockMode, 256, testFile, null);
+            symmetricEncryption.encrypt();
+            symmetricEncryption.init(PaddingMode.NoPadding, blockMode, 256, encryptedFile, configurationFile);
+            assertTrue(symmetricEncryption.verify(), blockMode.toString());
+            assertFalse(tempDir.resolve("TestFile_decrypted.bin").toFile().exists());
+
+            byte[] encryptedFileBytes = Files.readAllBytes(encryptedFile.toPath());
+            encryptedFileBytes[encryptedFileBytes.length / 2] ^= 1;
+            Files.write(encryptedFile.toPath(), encryptedFileBytes);
+            assertFalse(symmetricEncryption.verify(), blockMode.toString());
+        }
+
+        symmetricEncryption.init(PaddingMode.PKCS7Padding, BlockMode.CBC, 256, testFile, null);
+        symmetricEncryption.encrypt();
+        symmetricEncryption.init(PaddingMode.PKCS7Padding, BlockMode.CBC, 256, encryptedFile, configurationFile);
+        assertThrows(IllegalArgumentException.class, () -> symmetricEncryption.verify());
+    }
+}